@@ -0,0 +1,114 @@
+package com.example.smartmute;
+
+import android.location.Location;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the old per-fence containment path (Location.distanceBetween into
+ * a float[1] and a formatted debug line for every fence) with GeofenceKernel
+ * and with GeofenceIndex on top of it, on the device. Whether they agree is
+ * GeofenceKernelTest's job; timings are written to logcat under the
+ * "GeofenceKernelBenchmark" tag, since device noise makes them no pass/fail signal.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GeofenceKernelBenchmark {
+    private static final String TAG = "GeofenceKernelBenchmark";
+    private static final int FENCES = 2000;
+    private static final int POINTS = 500;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void containmentPerFix() {
+        Random random = new Random(42);
+        List<SmartLocation> fences = new ArrayList<>();
+        for (int i = 0; i < FENCES; i++) {
+            // Venue-sized fences scattered over a city-sized area
+            fences.add(new SmartLocation(i + 1, "Fence " + i,
+                    12.90 + random.nextDouble() * 0.2, 77.50 + random.nextDouble() * 0.2,
+                    30 + random.nextInt(470), 1, 2, true));
+        }
+        double[][] points = new double[POINTS][];
+        for (int i = 0; i < POINTS; i++) {
+            points[i] = new double[]{12.90 + random.nextDouble() * 0.2, 77.50 + random.nextDouble() * 0.2};
+        }
+
+        GeofenceKernel kernel = new GeofenceKernel(fences.toArray(new SmartLocation[0]));
+        GeofenceIndex index = GeofenceIndex.build(fences);
+        List<SmartLocation> out = new ArrayList<>();
+
+        // Warm up every path so the first round doesn't pay for class loading and JIT
+        int legacyMatches = 0, kernelMatches = 0, indexMatches = 0;
+        for (double[] point : points) {
+            legacyCount(fences, point[0], point[1]);
+            out.clear();
+            kernel.collectContaining(point[0], point[1], out);
+            out.clear();
+            index.collectContaining(point[0], point[1], out);
+        }
+
+        long legacyNanos = 0, kernelNanos = 0, indexNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (double[] point : points) {
+                legacyMatches += legacyCount(fences, point[0], point[1]);
+            }
+            legacyNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (double[] point : points) {
+                out.clear();
+                kernel.collectContaining(point[0], point[1], out);
+                kernelMatches += out.size();
+            }
+            kernelNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (double[] point : points) {
+                out.clear();
+                index.collectContaining(point[0], point[1], out);
+                indexMatches += out.size();
+            }
+            indexNanos += System.nanoTime() - start;
+        }
+
+        // Keeps the work observable; the index only skips fences that can't match
+        assertEquals(kernelMatches, indexMatches);
+
+        double evaluations = (double) ROUNDS * POINTS * FENCES;
+        double fixes = (double) ROUNDS * POINTS;
+        Log.i(TAG, String.format(Locale.US,
+                "Per fence: legacy %.1f ns, kernel %.1f ns; per fix: legacy %.1f us, kernel %.1f us,"
+                        + " index %.2f us (%d legacy / %d kernel matches)",
+                legacyNanos / evaluations, kernelNanos / evaluations,
+                legacyNanos / 1000.0 / fixes, kernelNanos / 1000.0 / fixes, indexNanos / 1000.0 / fixes,
+                legacyMatches, kernelMatches));
+    }
+
+    // The containment loop as it was in the services before the kernel
+    private static int legacyCount(List<SmartLocation> fences, double latitude, double longitude) {
+        int inside = 0;
+        for (SmartLocation fence : fences) {
+            float[] results = new float[1];
+            Location.distanceBetween(latitude, longitude, fence.getLatitude(), fence.getLongitude(), results);
+            boolean contains = results[0] <= fence.getRadius();
+            String line = String.format("Distance to %s: %.1fm (radius: %dm) - Inside: %s",
+                    fence.getName(), results[0], fence.getRadius(), contains);
+            if (contains && line != null) {
+                inside++;
+            }
+        }
+        return inside;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.smartmute;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.smartmute.SmartMuteDatabaseHelper.*;
+import static org.junit.Assert.*;
+
+/**
+ * Compares per-row mapping cost of the old getColumnIndexOrThrow-per-column
+ * loop against RowMappers, on an in-memory database with the app schema.
+ * Only the mapped rows are asserted; timings are written to logcat under the
+ * "RowMapperBenchmark" tag, since device noise makes them no pass/fail signal.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RowMapperBenchmark {
+    private static final String TAG = "RowMapperBenchmark";
+    private static final int ROWS = 5000;
+    private static final int ROUNDS = 20;
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        db = SQLiteDatabase.create(null);
+        // The app's own schema, so the fixture has every column the mappers read
+        SmartMuteDatabaseHelper.getInstance(InstrumentationRegistry.getInstrumentation().getTargetContext())
+                .onCreate(db);
+
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_LOCATIONS + " ("
+                + KEY_NAME + ", " + KEY_LATITUDE + ", " + KEY_LONGITUDE + ", " + KEY_RADIUS + ", "
+                + KEY_PROFILE_ID + ", " + KEY_REVERT_PROFILE_ID + ") VALUES (?, ?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        for (int i = 0; i < ROWS; i++) {
+            insert.bindString(1, "Fence " + i);
+            insert.bindDouble(2, 12.9 + i * 1e-4);
+            insert.bindDouble(3, 77.5 + i * 1e-4);
+            insert.bindLong(4, 50 + i % 400);
+            insert.bindLong(5, 1 + i % 3);
+            insert.bindLong(6, 1);
+            insert.executeInsert();
+        }
+        db.setTransactionSuccessful();
+        db.endTransaction();
+        insert.close();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void mapperMatchesPerColumnLookup() {
+        // Warm up both paths so the first round doesn't pay for class loading and JIT
+        mapPerColumnLookup();
+        mapWithRowMapper();
+
+        long lookupNanos = 0;
+        long mapperNanos = 0;
+        List<SmartLocation> expected = null;
+        List<SmartLocation> actual = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            expected = mapPerColumnLookup();
+            lookupNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            actual = mapWithRowMapper();
+            mapperNanos += System.nanoTime() - start;
+        }
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getRadius(), actual.get(i).getRadius());
+            assertEquals(expected.get(i).getLatitude(), actual.get(i).getLatitude(), 0.0);
+        }
+
+        double lookupPerRow = lookupNanos / (double) (ROUNDS * ROWS);
+        double mapperPerRow = mapperNanos / (double) (ROUNDS * ROWS);
+        Log.i(TAG, String.format("Per-row mapping: getColumnIndexOrThrow %.0f ns, RowMapper %.0f ns (%.2fx)",
+                lookupPerRow, mapperPerRow, lookupPerRow / mapperPerRow));
+    }
+
+    private List<SmartLocation> mapPerColumnLookup() {
+        List<SmartLocation> locations = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_LOCATIONS, null);
+        while (cursor.moveToNext()) {
+            SmartLocation location = new SmartLocation();
+            location.setId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ID)));
+            location.setName(cursor.getString(cursor.getColumnIndexOrThrow(KEY_NAME)));
+            location.setLatitude(cursor.getDouble(cursor.getColumnIndexOrThrow(KEY_LATITUDE)));
+            location.setLongitude(cursor.getDouble(cursor.getColumnIndexOrThrow(KEY_LONGITUDE)));
+            location.setRadius(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_RADIUS)));
+            location.setProfileId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_PROFILE_ID)));
+            location.setRevertProfileId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_REVERT_PROFILE_ID)));
+            location.setEnabled(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ENABLED)) == 1);
+            locations.add(location);
+        }
+        cursor.close();
+        return locations;
+    }
+
+    private List<SmartLocation> mapWithRowMapper() {
+        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_LOCATIONS, null);
+        return RowMappers.mapAll(cursor, new RowMappers.LocationMapper(cursor));
+    }
+}
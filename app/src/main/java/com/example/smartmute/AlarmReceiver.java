@@ -37,13 +37,12 @@ public class AlarmReceiver extends BroadcastReceiver {
             Log.i(TAG, "Processing " + (isStartAlarm ? "start" : "end") +
                     " alarm for schedule: " + scheduleName + " (ID: " + scheduleId + ")");
 
-            SmartMuteDatabaseHelper dbHelper = new SmartMuteDatabaseHelper(context);
+            SmartMuteDatabaseHelper dbHelper = SmartMuteDatabaseHelper.getInstance(context);
 
             // Get the profile
             Profile profile = dbHelper.getProfile(profileId);
             if (profile == null) {
                 Log.e(TAG, "Profile not found for ID: " + profileId);
-                dbHelper.close();
                 return;
             }
 
@@ -62,8 +61,6 @@ public class AlarmReceiver extends BroadcastReceiver {
                 rescheduleNextAlarm(context, scheduleId, false);
             }
 
-            dbHelper.close();
-
             Log.i(TAG, "Successfully applied profile " + profile.getName() +
                     " for schedule: " + scheduleName);
 
@@ -74,7 +71,7 @@ public class AlarmReceiver extends BroadcastReceiver {
 
     private void rescheduleNextAlarm(Context context, int scheduleId, boolean isStartAlarm) {
         try {
-            SmartMuteDatabaseHelper dbHelper = new SmartMuteDatabaseHelper(context);
+            SmartMuteDatabaseHelper dbHelper = SmartMuteDatabaseHelper.getInstance(context);
             Schedule schedule = dbHelper.getSchedule(scheduleId);
 
             if (schedule != null && schedule.isEnabled()) {
@@ -87,7 +84,6 @@ public class AlarmReceiver extends BroadcastReceiver {
                 alarmUtils.cleanup();
             }
 
-            dbHelper.close();
         } catch (Exception e) {
             Log.e(TAG, "Failed to reschedule alarm: " + e.getMessage());
         }
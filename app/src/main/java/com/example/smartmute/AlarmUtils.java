@@ -9,7 +9,9 @@ import android.provider.Settings;
 import android.util.Log;
 
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class AlarmUtils {
     private static final String TAG = "AlarmUtils";
@@ -21,7 +23,7 @@ public class AlarmUtils {
     public AlarmUtils(Context context) {
         this.context = context.getApplicationContext();
         this.alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        this.databaseHelper = new SmartMuteDatabaseHelper(context);
+        this.databaseHelper = SmartMuteDatabaseHelper.getInstance(context);
     }
 
     public void scheduleAlarmsForSchedule(Schedule schedule) {
@@ -193,9 +195,64 @@ public class AlarmUtils {
         }
     }
 
-    public void cleanup() {
-        if (databaseHelper != null) {
-            databaseHelper.close();
+    // ==================== SCHEDULE CHANGE SYNC ====================
+
+    private static DataChange.Listener scheduleSync;
+
+    // Keeps alarms in step with committed schedule edits: one schedule at a time, or
+    // one pass over a bulk write. Safe to call more than once; only the first call registers.
+    public static synchronized void startScheduleSync(Context context) {
+        if (scheduleSync != null) {
+            return;
         }
+        AlarmUtils alarmUtils = new AlarmUtils(context);
+        scheduleSync = change -> {
+            if (change.isReload()) {
+                if (change.affects(DataChange.Entity.SCHEDULE)) {
+                    alarmUtils.applyScheduleReload(change);
+                }
+            } else if (change.getEntity() == DataChange.Entity.SCHEDULE) {
+                alarmUtils.applyScheduleChange(change);
+            }
+        };
+        alarmUtils.databaseHelper.addChangeListener(scheduleSync);
+    }
+
+    void applyScheduleChange(DataChange change) {
+        cancelAlarmsForSchedule(change.getId());
+        if (change.getOperation() == DataChange.Operation.DELETED) {
+            return;
+        }
+
+        Schedule schedule = databaseHelper.getSchedule(change.getId());
+        if (schedule != null && schedule.isEnabled()) {
+            scheduleAlarmsForSchedule(schedule);
+        }
+    }
+
+    // Re-registering under the same request codes replaces the old alarms, so only
+    // schedules the batch deleted or disabled need cancelling
+    void applyScheduleReload(DataChange change) {
+        Set<Integer> changed = new HashSet<>();
+        for (int id : change.getIds(DataChange.Entity.SCHEDULE)) {
+            changed.add(id);
+        }
+
+        int registered = 0;
+        for (Schedule schedule : databaseHelper.getActiveSchedules()) {
+            if (changed.remove(schedule.getId())) {
+                scheduleAlarmsForSchedule(schedule);
+                registered++;
+            }
+        }
+        for (int id : changed) {
+            cancelAlarmsForSchedule(id);
+        }
+        Log.i(TAG, "Bulk schedule change: " + registered + " registered, " + changed.size() + " cancelled");
+    }
+
+    public void cleanup() {
+        // The database connection is process-wide and owned by SmartMuteDatabaseHelper,
+        // so there is nothing to release here
     }
 }
\ No newline at end of file
@@ -2,8 +2,12 @@ package com.example.smartmute;
 
 
 
+import android.content.Context;
 import android.graphics.Color;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -23,16 +27,23 @@ import com.github.mikephil.charting.formatter.IndexAxisValueFormatter;
 import com.github.mikephil.charting.formatter.ValueFormatter;
 import com.example.smartmute.R;
 import com.example.smartmute.SmartMuteDatabaseHelper;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 public class AnalyticsFragment extends Fragment {
+    private static final String TAG = "AnalyticsFragment";
+
+    private static final long WEEK_MS = 7 * 24 * 60 * 60 * 1000L;
 
     private SmartMuteDatabaseHelper databaseHelper;
 
     private BarChart barChart;
     private PieChart pieChart;
-    private TextView tvTotalSilentTime, tvTotalVibrateTime, tvEmergencyCount;
+    private TextView tvTotalSilentTime, tvTotalVibrateTime, tvEmergencyCount, tvLocationTime;
 
     public AnalyticsFragment() {}
 
@@ -54,10 +65,11 @@ public class AnalyticsFragment extends Fragment {
         tvTotalSilentTime = view.findViewById(R.id.tv_total_silent_time);
         tvTotalVibrateTime = view.findViewById(R.id.tv_total_vibrate_time);
         tvEmergencyCount = view.findViewById(R.id.tv_emergency_count);
+        tvLocationTime = view.findViewById(R.id.tv_location_time);
     }
 
     private void setupDatabase() {
-        databaseHelper = new SmartMuteDatabaseHelper(requireContext());
+        databaseHelper = SmartMuteDatabaseHelper.getInstance(requireContext());
     }
 
     private void setupCharts() {
@@ -122,6 +134,7 @@ public class AnalyticsFragment extends Fragment {
         loadBarChartData();
         loadPieChartData();
         loadSummaryStats();
+        loadLocationTime();
     }
 
     private void loadBarChartData() {
@@ -207,15 +220,61 @@ public class AnalyticsFragment extends Fragment {
         tvEmergencyCount.setText("3 overrides");
     }
 
-    private String[] getDaysOfWeek() {
-        return new String[]{"Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"};
+    // Read from the location history off the main thread; it can span a megabyte of blocks
+    private void loadLocationTime() {
+        Context context = requireContext().getApplicationContext();
+        Thread worker = new Thread(() -> {
+            String text;
+            try {
+                // Opens the history file if no service has started the engine yet
+                LocationHistoryStore history = LocationEngine.getInstance(context).getLocationHistory();
+                if (history == null) {
+                    throw new IOException("history file could not be opened");
+                }
+                long now = System.currentTimeMillis();
+                Map<Integer, Long> timePerFence = history.timePerFence(now - WEEK_MS, now,
+                        LocationRequestScheduler.MAX_FIX_GAP_MS);
+                text = formatLocationTime(timePerFence, databaseHelper.getAllLocations());
+            } catch (Exception e) {
+                Log.e(TAG, "Error reading location history: " + e.getMessage());
+                text = "Location history unavailable";
+            }
+            String result = text;
+            new Handler(Looper.getMainLooper()).post(() -> {
+                if (isAdded()) {
+                    tvLocationTime.setText(result);
+                }
+            });
+        }, "SmartMuteLocationTime");
+        worker.start();
     }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        if (databaseHelper != null) {
-            databaseHelper.close();
+    private static String formatLocationTime(Map<Integer, Long> timePerFence, List<SmartLocation> locations) {
+        Map<Integer, String> names = new HashMap<>();
+        for (SmartLocation location : locations) {
+            names.put(location.getId(), location.getName());
         }
+        List<Map.Entry<Integer, Long>> entries = new ArrayList<>(timePerFence.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<Integer, Long> entry : entries) {
+            String name = entry.getKey() == -1 ? "Elsewhere" : names.get(entry.getKey());
+            if (name == null) {
+                // A location deleted since
+                continue;
+            }
+            long minutes = entry.getValue() / 60000L;
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+            builder.append(String.format(Locale.US, "%s: %dh %02dm", name, minutes / 60, minutes % 60));
+        }
+        return builder.length() > 0 ? builder.toString() : "No location history this week";
+    }
+
+    private String[] getDaysOfWeek() {
+        return new String[]{"Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"};
     }
+
 }
@@ -0,0 +1,154 @@
+package com.example.smartmute;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.TransportInfo;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * ConnectivitySource over the platform's default network. The network
+ * callback wakes us only when connectivity actually changes, and reports
+ * are posted to the given handler (the engine's evaluation thread).
+ *
+ * Wi-Fi details come from the network's capabilities on Android 12 and up,
+ * which redacts them unless the callback asks for location info, and from
+ * WifiManager before that. Either way the SSID and BSSID need location
+ * permission; without it they come back as placeholders, reported as null,
+ * which match no place.
+ */
+final class AndroidConnectivitySource implements ConnectivitySource {
+    private static final String TAG = "AndroidConnectivitySource";
+
+    private static final String UNKNOWN_SSID = "<unknown ssid>";
+    // What the platform reports in place of a BSSID it withholds
+    private static final String REDACTED_BSSID = "02:00:00:00:00:00";
+
+    private final Context context;
+    private final Handler handler;
+
+    private ConnectivityManager connectivityManager;
+    private Callback callback;
+    private Listener listener;
+
+    // Capabilities also change with signal strength; only a new network is passed on
+    private boolean reported;
+    private String lastSsid;
+    private String lastBssid;
+
+    AndroidConnectivitySource(Context context, Handler handler) {
+        this.context = context;
+        this.handler = handler;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        if (callback != null) {
+            return;
+        }
+        this.listener = listener;
+        connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        callback = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                ? new Callback(ConnectivityManager.NetworkCallback.FLAG_INCLUDE_LOCATION_INFO)
+                : new Callback();
+        try {
+            // Called straight away for the current network, so no separate query is needed
+            connectivityManager.registerDefaultNetworkCallback(callback);
+            Log.d(TAG, "Connectivity callback registered");
+        } catch (RuntimeException e) {
+            // Too many callbacks for this app, or no network permission
+            Log.e(TAG, "Error registering connectivity callback: " + e.getMessage());
+            callback = null;
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (callback == null) {
+            return;
+        }
+        try {
+            connectivityManager.unregisterNetworkCallback(callback);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Error unregistering connectivity callback: " + e.getMessage());
+        }
+        callback = null;
+        reported = false;
+        Log.d(TAG, "Connectivity callback unregistered");
+    }
+
+    // Runs on a ConnectivityManager thread
+    private void report(String ssid, String bssid) {
+        handler.post(() -> {
+            if (callback == null
+                    || (reported && Objects.equals(ssid, lastSsid) && Objects.equals(bssid, lastBssid))) {
+                return;
+            }
+            reported = true;
+            lastSsid = ssid;
+            lastBssid = bssid;
+            Log.d(TAG, "Wi-Fi network: " + (ssid != null || bssid != null ? ssid + " / " + bssid : "none"));
+            listener.onWifiChanged(ssid, bssid);
+        });
+    }
+
+    private WifiInfo wifiInfo(NetworkCapabilities capabilities) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            TransportInfo transportInfo = capabilities.getTransportInfo();
+            return transportInfo instanceof WifiInfo ? (WifiInfo) transportInfo : null;
+        }
+        WifiManager wifiManager = (WifiManager) context.getApplicationContext()
+                .getSystemService(Context.WIFI_SERVICE);
+        return wifiManager != null ? wifiManager.getConnectionInfo() : null;
+    }
+
+    private final class Callback extends ConnectivityManager.NetworkCallback {
+        Callback() {
+            super();
+        }
+
+        Callback(int flags) {
+            super(flags);
+        }
+
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+            if (!capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+                report(null, null);
+                return;
+            }
+            WifiInfo info = wifiInfo(capabilities);
+            if (info == null) {
+                report(null, null);
+                return;
+            }
+
+            String ssid = info.getSSID();
+            if (ssid != null && ssid.length() >= 2 && ssid.startsWith("\"") && ssid.endsWith("\"")) {
+                ssid = ssid.substring(1, ssid.length() - 1);
+            } else if (UNKNOWN_SSID.equals(ssid)) {
+                ssid = null;
+            }
+            String bssid = info.getBSSID();
+            if (bssid == null || REDACTED_BSSID.equals(bssid)) {
+                bssid = null;
+            } else {
+                bssid = bssid.toLowerCase(Locale.US);
+            }
+            report(ssid, bssid);
+        }
+
+        @Override
+        public void onLost(Network network) {
+            report(null, null);
+        }
+    }
+}
@@ -96,9 +96,8 @@ public class BootReceiver extends BroadcastReceiver {
         // Example of logging to database (uncomment when database helper is available)
         /*
         try {
-            SmartMuteDatabaseHelper dbHelper = new SmartMuteDatabaseHelper(context);
+            SmartMuteDatabaseHelper dbHelper = SmartMuteDatabaseHelper.getInstance(context);
             dbHelper.addLog("BOOT_EVENT", message);
-            dbHelper.close();
         } catch (Exception e) {
             Log.e(TAG, "Failed to log boot event to database: " + e.getMessage());
         }
@@ -0,0 +1,24 @@
+package com.example.smartmute;
+
+/**
+ * Reports which Wi-Fi network the device is connected to, as it changes.
+ * AndroidConnectivitySource follows the platform's default network; tests
+ * drive WifiPlaceMonitor with a fake.
+ */
+interface ConnectivitySource {
+
+    interface Listener {
+        /**
+         * The connected Wi-Fi network changed. Both are null when the device
+         * isn't on Wi-Fi; either may be null when the platform withholds it.
+         * SSIDs come without the platform's surrounding quotes and BSSIDs
+         * lower-cased.
+         */
+        void onWifiChanged(String ssid, String bssid);
+    }
+
+    // Starts reporting, beginning with the current network; safe to call again
+    void start(Listener listener);
+
+    void stop();
+}
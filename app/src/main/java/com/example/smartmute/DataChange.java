@@ -0,0 +1,87 @@
+package com.example.smartmute;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * One committed change to a rule table: which entity, which row and what
+ * happened to it. Published by SmartMuteDatabaseHelper on the main thread
+ * after the write is durable, so listeners can refresh just that row.
+ *
+ * A bulk transaction publishes a single {@link Operation#RELOADED} change
+ * instead, naming every row it wrote per entity, so a listener reloads once
+ * per import rather than once per row.
+ */
+public final class DataChange {
+
+    public enum Entity { PROFILE, LOCATION, SCHEDULE, EMERGENCY_CONTACT }
+
+    public enum Operation { INSERTED, UPDATED, DELETED, RELOADED }
+
+    public interface Listener {
+        void onDataChanged(DataChange change);
+    }
+
+    private static final int[] NO_IDS = new int[0];
+
+    private final Entity entity;
+    private final int id;
+    private final Operation operation;
+    // Rows written per entity; only set for RELOADED
+    private final Map<Entity, int[]> reloaded;
+
+    DataChange(Entity entity, int id, Operation operation) {
+        this.entity = entity;
+        this.id = id;
+        this.operation = operation;
+        this.reloaded = Collections.emptyMap();
+    }
+
+    private DataChange(Map<Entity, int[]> reloaded) {
+        this.entity = null;
+        this.id = -1;
+        this.operation = Operation.RELOADED;
+        this.reloaded = reloaded;
+    }
+
+    static DataChange reload(Map<Entity, int[]> idsByEntity) {
+        return new DataChange(Collections.unmodifiableMap(new EnumMap<>(idsByEntity)));
+    }
+
+    // Null for a reload, which may cover several entities
+    public Entity getEntity() { return entity; }
+    public int getId() { return id; }
+    public Operation getOperation() { return operation; }
+
+    public boolean isReload() {
+        return operation == Operation.RELOADED;
+    }
+
+    // Whether rows of this entity may have changed
+    public boolean affects(Entity entity) {
+        return isReload() ? reloaded.containsKey(entity) : this.entity == entity;
+    }
+
+    // The changed rows of this entity: the one row, or every row a bulk write touched
+    public int[] getIds(Entity entity) {
+        if (isReload()) {
+            int[] ids = reloaded.get(entity);
+            return ids != null ? ids.clone() : NO_IDS;
+        }
+        return this.entity == entity ? new int[]{id} : NO_IDS;
+    }
+
+    @Override
+    public String toString() {
+        if (isReload()) {
+            StringBuilder builder = new StringBuilder("RELOADED");
+            for (Map.Entry<Entity, int[]> entry : reloaded.entrySet()) {
+                builder.append(' ').append(entry.getKey()).append(" x").append(entry.getValue().length);
+            }
+            return builder.toString();
+        }
+        return entity + " " + id + " " + operation;
+    }
+}
@@ -51,10 +51,61 @@ public class EmergencyContactsFragment extends Fragment {
         loadContacts();
         setupClickListeners();
         checkContactsPermission();
+        databaseHelper.addChangeListener(changeListener);
 
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        databaseHelper.removeChangeListener(changeListener);
+    }
+
+    // Refreshes only the row that changed instead of re-reading the whole table
+    private final DataChange.Listener changeListener = change -> {
+        if (change.isReload()) {
+            // A bulk write such as an import: one full reload instead of a query per row
+            if (change.affects(DataChange.Entity.EMERGENCY_CONTACT)) {
+                loadContacts();
+            }
+            return;
+        }
+        if (change.getEntity() != DataChange.Entity.EMERGENCY_CONTACT) {
+            return;
+        }
+
+        int position = findContactPosition(change.getId());
+        if (change.getOperation() == DataChange.Operation.DELETED) {
+            if (position >= 0) {
+                contactsList.remove(position);
+                contactsAdapter.notifyItemRemoved(position);
+            }
+            return;
+        }
+
+        EmergencyContact contact = databaseHelper.getEmergencyContact(change.getId());
+        if (contact == null) {
+            return;
+        }
+        if (position >= 0) {
+            contactsList.set(position, contact);
+            contactsAdapter.notifyItemChanged(position);
+        } else {
+            contactsList.add(contact);
+            contactsAdapter.notifyItemInserted(contactsList.size() - 1);
+        }
+    };
+
+    private int findContactPosition(int contactId) {
+        for (int i = 0; i < contactsList.size(); i++) {
+            if (contactsList.get(i).getId() == contactId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     private void initializeViews(View view) {
         contactsRecyclerView = view.findViewById(R.id.emergency_contacts_recycler_view);
         btnAddContact = view.findViewById(R.id.btn_add_emergency_contact);
@@ -67,7 +118,7 @@ public class EmergencyContactsFragment extends Fragment {
     }
 
     private void setupDatabase() {
-        databaseHelper = new SmartMuteDatabaseHelper(requireContext());
+        databaseHelper = SmartMuteDatabaseHelper.getInstance(requireContext());
     }
 
     private void setupRecyclerView() {
@@ -146,16 +197,31 @@ public class EmergencyContactsFragment extends Fragment {
         contact.setWindowMinutes(timeWindow);
         contact.setRingOverride(true);
 
+        if (rejectDuplicateNumber(contact)) {
+            return;
+        }
+
         long id = databaseHelper.addEmergencyContact(contact);
         if (id != -1) {
             Toast.makeText(requireContext(), "Emergency contact added", Toast.LENGTH_SHORT).show();
             clearForm();
-            loadContacts();
         } else {
             Toast.makeText(requireContext(), "Failed to add contact", Toast.LENGTH_SHORT).show();
         }
     }
 
+    // Each number can be saved once; say which contact already has it
+    private boolean rejectDuplicateNumber(EmergencyContact contact) {
+        EmergencyContact existing = databaseHelper.findContactWithSameNumber(contact);
+        if (existing == null) {
+            return false;
+        }
+        etPhoneNumber.setError("Number already saved for " + existing.getName());
+        Toast.makeText(requireContext(), existing.getName() + " already has this number",
+                Toast.LENGTH_SHORT).show();
+        return true;
+    }
+
     private void pickContactFromDevice() {
         if (ActivityCompat.checkSelfPermission(requireContext(), Manifest.permission.READ_CONTACTS)
                 != PackageManager.PERMISSION_GRANTED) {
@@ -237,14 +303,6 @@ public class EmergencyContactsFragment extends Fragment {
         etTimeWindow.setText("10");
     }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        if (databaseHelper != null) {
-            databaseHelper.close();
-        }
-    }
-
     // Emergency Contacts Adapter
     private class EmergencyContactsAdapter extends RecyclerView.Adapter<EmergencyContactsAdapter.ContactViewHolder> {
         private List<EmergencyContact> contacts;
@@ -312,22 +370,25 @@ public class EmergencyContactsFragment extends Fragment {
                 contact.setCallCountThreshold(Integer.parseInt(etCallThreshold.getText().toString()));
                 contact.setWindowMinutes(Integer.parseInt(etTimeWindow.getText().toString()));
 
+                if (rejectDuplicateNumber(contact)) {
+                    return;
+                }
+
                 boolean updated = databaseHelper.updateEmergencyContact(contact);
                 if (updated) {
                     Toast.makeText(requireContext(), "Contact updated", Toast.LENGTH_SHORT).show();
                     clearForm();
-                    loadContacts();
                     // Reset button
                     btnAddContact.setText("Add Contact");
                     btnAddContact.setOnClickListener(v -> addNewEmergencyContact());
+                } else {
+                    Toast.makeText(requireContext(), "Failed to update contact", Toast.LENGTH_SHORT).show();
                 }
             }
 
             private void deleteContact(EmergencyContact contact) {
                 boolean deleted = databaseHelper.deleteEmergencyContact(contact.getId());
                 if (deleted) {
-                    contacts.remove(contact);
-                    notifyDataSetChanged();
                     Toast.makeText(requireContext(), "Contact deleted", Toast.LENGTH_SHORT).show();
                 }
             }
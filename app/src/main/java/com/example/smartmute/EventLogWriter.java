@@ -0,0 +1,130 @@
+package com.example.smartmute;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Queues log events in memory and writes them to the logs table in batched
+ * transactions on a background thread. A batch is written once MAX_BATCH_SIZE
+ * events are pending or FLUSH_DELAY_MS after the first pending event,
+ * whichever comes first. Callers never wait on disk unless they ask for it
+ * with flushNow().
+ */
+class EventLogWriter {
+    private static final String TAG = "EventLogWriter";
+
+    private static final int MAX_BATCH_SIZE = 50;
+    private static final long FLUSH_DELAY_MS = 2000;
+
+    private final SmartMuteDatabaseHelper databaseHelper;
+    private final Handler handler;
+    private final Object writeLock = new Object();
+    private final Runnable flushTask = this::writePending;
+
+    // Guarded by "this"
+    private List<PendingEvent> pending = new ArrayList<>();
+
+    // Only touched while holding writeLock
+    private final SimpleDateFormat timestampFormat =
+            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+
+    private static class PendingEvent {
+        final String eventType;
+        final String details;
+        final long createdAt;
+
+        PendingEvent(String eventType, String details, long createdAt) {
+            this.eventType = eventType;
+            this.details = details;
+            this.createdAt = createdAt;
+        }
+    }
+
+    EventLogWriter(SmartMuteDatabaseHelper databaseHelper) {
+        this.databaseHelper = databaseHelper;
+        // Same format and zone SQLite uses for CURRENT_TIMESTAMP
+        timestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        HandlerThread thread = new HandlerThread("SmartMuteLogWriter", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    void enqueue(String eventType, String details) {
+        int size;
+        synchronized (this) {
+            pending.add(new PendingEvent(eventType, details, System.currentTimeMillis()));
+            size = pending.size();
+        }
+
+        if (size >= MAX_BATCH_SIZE) {
+            handler.removeCallbacks(flushTask);
+            handler.post(flushTask);
+        } else if (size == 1) {
+            handler.postDelayed(flushTask, FLUSH_DELAY_MS);
+        }
+    }
+
+    // Writes everything queued so far on the calling thread, e.g. when a service shuts down
+    void flushNow() {
+        handler.removeCallbacks(flushTask);
+        writePending();
+    }
+
+    private void writePending() {
+        synchronized (writeLock) {
+            List<PendingEvent> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+
+            try {
+                SQLiteDatabase db = databaseHelper.getWritableDatabase();
+                SQLiteStatement insert = db.compileStatement("INSERT INTO " + SmartMuteDatabaseHelper.TABLE_LOGS
+                        + " (" + SmartMuteDatabaseHelper.KEY_EVENT_TYPE + ", "
+                        + SmartMuteDatabaseHelper.KEY_DETAILS + ", "
+                        + SmartMuteDatabaseHelper.KEY_CREATED_AT + ") VALUES (?, ?, ?)");
+
+                db.beginTransactionNonExclusive();
+                try {
+                    for (PendingEvent event : batch) {
+                        bindNullable(insert, 1, event.eventType);
+                        bindNullable(insert, 2, event.details);
+                        insert.bindString(3, timestampFormat.format(new Date(event.createdAt)));
+                        insert.executeInsert();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    insert.close();
+                }
+                Log.d(TAG, "Wrote " + batch.size() + " log events");
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to write " + batch.size() + " log events: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.smartmute;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What happens to one location fix, minus the platform: the path from the
+ * previous fix is checked for crossed edges, the fix is classified against
+ * nearby fences by its accuracy, the state machine is advanced, and the
+ * scheduler plans the next request.
+ *
+ * PollingGeofenceBackend wraps this with the location subscription, wake
+ * lock and logging; the JVM replay harness drives it with recorded traces.
+ * Timestamps are elapsed-realtime milliseconds and are the only clock used.
+ */
+final class FixEvaluator {
+
+    // Longer gaps say too little about the path in between to interpolate it
+    static final long MAX_SEGMENT_MS = 5 * 60 * 1000L;
+
+    static final class Result {
+        LocationRequestScheduler.Plan plan;
+        // The fix straddled some fence's edge; a more precise one would settle it
+        boolean inconclusive;
+        int uncertainFences;
+    }
+
+    private final GeofenceStateMachine state;
+    private final LocationRequestScheduler scheduler = new LocationRequestScheduler();
+    private final TrajectoryEvaluator trajectory = new TrajectoryEvaluator();
+    private final List<TrajectoryEvaluator.Crossing> crossings = new ArrayList<>();
+    private final List<SmartLocation> containingFences = new ArrayList<>();
+    private final List<SmartLocation> uncertainFences = new ArrayList<>();
+    private final GeofenceKernel.FenceIds seenFences = new GeofenceKernel.FenceIds();
+    private final double[] accuracyBox = new double[4];
+    private final Result result = new Result();
+
+    private boolean hasFix;
+    private double lastLatitude, lastLongitude, lastAccuracy, lastSpeed;
+    private long lastFixMs;
+
+    FixEvaluator(GeofenceStateMachine state) {
+        this.state = state;
+    }
+
+    boolean hasFix() {
+        return hasFix;
+    }
+
+    /**
+     * Evaluates one fix. {@code speed} is m/s or NaN, {@code accuracy} meters
+     * or 0 when unknown. The returned Result is reused by the next call.
+     */
+    Result onFix(RuleSnapshot snapshot, double latitude, double longitude, double accuracy, double speed,
+                 long elapsedRealtimeMs) {
+        boolean hasSegment = hasFix && elapsedRealtimeMs > lastFixMs
+                && elapsedRealtimeMs - lastFixMs <= MAX_SEGMENT_MS;
+        double previousLatitude = lastLatitude, previousLongitude = lastLongitude, previousAccuracy = lastAccuracy;
+        long previousFixMs = lastFixMs;
+
+        hasFix = true;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        lastAccuracy = accuracy;
+        lastSpeed = speed;
+        lastFixMs = elapsedRealtimeMs;
+
+        crossings.clear();
+        result.uncertainFences = 0;
+        GeofenceIndex geofenceIndex = snapshot.getGeofenceIndex();
+        if (geofenceIndex.size() > 0 || state.getActiveFenceId() != -1) {
+            if (hasSegment) {
+                // The path is no better known than its less accurate end
+                trajectory.evaluateSegment(geofenceIndex, previousLatitude, previousLongitude, previousFixMs,
+                        latitude, longitude, elapsedRealtimeMs, crossings);
+                double segmentAccuracy = Math.max(previousAccuracy, accuracy);
+                for (int i = 0; i < crossings.size(); i++) {
+                    // Replayed as fixes at the deepest point of the path through each
+                    // fence, timed at the crossing; dwell times still decide
+                    TrajectoryEvaluator.Crossing crossing = crossings.get(i);
+                    evaluate(snapshot, crossing.insideLatitude, crossing.insideLongitude, segmentAccuracy,
+                            crossing.timeMs);
+                }
+            }
+            // Only this fix's own verdict decides whether a precise one is worth it
+            result.uncertainFences = evaluate(snapshot, latitude, longitude, accuracy, elapsedRealtimeMs);
+        }
+        result.inconclusive = result.uncertainFences > 0;
+
+        // Every fix feeds the scheduler's speed history, whether or not its plan is used
+        result.plan = scheduler.onFix(latitude, longitude, accuracy, speed, elapsedRealtimeMs,
+                geofenceIndex,
+                state.hasPendingTransition(), state.getEnterDwellMs());
+        return result;
+    }
+
+    // The last fix again, after the rules changed under it
+    Result reevaluate(RuleSnapshot snapshot) {
+        return onFix(snapshot, lastLatitude, lastLongitude, lastAccuracy, lastSpeed, lastFixMs);
+    }
+
+    // Edges the path to the last fix crossed, in time order
+    List<TrajectoryEvaluator.Crossing> getCrossings() {
+        return crossings;
+    }
+
+    // Returns how many fences the fix couldn't decide
+    private int evaluate(RuleSnapshot snapshot, double latitude, double longitude, double accuracy,
+                         long elapsedRealtimeMs) {
+        containingFences.clear();
+        uncertainFences.clear();
+        if (accuracy <= 0) {
+            // Only fences in this fix's grid cell are tested, with the packed kernel
+            snapshot.getGeofenceIndex().collectContaining(latitude, longitude, containingFences);
+        } else {
+            // Every fence the accuracy circle reaches is inside, outside or undecided,
+            // classified over the packed kernels like the plain containment test
+            snapshot.getGeofenceIndex().classifyNear(latitude, longitude, accuracy, accuracyBox,
+                    containingFences, uncertainFences, seenFences);
+        }
+
+        // Transitions are debounced in memory; callbacks fire only on real ones
+        state.update(latitude, longitude, elapsedRealtimeMs, containingFences, uncertainFences, snapshot);
+        return uncertainFences.size();
+    }
+}
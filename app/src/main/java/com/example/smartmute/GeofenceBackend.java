@@ -0,0 +1,47 @@
+package com.example.smartmute;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+
+/**
+ * Source of geofence transitions for the LocationEngine. Every backend
+ * reports into the engine's GeofenceStateMachine, so ranking, persistence and
+ * profile changes are the same whichever one is running.
+ *
+ * Methods are called on the main thread; backends do their evaluation on the
+ * engine's evaluation handler, which is the only thread that touches the state
+ * machine.
+ */
+interface GeofenceBackend {
+    String ACTION_GEOFENCE_EVENT = "com.example.smartmute.GEOFENCE_EVENT";
+
+    // Starts monitoring; safe to call again. Throws SecurityException without location permission
+    void start();
+
+    // Location rules were added, edited, toggled or deleted: one row, or a bulk write's rows
+    void onRulesChanged(DataChange change);
+
+    // Handles a forwarded PendingIntent delivery; false if it isn't a geofence event
+    boolean handleIntent(Intent intent);
+
+    void stop();
+
+    /**
+     * Picks the OS geofencing API when this device and the current rules can
+     * use it, and the polling evaluator otherwise. The platform backend also
+     * drops to polling by itself if registration fails later. Polling
+     * records its fixes to {@code history} (may be null), the platform backend
+     * its transitions.
+     */
+    static GeofenceBackend create(Context context, SmartMuteDatabaseHelper databaseHelper,
+                                  GeofenceStateMachine state, Handler evaluation, LocationHistoryStore history) {
+        PollingGeofenceBackend polling = new PollingGeofenceBackend(context, databaseHelper::getRuleSnapshot,
+                state, evaluation, history);
+        if (PlatformGeofenceBackend.isSupported(context, databaseHelper.getRuleSnapshot())) {
+            return new PlatformGeofenceBackend(context, databaseHelper::getRuleSnapshot, state, evaluation, polling,
+                    history);
+        }
+        return polling;
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.smartmute;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Target of the platform geofencing PendingIntent. Hands each event to the
+ * process's LocationEngine, which evaluates it off the main thread, or on it
+ * when nothing is subscribed. The broadcast is kept open until the engine is
+ * done with it, since the event may be what started the process.
+ */
+public class GeofenceEventReceiver extends BroadcastReceiver {
+    private static final String TAG = "GeofenceEventReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (intent == null) return;
+
+        Log.d(TAG, "Geofence event received");
+        PendingResult pendingResult = goAsync();
+        LocationEngine.getInstance(context).handleGeofenceEvent(intent, pendingResult::finish);
+    }
+}
@@ -0,0 +1,354 @@
+package com.example.smartmute;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Grid bucket index over active geofences. Each fence is registered in every
+ * cell its bounding box overlaps, and each cell holds a packed GeofenceKernel,
+ * so a point query is one hash lookup per grid level followed by an
+ * allocation-free containment scan of the handful of fences in that cell.
+ *
+ * Fences go into a fine grid (about 1 km cells) unless they would cover too
+ * many cells, in which case they go into a coarse grid (about 110 km cells),
+ * and very large, polar or antimeridian-crossing fences go into a small
+ * kernel that is always scanned; its containment test wraps longitudes.
+ *
+ * The index is immutable. {@link #withLocation} returns a copy that shares
+ * every untouched cell with the original, so a single edit only rebuckets the
+ * fence that changed.
+ */
+public final class GeofenceIndex {
+    private static final double FINE_CELL_DEGREES = 0.01;
+    private static final double COARSE_CELL_DEGREES = 1.0;
+    private static final int MAX_CELLS_PER_FENCE = 16;
+
+    private final Grid fine;
+    private final Grid coarse;
+    private GeofenceKernel global;
+    private final Map<Integer, SmartLocation> fencesById;
+
+    private GeofenceIndex(Grid fine, Grid coarse, GeofenceKernel global,
+                          Map<Integer, SmartLocation> fencesById) {
+        this.fine = fine;
+        this.coarse = coarse;
+        this.global = global;
+        this.fencesById = fencesById;
+    }
+
+    public static GeofenceIndex build(List<SmartLocation> locations) {
+        GeofenceIndex index = new GeofenceIndex(new Grid(FINE_CELL_DEGREES, new HashMap<>()),
+                new Grid(COARSE_CELL_DEGREES, new HashMap<>()), GeofenceKernel.EMPTY, new HashMap<>());
+        for (SmartLocation location : locations) {
+            index.insert(location);
+        }
+        return index;
+    }
+
+    /**
+     * Returns an index where fence {@code id} is replaced by {@code location},
+     * or removed when {@code location} is null (deleted or disabled).
+     */
+    public GeofenceIndex withLocation(int id, SmartLocation location) {
+        GeofenceIndex copy = new GeofenceIndex(fine.copy(), coarse.copy(), global, new HashMap<>(fencesById));
+        SmartLocation previous = copy.fencesById.remove(id);
+        if (previous != null) {
+            copy.remove(previous);
+        }
+        if (location != null) {
+            copy.insert(location);
+        }
+        return copy;
+    }
+
+    /**
+     * Adds every fence that contains the point to {@code out}, ranked so the
+     * fence whose rule should apply comes first (see GeofenceKernel#outranks).
+     * {@code out} is not cleared, so callers can reuse one list across fixes.
+     */
+    public void collectContaining(double latitude, double longitude, List<SmartLocation> out) {
+        fine.collectContaining(latitude, longitude, out);
+        coarse.collectContaining(latitude, longitude, out);
+        global.collectContaining(latitude, longitude, out);
+    }
+
+    /**
+     * Adds every fence whose cell overlaps the box to {@code out}: a superset
+     * of the fences the box touches, found without visiting the rest. Pass a
+     * Set, since a fence spanning several cells is found once per cell.
+     */
+    public void collectCandidates(double minLat, double maxLat, double minLon, double maxLon,
+                                  Collection<SmartLocation> out) {
+        fine.collectOverlapping(minLat, maxLat, minLon, maxLon, out);
+        coarse.collectOverlapping(minLat, maxLat, minLon, maxLon, out);
+        for (int slot = 0; slot < global.size(); slot++) {
+            out.add(global.fenceAt(slot));
+        }
+    }
+
+    /**
+     * Sorts the fences a fix's accuracy circle reaches into {@code containing}
+     * (ranked, as for collectContaining) and {@code uncertain}, classifying
+     * each in its packed kernel. {@code seen} is cleared first and keeps a
+     * fence found in several cells from being classified twice.
+     */
+    void classifyNear(double latitude, double longitude, double accuracy, double[] box,
+                      List<SmartLocation> containing, List<SmartLocation> uncertain,
+                      GeofenceKernel.FenceIds seen) {
+        seen.clear();
+        GeofenceKernel.bounds(latitude, longitude, accuracy, box, 0);
+        fine.classifyNear(latitude, longitude, accuracy, box, containing, uncertain, seen);
+        coarse.classifyNear(latitude, longitude, accuracy, box, containing, uncertain, seen);
+        global.classifyNear(latitude, longitude, accuracy, box, containing, uncertain, seen);
+    }
+
+    /**
+     * Distance in meters from the point to the nearest fence edge, from inside
+     * or outside. Each grid is searched ring by ring outward from the point's
+     * cell, and the search stops once a ring is further than the nearest edge
+     * found or than {@code maxMeters}; fences beyond that may be missed, so
+     * the result is then some distance over maxMeters, or infinite.
+     */
+    public double distanceToNearestBoundary(double latitude, double longitude, double maxMeters) {
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int slot = 0; slot < global.size(); slot++) {
+            nearest = Math.min(nearest, GeofenceKernel.boundaryDistance(global.fenceAt(slot), latitude, longitude));
+        }
+        nearest = fine.nearestBoundary(latitude, longitude, maxMeters, nearest);
+        return coarse.nearestBoundary(latitude, longitude, maxMeters, nearest);
+    }
+
+    public int size() {
+        return fencesById.size();
+    }
+
+    private void insert(SmartLocation location) {
+        if (location.isWifiPlace()) {
+            // No geometry; WifiPlaceMonitor decides these from connectivity
+            return;
+        }
+        fencesById.put(location.getId(), location);
+
+        double[] b = new double[4];
+        GeofenceKernel.bounds(location, b, 0);
+        double minLat = b[0], maxLat = b[1], minLon = b[2], maxLon = b[3];
+
+        if (minLon < -180 || maxLon > 180 || minLat < -90 || maxLat > 90) {
+            // Wraps the antimeridian or a pole; rare enough to scan on every query
+            global = global.with(location);
+        } else if (fine.cellCount(minLat, maxLat, minLon, maxLon) <= MAX_CELLS_PER_FENCE) {
+            fine.add(location, minLat, maxLat, minLon, maxLon);
+        } else if (coarse.cellCount(minLat, maxLat, minLon, maxLon) <= MAX_CELLS_PER_FENCE) {
+            coarse.add(location, minLat, maxLat, minLon, maxLon);
+        } else {
+            global = global.with(location);
+        }
+    }
+
+    private void remove(SmartLocation location) {
+        GeofenceKernel withoutFence = global.without(location);
+        if (withoutFence != global) {
+            global = withoutFence;
+            return;
+        }
+
+        double[] b = new double[4];
+        GeofenceKernel.bounds(location, b, 0);
+        fine.remove(location, b[0], b[1], b[2], b[3]);
+        coarse.remove(location, b[0], b[1], b[2], b[3]);
+    }
+
+    private static final class Grid {
+        private final double cellDegrees;
+        private final Map<Long, GeofenceKernel> cells;
+
+        Grid(double cellDegrees, Map<Long, GeofenceKernel> cells) {
+            this.cellDegrees = cellDegrees;
+            this.cells = cells;
+        }
+
+        // Shares the kernels, which are immutable; add/remove swap in new ones
+        Grid copy() {
+            return new Grid(cellDegrees, new HashMap<>(cells));
+        }
+
+        int cellCount(double minLat, double maxLat, double minLon, double maxLon) {
+            long rows = cell(maxLat) - cell(minLat) + 1;
+            long cols = cell(maxLon) - cell(minLon) + 1;
+            return (int) Math.min(Integer.MAX_VALUE, rows * cols);
+        }
+
+        void add(SmartLocation location, double minLat, double maxLat, double minLon, double maxLon) {
+            for (int row = cell(minLat); row <= cell(maxLat); row++) {
+                for (int col = cell(minLon); col <= cell(maxLon); col++) {
+                    long key = key(row, col);
+                    GeofenceKernel kernel = cells.get(key);
+                    cells.put(key, (kernel == null ? GeofenceKernel.EMPTY : kernel).with(location));
+                }
+            }
+        }
+
+        void remove(SmartLocation location, double minLat, double maxLat, double minLon, double maxLon) {
+            if (cellCount(minLat, maxLat, minLon, maxLon) > MAX_CELLS_PER_FENCE) {
+                // Too large to have been bucketed at this level
+                return;
+            }
+
+            for (int row = cell(minLat); row <= cell(maxLat); row++) {
+                for (int col = cell(minLon); col <= cell(maxLon); col++) {
+                    long key = key(row, col);
+                    GeofenceKernel kernel = cells.get(key);
+                    if (kernel == null) {
+                        continue;
+                    }
+                    GeofenceKernel updated = kernel.without(location);
+                    if (updated.size() == 0) {
+                        cells.remove(key);
+                    } else if (updated != kernel) {
+                        cells.put(key, updated);
+                    }
+                }
+            }
+        }
+
+        void collectContaining(double latitude, double longitude, List<SmartLocation> out) {
+            GeofenceKernel kernel = cells.get(key(cell(latitude), cell(longitude)));
+            if (kernel != null) {
+                kernel.collectContaining(latitude, longitude, out);
+            }
+        }
+
+        void collectOverlapping(double minLat, double maxLat, double minLon, double maxLon,
+                                Collection<SmartLocation> out) {
+            int minRow = cell(minLat), maxRow = cell(maxLat);
+            int minCol = cell(minLon), maxCol = cell(maxLon);
+            if (cellCount(minLat, maxLat, minLon, maxLon) > cells.size()) {
+                // A long segment over a sparse grid: cheaper to walk the occupied cells
+                for (Map.Entry<Long, GeofenceKernel> entry : cells.entrySet()) {
+                    int row = (int) (entry.getKey() >> 32);
+                    int col = (int) (long) entry.getKey();
+                    if (row >= minRow && row <= maxRow && col >= minCol && col <= maxCol) {
+                        addAll(entry.getValue(), out);
+                    }
+                }
+                return;
+            }
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int col = minCol; col <= maxCol; col++) {
+                    GeofenceKernel kernel = cells.get(key(row, col));
+                    if (kernel != null) {
+                        addAll(kernel, out);
+                    }
+                }
+            }
+        }
+
+        void classifyNear(double latitude, double longitude, double accuracy, double[] box,
+                          List<SmartLocation> containing, List<SmartLocation> uncertain,
+                          GeofenceKernel.FenceIds seen) {
+            int minRow = cell(box[0]), maxRow = cell(box[1]);
+            int minCol = cell(box[2]), maxCol = cell(box[3]);
+            if (cellCount(box[0], box[1], box[2], box[3]) > cells.size()) {
+                for (Map.Entry<Long, GeofenceKernel> entry : cells.entrySet()) {
+                    int row = (int) (entry.getKey() >> 32);
+                    int col = (int) (long) entry.getKey();
+                    if (row >= minRow && row <= maxRow && col >= minCol && col <= maxCol) {
+                        entry.getValue().classifyNear(latitude, longitude, accuracy, box,
+                                containing, uncertain, seen);
+                    }
+                }
+                return;
+            }
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int col = minCol; col <= maxCol; col++) {
+                    GeofenceKernel kernel = cells.get(key(row, col));
+                    if (kernel != null) {
+                        kernel.classifyNear(latitude, longitude, accuracy, box, containing, uncertain, seen);
+                    }
+                }
+            }
+        }
+
+        // Lowers nearest to any closer edge among the cells within maxMeters
+        double nearestBoundary(double latitude, double longitude, double maxMeters, double nearest) {
+            if (cells.isEmpty()) {
+                return nearest;
+            }
+            int row0 = cell(latitude), col0 = cell(longitude);
+            // The fewest meters a cell spans in either axis anywhere within reach
+            double reachDegrees = Math.min(90.0, maxMeters / GeofenceKernel.MIN_METERS_PER_DEGREE_LAT + cellDegrees);
+            double cellMeters = cellDegrees * GeofenceKernel.minMetersPerDegree(latitude, reachDegrees);
+            // A fence first met in ring r lies wholly outside ring r - 1, so no nearer than (r - 1) cells
+            double maxRings = cellMeters > 0 ? maxMeters / cellMeters + 1 : Double.POSITIVE_INFINITY;
+
+            if ((2 * maxRings + 1) * (2 * maxRings + 1) > cells.size()) {
+                // More cells in reach than occupied ones: cheaper to walk the occupied cells
+                for (Map.Entry<Long, GeofenceKernel> entry : cells.entrySet()) {
+                    int row = (int) (entry.getKey() >> 32);
+                    int col = (int) (long) entry.getKey();
+                    int ring = Math.max(Math.abs(row - row0), columnDistance(col, col0));
+                    if ((ring - 1) * cellMeters <= Math.min(nearest, maxMeters)) {
+                        nearest = nearestBoundary(entry.getValue(), latitude, longitude, nearest);
+                    }
+                }
+                return nearest;
+            }
+
+            for (int ring = 0; ring <= maxRings; ring++) {
+                if ((ring - 1) * cellMeters > Math.min(nearest, maxMeters)) {
+                    break;
+                }
+                for (int row = row0 - ring; row <= row0 + ring; row++) {
+                    // Whole top and bottom rows of the ring; just its two ends in between
+                    int step = row == row0 - ring || row == row0 + ring ? 1 : Math.max(1, 2 * ring);
+                    for (int col = col0 - ring; col <= col0 + ring; col += step) {
+                        GeofenceKernel kernel = cells.get(key(row, wrapColumn(col)));
+                        if (kernel != null) {
+                            nearest = nearestBoundary(kernel, latitude, longitude, nearest);
+                        }
+                    }
+                }
+            }
+            return nearest;
+        }
+
+        private static double nearestBoundary(GeofenceKernel kernel, double latitude, double longitude,
+                                              double nearest) {
+            for (int slot = 0; slot < kernel.size(); slot++) {
+                nearest = Math.min(nearest, GeofenceKernel.boundaryDistance(kernel.fenceAt(slot), latitude, longitude));
+            }
+            return nearest;
+        }
+
+        // Columns around the globe, so cells either side of the antimeridian are neighbours
+        private int columns() {
+            return (int) Math.round(360 / cellDegrees);
+        }
+
+        private int wrapColumn(int col) {
+            int columns = columns();
+            return Math.floorMod(col + columns / 2, columns) - columns / 2;
+        }
+
+        private int columnDistance(int col, int col0) {
+            int distance = Math.floorMod(col - col0, columns());
+            return Math.min(distance, columns() - distance);
+        }
+
+        private static void addAll(GeofenceKernel kernel, Collection<SmartLocation> out) {
+            for (int slot = 0; slot < kernel.size(); slot++) {
+                out.add(kernel.fenceAt(slot));
+            }
+        }
+
+        private int cell(double degrees) {
+            return (int) Math.floor(degrees / cellDegrees);
+        }
+
+        private static long key(int row, int col) {
+            return ((long) row << 32) | (col & 0xffffffffL);
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package com.example.smartmute;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Packed, immutable set of fences with an allocation-free containment test. Each fence occupies one stride of a single double[]
+ * (centre, radius, sin/cos of latitude, bounding box), so a scan walks
+ * contiguous memory.
+ *
+ * A point is tested in three stages:
+ *   1. bounding-box reject on degrees, with the point's longitude taken on
+ *      the fence's side of the antimeridian so a box across it wraps,
+ *   2. equirectangular distance, accepted or rejected outright unless it lands
+ *      within the approximation's error margin of the radius,
+ *   3. exact WGS84 ellipsoidal distance (Vincenty) for those boundary cases.
+ *
+ * A fix with a known accuracy is classified the same way, with the accuracy
+ * added to the margins: only a circle straddling the edge within the
+ * approximation's error needs Vincenty.
+ *
+ * Polygon fences are packed as the circle around them, which serves stage 1;
+ * their prepared geometry replaces stages 2 and 3.
+ *
+ * Pure Java, so it can be exercised and benchmarked on the JVM.
+ */
+final class GeofenceKernel {
+    private static final int STRIDE = 9;
+    private static final int LAT = 0, LON = 1, RADIUS = 2, SIN_LAT = 3, COS_LAT = 4;
+    private static final int MIN_LAT = 5, MAX_LAT = 6, MIN_LON = 7, MAX_LON = 8;
+
+    // Shortest degree of latitude on WGS84 (at the equator) and longest degree
+    // of longitude per unit cos(latitude), so derived boxes never undershoot
+    static final double MIN_METERS_PER_DEGREE_LAT = 110574.0;
+    private static final double METERS_PER_DEGREE_LON_EQUATOR = 111319.0;
+    private static final double BOX_PADDING = 1.01;
+
+    private static final double MEAN_EARTH_RADIUS = 6371008.8;
+    // Sphere vs. ellipsoid plus the flat-earth approximation stay well inside this
+    private static final double EQUIRECT_RELATIVE_ERROR = 0.007;
+    private static final double EQUIRECT_ABSOLUTE_ERROR = 1.0;
+    // Great-circle vs. ellipsoidal distance never differ by more than this
+    private static final double SPHERE_RELATIVE_ERROR = 0.005;
+
+    // WGS84 ellipsoid
+    private static final double WGS84_A = 6378137.0;
+    private static final double WGS84_F = 1 / 298.257223563;
+    private static final double WGS84_B = WGS84_A * (1 - WGS84_F);
+    private static final int VINCENTY_MAX_ITERATIONS = 20;
+
+    // Where a fix with a known accuracy stands relative to a fence
+    enum Containment { INSIDE, OUTSIDE, UNCERTAIN }
+
+    static final GeofenceKernel EMPTY = new GeofenceKernel(new SmartLocation[0]);
+
+    private final SmartLocation[] fences;
+    private final double[] packed;
+
+    GeofenceKernel(SmartLocation[] fences) {
+        this.fences = fences;
+        this.packed = new double[fences.length * STRIDE];
+        for (int i = 0; i < fences.length; i++) {
+            pack(fences[i], packed, i * STRIDE);
+        }
+    }
+
+    private GeofenceKernel(SmartLocation[] fences, double[] packed) {
+        this.fences = fences;
+        this.packed = packed;
+    }
+
+    int size() {
+        return fences.length;
+    }
+
+    SmartLocation fenceAt(int slot) {
+        return fences[slot];
+    }
+
+    // Copy with one more fence; the existing strides are reused verbatim
+    GeofenceKernel with(SmartLocation fence) {
+        SmartLocation[] grownFences = new SmartLocation[fences.length + 1];
+        System.arraycopy(fences, 0, grownFences, 0, fences.length);
+        grownFences[fences.length] = fence;
+
+        double[] grownPacked = new double[packed.length + STRIDE];
+        System.arraycopy(packed, 0, grownPacked, 0, packed.length);
+        pack(fence, grownPacked, packed.length);
+        return new GeofenceKernel(grownFences, grownPacked);
+    }
+
+    // Copy without the given fence instance, or this kernel if it isn't present
+    GeofenceKernel without(SmartLocation fence) {
+        int slot = -1;
+        for (int i = 0; i < fences.length; i++) {
+            if (fences[i] == fence) {
+                slot = i;
+                break;
+            }
+        }
+        if (slot < 0) {
+            return this;
+        }
+        if (fences.length == 1) {
+            return EMPTY;
+        }
+
+        SmartLocation[] shrunkFences = new SmartLocation[fences.length - 1];
+        System.arraycopy(fences, 0, shrunkFences, 0, slot);
+        System.arraycopy(fences, slot + 1, shrunkFences, slot, fences.length - slot - 1);
+
+        double[] shrunkPacked = new double[packed.length - STRIDE];
+        System.arraycopy(packed, 0, shrunkPacked, 0, slot * STRIDE);
+        System.arraycopy(packed, (slot + 1) * STRIDE, shrunkPacked, slot * STRIDE,
+                packed.length - (slot + 1) * STRIDE);
+        return new GeofenceKernel(shrunkFences, shrunkPacked);
+    }
+
+    // Adds every fence containing the point to out, keeping out in rank order
+    void collectContaining(double latitude, double longitude, List<SmartLocation> out) {
+        for (int slot = 0; slot < fences.length; slot++) {
+            if (contains(slot, latitude, longitude)) {
+                insertRanked(out, fences[slot]);
+            }
+        }
+    }
+
+    /**
+     * Inserts the fence into an already ranked list. Only containing fences are
+     * ever ranked, and there are only a few of those, so this stays part of
+     * the single containment pass.
+     */
+    static void insertRanked(List<SmartLocation> ranked, SmartLocation fence) {
+        int position = ranked.size();
+        while (position > 0 && outranks(fence, ranked.get(position - 1))) {
+            position--;
+        }
+        ranked.add(position, fence);
+    }
+
+    // Higher priority first, then the smaller (more specific) fence, then the
+    // lower id so the winner never depends on storage or grid order
+    static boolean outranks(SmartLocation a, SmartLocation b) {
+        if (a.getPriority() != b.getPriority()) {
+            return a.getPriority() > b.getPriority();
+        }
+        if (a.getRadius() != b.getRadius()) {
+            return a.getRadius() < b.getRadius();
+        }
+        return a.getId() < b.getId();
+    }
+
+    boolean contains(int slot, double latitude, double longitude) {
+        int base = slot * STRIDE;
+        double[] p = packed;
+
+        // Longitude difference the short way round, so fences at +-180 compare correctly
+        double dLonDegrees = wrapLongitude(longitude - p[base + LON]);
+
+        // Stage 1: bounding box, which may extend past +-180
+        double unwrapped = p[base + LON] + dLonDegrees;
+        if (latitude < p[base + MIN_LAT] || latitude > p[base + MAX_LAT]
+                || unwrapped < p[base + MIN_LON] || unwrapped > p[base + MAX_LON]) {
+            return false;
+        }
+
+        PreparedPolygon polygon = fences[slot].getPolygon();
+        if (polygon != null) {
+            return polygon.contains(latitude, longitude);
+        }
+
+        // Stage 2: equirectangular approximation, decisive away from the edge
+        double radius = p[base + RADIUS];
+        double dLat = Math.toRadians(latitude - p[base + LAT]);
+        // cos of the mid-latitude by first-order expansion around the fence centre
+        double cosMid = p[base + COS_LAT] - p[base + SIN_LAT] * dLat * 0.5;
+        double dLon = Math.toRadians(dLonDegrees) * cosMid;
+        double approx = MEAN_EARTH_RADIUS * Math.sqrt(dLat * dLat + dLon * dLon);
+        double margin = approx * EQUIRECT_RELATIVE_ERROR + EQUIRECT_ABSOLUTE_ERROR;
+        if (approx + margin < radius) {
+            return true;
+        }
+        if (approx - margin > radius) {
+            return false;
+        }
+
+        // Stage 3: exact ellipsoidal distance near the boundary
+        return vincentyDistance(latitude, longitude, p[base + LAT], p[base + LON]) <= radius;
+    }
+
+    /**
+     * Classifies the fix against every fence whose box meets {@code box}, the
+     * fix's accuracy circle from {@link #bounds}. Fences the fix is inside go
+     * into {@code containing} in rank order and undecided ones into
+     * {@code uncertain}; fences already in {@code seen} are skipped.
+     */
+    void classifyNear(double latitude, double longitude, double accuracy, double[] box,
+                      List<SmartLocation> containing, List<SmartLocation> uncertain, FenceIds seen) {
+        double halfLonSpan = (box[3] - box[2]) / 2;
+        for (int slot = 0; slot < fences.length; slot++) {
+            int base = slot * STRIDE;
+            double[] p = packed;
+            // Stage 1: the two boxes, with the fix's longitude on the fence's side of +-180
+            double unwrapped = p[base + LON] + wrapLongitude(longitude - p[base + LON]);
+            if (box[1] < p[base + MIN_LAT] || box[0] > p[base + MAX_LAT]
+                    || unwrapped + halfLonSpan < p[base + MIN_LON] || unwrapped - halfLonSpan > p[base + MAX_LON]
+                    || !seen.add(fences[slot].getId())) {
+                continue;
+            }
+            switch (classify(slot, latitude, longitude, accuracy)) {
+                case INSIDE:
+                    insertRanked(containing, fences[slot]);
+                    break;
+                case UNCERTAIN:
+                    uncertain.add(fences[slot]);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // Stages 2 and 3 for a fix with an accuracy circle; the boxes already meet
+    private Containment classify(int slot, double latitude, double longitude, double accuracy) {
+        SmartLocation fence = fences[slot];
+        if (fence.getPolygon() != null) {
+            return classify(fence, latitude, longitude, accuracy);
+        }
+
+        int base = slot * STRIDE;
+        double[] p = packed;
+        double radius = p[base + RADIUS];
+        double dLat = Math.toRadians(latitude - p[base + LAT]);
+        double cosMid = p[base + COS_LAT] - p[base + SIN_LAT] * dLat * 0.5;
+        double dLon = Math.toRadians(wrapLongitude(longitude - p[base + LON])) * cosMid;
+        double approx = MEAN_EARTH_RADIUS * Math.sqrt(dLat * dLat + dLon * dLon);
+        double margin = approx * EQUIRECT_RELATIVE_ERROR + EQUIRECT_ABSOLUTE_ERROR;
+        // Decisive unless the exact distance could fall either side of r - accuracy or r + accuracy
+        if (approx + margin + accuracy <= radius) {
+            return Containment.INSIDE;
+        }
+        if (approx - margin - accuracy > radius) {
+            return Containment.OUTSIDE;
+        }
+        if (approx - margin + accuracy > radius && approx + margin - accuracy <= radius) {
+            return Containment.UNCERTAIN;
+        }
+        return containment(vincentyDistance(latitude, longitude, p[base + LAT], p[base + LON]),
+                radius, accuracy);
+    }
+
+    /**
+     * Fence ids seen while answering one query, so a fence bucketed in
+     * several cells is handled once. Reused across fixes.
+     */
+    static final class FenceIds {
+        private int[] ids = new int[16];
+        private int count;
+
+        void clear() {
+            count = 0;
+        }
+
+        // False if the id was already there
+        boolean add(int id) {
+            for (int i = 0; i < count; i++) {
+                if (ids[i] == id) {
+                    return false;
+                }
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = id;
+            return true;
+        }
+    }
+
+    /**
+     * Writes {minLat, maxLat, minLon, maxLon} of the fence's bounding box into
+     * out[offset..offset+3]. The box is padded so it always contains the circle.
+     */
+    static void bounds(SmartLocation fence, double[] out, int offset) {
+        bounds(fence.getLatitude(), fence.getLongitude(), fence.getRadius(), out, offset);
+    }
+
+    // The same for any circle, such as a fix's accuracy circle
+    static void bounds(double latitude, double longitude, double radius, double[] out, int offset) {
+        double latSpan = radius / MIN_METERS_PER_DEGREE_LAT * BOX_PADDING;
+        // The circle is widest in longitude at its poleward edge
+        double edgeLat = Math.min(90.0, Math.abs(latitude) + latSpan);
+        double cosEdge = Math.cos(Math.toRadians(edgeLat));
+        double lonSpan = cosEdge < 1e-9 ? 360.0
+                : radius / (METERS_PER_DEGREE_LON_EQUATOR * cosEdge) * BOX_PADDING;
+
+        out[offset] = latitude - latSpan;
+        out[offset + 1] = latitude + latSpan;
+        out[offset + 2] = longitude - lonSpan;
+        out[offset + 3] = longitude + lonSpan;
+    }
+
+    // Into [-180, 180]
+    static double wrapLongitude(double degrees) {
+        if (degrees > 180) {
+            return degrees - 360;
+        }
+        if (degrees < -180) {
+            return degrees + 360;
+        }
+        return degrees;
+    }
+
+    /**
+     * Fewest meters a degree of latitude or longitude spans anywhere within
+     * spanDegrees of the latitude, measured on the sphere boundaryDistance
+     * uses. Zero when the span reaches a pole.
+     */
+    static double minMetersPerDegree(double latitude, double spanDegrees) {
+        double edgeLat = Math.min(90.0, Math.abs(latitude) + spanDegrees);
+        double sphereMetersPerDegree = Math.toRadians(1) * MEAN_EARTH_RADIUS;
+        return Math.min(MIN_METERS_PER_DEGREE_LAT,
+                Math.max(0, sphereMetersPerDegree * Math.cos(Math.toRadians(edgeLat))));
+    }
+
+    private static void pack(SmartLocation fence, double[] packed, int base) {
+        packed[base + LAT] = fence.getLatitude();
+        packed[base + LON] = fence.getLongitude();
+        packed[base + RADIUS] = fence.getRadius();
+        packed[base + SIN_LAT] = Math.sin(Math.toRadians(fence.getLatitude()));
+        packed[base + COS_LAT] = Math.cos(Math.toRadians(fence.getLatitude()));
+        bounds(fence, packed, base + MIN_LAT);
+    }
+
+    /**
+     * Classifies a fix against a fence using its accuracy circle, the radius
+     * Android reports at 68% confidence. Only a circle wholly inside or wholly
+     * outside the fence is decisive; one straddling the edge is UNCERTAIN.
+     * With no accuracy (0) this is the plain containment test.
+     */
+    static Containment classify(SmartLocation fence, double latitude, double longitude, double accuracy) {
+        double distance = vincentyDistance(latitude, longitude, fence.getLatitude(), fence.getLongitude());
+        PreparedPolygon polygon = fence.getPolygon();
+        if (polygon != null) {
+            if (distance - accuracy > fence.getRadius()) {
+                return Containment.OUTSIDE;
+            }
+            boolean inside = polygon.contains(latitude, longitude);
+            if (accuracy > 0 && polygon.distanceToEdge(latitude, longitude) < accuracy) {
+                return Containment.UNCERTAIN;
+            }
+            return inside ? Containment.INSIDE : Containment.OUTSIDE;
+        }
+        return containment(distance, fence.getRadius(), accuracy);
+    }
+
+    private static Containment containment(double distance, double radius, double accuracy) {
+        if (distance + accuracy <= radius) {
+            return Containment.INSIDE;
+        }
+        if (distance - accuracy > radius) {
+            return Containment.OUTSIDE;
+        }
+        return Containment.UNCERTAIN;
+    }
+
+    /**
+     * Lower bound on the distance in meters from the point to the fence's
+     * edge, from either side. Spherical, with the ellipsoid's error margin
+     * taken off, which is plenty for scheduling decisions.
+     */
+    static double boundaryDistance(SmartLocation fence, double latitude, double longitude) {
+        double lat1 = Math.toRadians(latitude), lat2 = Math.toRadians(fence.getLatitude());
+        double sinDLat = Math.sin((lat2 - lat1) / 2);
+        double sinDLon = Math.sin(Math.toRadians(fence.getLongitude() - longitude) / 2);
+        double h = sinDLat * sinDLat + Math.cos(lat1) * Math.cos(lat2) * sinDLon * sinDLon;
+        double distance = 2 * MEAN_EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+        if (fence.getPolygon() != null && distance < fence.getRadius()) {
+            // Inside the enclosing circle only the polygon's own edges count
+            return fence.getPolygon().distanceToEdge(latitude, longitude);
+        }
+        return Math.max(0, Math.abs(distance - fence.getRadius()) - distance * SPHERE_RELATIVE_ERROR);
+    }
+
+    // Meters from the fence's edge: negative inside, positive outside
+    static double signedEdgeDistance(SmartLocation fence, double latitude, double longitude) {
+        PreparedPolygon polygon = fence.getPolygon();
+        if (polygon != null) {
+            double distance = polygon.distanceToEdge(latitude, longitude);
+            return polygon.contains(latitude, longitude) ? -distance : distance;
+        }
+        return vincentyDistance(latitude, longitude, fence.getLatitude(), fence.getLongitude()) - fence.getRadius();
+    }
+
+    /**
+     * Geodesic distance in meters on the WGS84 ellipsoid (Vincenty's inverse
+     * formula), the same model Location.distanceBetween uses. Falls back to
+     * the spherical distance for near-antipodal points that don't converge.
+     */
+    static double vincentyDistance(double lat1, double lon1, double lat2, double lon2) {
+        double l = Math.toRadians(wrapLongitude(lon2 - lon1));
+        double u1 = Math.atan((1 - WGS84_F) * Math.tan(Math.toRadians(lat1)));
+        double u2 = Math.atan((1 - WGS84_F) * Math.tan(Math.toRadians(lat2)));
+        double sinU1 = Math.sin(u1), cosU1 = Math.cos(u1);
+        double sinU2 = Math.sin(u2), cosU2 = Math.cos(u2);
+
+        double lambda = l;
+        double sinSigma = 0, cosSigma = 0, sigma = 0, cosSqAlpha = 0, cos2SigmaM = 0;
+        for (int i = 0; i < VINCENTY_MAX_ITERATIONS; i++) {
+            double sinLambda = Math.sin(lambda), cosLambda = Math.cos(lambda);
+            double t1 = cosU2 * sinLambda;
+            double t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            sinSigma = Math.sqrt(t1 * t1 + t2 * t2);
+            if (sinSigma == 0) {
+                return 0; // Coincident points
+            }
+            cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            cosSqAlpha = 1 - sinAlpha * sinAlpha;
+            cos2SigmaM = cosSqAlpha == 0 ? 0 : cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha;
+            double c = WGS84_F / 16 * cosSqAlpha * (4 + WGS84_F * (4 - 3 * cosSqAlpha));
+            double previous = lambda;
+            lambda = l + (1 - c) * WGS84_F * sinAlpha
+                    * (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+            if (Math.abs(lambda - previous) < 1e-12) {
+                double uSq = cosSqAlpha * (WGS84_A * WGS84_A - WGS84_B * WGS84_B) / (WGS84_B * WGS84_B);
+                double a = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+                double b = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+                double deltaSigma = b * sinSigma * (cos2SigmaM + b / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                        - b / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+                return WGS84_B * a * (sigma - deltaSigma);
+            }
+        }
+        return MEAN_EARTH_RADIUS * sigma;
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.smartmute;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-fence enter/exit state with dwell times and hysteresis margins, kept
+ * in memory. A fence only counts as entered after fixes have placed the
+ * device at least the entry margin inside its edge for the enter dwell time,
+ * and only counts as left once fixes have stayed beyond radius + exit margin
+ * for the exit dwell time. A single noisy fix at the boundary therefore
+ * changes nothing.
+ *
+ * Fixes whose accuracy circle straddles a fence's edge are neither in nor
+ * out of it. They leave a fence that was already entered where it is, but
+ * break an entry dwell, so a run of poor fixes can't confirm an entry.
+ *
+ * Wi-Fi places have no geometry for fixes to test; WifiPlaceMonitor enters
+ * and leaves them with {@link #applyTransition} and fixes leave them alone.
+ *
+ * The active fence is the highest ranked one that is confirmed inside (see
+ * GeofenceKernel#outranks), so nested fences resolve deterministically. The
+ * listener hears about it changing; callers persist that, so storage is only
+ * touched on real transitions.
+ */
+final class GeofenceStateMachine {
+
+    interface Listener {
+        // The active fence became this one (fresh entry or switch between fences)
+        void onEnter(SmartLocation fence);
+
+        // No fence is active any more; fenceId is the one that was
+        void onExit(int fenceId);
+    }
+
+    private enum State { ENTERING, INSIDE, EXITING }
+
+    private static final class FenceState {
+        SmartLocation fence;
+        State state;
+        long since;
+
+        FenceState(SmartLocation fence, State state, long since) {
+            this.fence = fence;
+            this.state = state;
+            this.since = since;
+        }
+    }
+
+    static final long DEFAULT_ENTER_DWELL_MS = 30 * 1000L;
+    static final long DEFAULT_EXIT_DWELL_MS = 60 * 1000L;
+    // Margins are a fraction of the radius, with the entry margin capped and
+    // the exit margin floored so small fences can still be entered and left
+    static final double DEFAULT_MARGIN_FRACTION = 0.1;
+    static final double DEFAULT_ENTER_MARGIN_METERS = 10.0;
+    static final double DEFAULT_EXIT_MARGIN_METERS = 25.0;
+
+    private final long enterDwellMs;
+    private final long exitDwellMs;
+    private final double marginFraction;
+    private final double enterMarginMeters;
+    private final double exitMarginMeters;
+    private final Listener listener;
+
+    // Only fences that are not plainly OUTSIDE are tracked
+    private final Map<Integer, FenceState> states = new HashMap<>();
+    private int activeFenceId = -1;
+    private int restoredFenceId = -1;
+
+    GeofenceStateMachine(Listener listener) {
+        this(DEFAULT_ENTER_DWELL_MS, DEFAULT_EXIT_DWELL_MS, DEFAULT_MARGIN_FRACTION,
+                DEFAULT_ENTER_MARGIN_METERS, DEFAULT_EXIT_MARGIN_METERS, listener);
+    }
+
+    GeofenceStateMachine(long enterDwellMs, long exitDwellMs, double marginFraction,
+                         double enterMarginMeters, double exitMarginMeters, Listener listener) {
+        this.enterDwellMs = enterDwellMs;
+        this.exitDwellMs = exitDwellMs;
+        this.marginFraction = marginFraction;
+        this.enterMarginMeters = enterMarginMeters;
+        this.exitMarginMeters = exitMarginMeters;
+        this.listener = listener;
+    }
+
+    /**
+     * Resumes with a fence that was active before a restart, so leaving it
+     * later still reverts its profile. Takes effect on the next update.
+     */
+    void restore(int fenceId) {
+        restoredFenceId = fenceId;
+    }
+
+    int getActiveFenceId() {
+        return activeFenceId;
+    }
+
+    // True while a fence is waiting out its enter or exit dwell time
+    boolean hasPendingTransition() {
+        for (FenceState fenceState : states.values()) {
+            if (fenceState.state != State.INSIDE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    long getEnterDwellMs() {
+        return enterDwellMs;
+    }
+
+    void update(double latitude, double longitude, long nowMs,
+                List<SmartLocation> containing, RuleSnapshot snapshot) {
+        update(latitude, longitude, nowMs, containing, Collections.emptyList(), snapshot);
+    }
+
+    /**
+     * Feeds one fix. {@code containing} are the fences the fix is certainly
+     * inside and {@code uncertain} those it can't decide (see
+     * GeofenceKernel#classify); {@code snapshot} supplies current fence
+     * geometry so edited, disabled and deleted fences are handled.
+     */
+    void update(double latitude, double longitude, long nowMs, List<SmartLocation> containing,
+                List<SmartLocation> uncertain, RuleSnapshot snapshot) {
+        applyRestore(snapshot, nowMs);
+
+        for (SmartLocation fence : containing) {
+            FenceState fenceState = states.get(fence.getId());
+            if (fenceState == null) {
+                states.put(fence.getId(), new FenceState(fence, State.ENTERING, nowMs));
+            } else {
+                fenceState.fence = fence;
+                if (fenceState.state == State.EXITING) {
+                    // Came back before the exit was confirmed
+                    fenceState.state = State.INSIDE;
+                    fenceState.since = nowMs;
+                }
+            }
+        }
+
+        Iterator<Map.Entry<Integer, FenceState>> iterator = states.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, FenceState> entry = iterator.next();
+            FenceState fenceState = entry.getValue();
+
+            SmartLocation current = snapshot.getActiveLocation(entry.getKey());
+            if (current == null) {
+                // Deleted or disabled: leave at once, there is nothing to dwell in
+                iterator.remove();
+                continue;
+            }
+            fenceState.fence = current;
+            if (current.isWifiPlace()) {
+                continue;
+            }
+            if (isIn(uncertain, entry.getKey())) {
+                if (fenceState.state == State.ENTERING) {
+                    // An entry needs an unbroken run of decisive fixes
+                    iterator.remove();
+                }
+                continue;
+            }
+            boolean inside = isIn(containing, entry.getKey());
+
+            switch (fenceState.state) {
+                case ENTERING:
+                    if (!inside || !withinEntryMargin(current, latitude, longitude)) {
+                        // Dwell restarts from the next fix that is well inside
+                        iterator.remove();
+                    } else if (nowMs - fenceState.since >= enterDwellMs) {
+                        fenceState.state = State.INSIDE;
+                        fenceState.since = nowMs;
+                    }
+                    break;
+                case INSIDE:
+                    if (!inside && !withinExitMargin(current, latitude, longitude)) {
+                        fenceState.state = State.EXITING;
+                        fenceState.since = nowMs;
+                    }
+                    break;
+                case EXITING:
+                    if (inside || withinExitMargin(current, latitude, longitude)) {
+                        fenceState.state = State.INSIDE;
+                        fenceState.since = nowMs;
+                    } else if (nowMs - fenceState.since >= exitDwellMs) {
+                        iterator.remove();
+                    }
+                    break;
+            }
+        }
+
+        updateActiveFence();
+    }
+
+    /**
+     * Records a transition that was already debounced elsewhere, such as a
+     * platform geofence event whose loitering delay and responsiveness stand
+     * in for the dwell times here, then re-ranks the active fence.
+     */
+    void applyTransition(int fenceId, boolean inside, long nowMs, RuleSnapshot snapshot) {
+        applyRestore(snapshot, nowMs);
+
+        SmartLocation fence = snapshot.getActiveLocation(fenceId);
+        if (inside && fence != null) {
+            states.put(fenceId, new FenceState(fence, State.INSIDE, nowMs));
+        } else {
+            states.remove(fenceId);
+        }
+        updateActiveFence();
+    }
+
+    // Confirmed inside, or restored as the active fence and not yet seen since
+    boolean isInside(int fenceId) {
+        if (fenceId == restoredFenceId) {
+            return true;
+        }
+        FenceState fenceState = states.get(fenceId);
+        return fenceState != null && fenceState.state != State.ENTERING;
+    }
+
+    private void applyRestore(RuleSnapshot snapshot, long nowMs) {
+        if (restoredFenceId == -1) {
+            return;
+        }
+        SmartLocation restored = snapshot.getActiveLocation(restoredFenceId);
+        if (restored != null) {
+            states.put(restoredFenceId, new FenceState(restored, State.INSIDE, nowMs));
+        }
+        // Either way the fence was active when we stopped
+        activeFenceId = restoredFenceId;
+        restoredFenceId = -1;
+    }
+
+    private void updateActiveFence() {
+        // Fences still dwelling on their exit keep competing, so stepping out
+        // of an inner fence doesn't hand over to the outer one prematurely
+        SmartLocation nextActive = null;
+        for (FenceState fenceState : states.values()) {
+            if (fenceState.state != State.ENTERING
+                    && (nextActive == null || GeofenceKernel.outranks(fenceState.fence, nextActive))) {
+                nextActive = fenceState.fence;
+            }
+        }
+
+        int nextActiveId = nextActive != null ? nextActive.getId() : -1;
+        if (nextActiveId == activeFenceId) {
+            return;
+        }
+        int previousId = activeFenceId;
+        activeFenceId = nextActiveId;
+        if (nextActive != null) {
+            listener.onEnter(nextActive);
+        } else {
+            listener.onExit(previousId);
+        }
+    }
+
+    // Margins are measured from the fence's edge, so they apply to polygons too
+    private boolean withinEntryMargin(SmartLocation fence, double latitude, double longitude) {
+        double margin = Math.min(enterMarginMeters, fence.getRadius() * marginFraction);
+        return GeofenceKernel.signedEdgeDistance(fence, latitude, longitude) <= -margin;
+    }
+
+    private boolean withinExitMargin(SmartLocation fence, double latitude, double longitude) {
+        double margin = Math.max(exitMarginMeters, fence.getRadius() * marginFraction);
+        return GeofenceKernel.signedEdgeDistance(fence, latitude, longitude) <= margin;
+    }
+
+    private static boolean isIn(List<SmartLocation> fences, int fenceId) {
+        for (int i = 0; i < fences.size(); i++) {
+            if (fences.get(i).getId() == fenceId) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
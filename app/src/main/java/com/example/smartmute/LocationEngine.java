@@ -0,0 +1,432 @@
+package com.example.smartmute;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.media.AudioManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.core.app.NotificationCompat;
+import com.google.android.gms.location.GeofencingEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The one location engine in the process. It owns the geofence backend (and
+ * with it the only OS location request or geofence registration), the
+ * evaluation thread, the transition state machine and what happens on a
+ * transition: the profile, the log entry and the alert are applied exactly
+ * once however many components are watching. Wi-Fi places feed the same state
+ * machine from connectivity changes, through the WifiPlaceMonitor.
+ *
+ * Components subscribe for transition events; the engine runs while it has
+ * at least one subscriber. All public methods are for the main thread, and
+ * listeners are called there.
+ */
+public final class LocationEngine {
+    private static final String TAG = "LocationEngine";
+
+    // Applying a profile is a few system calls and a database write
+    private static final long PROFILE_LEASE_MS = 10 * 1000L;
+    // Slack on the lease held while a Wi-Fi exit waits out its grace period
+    private static final long WIFI_CHECK_MARGIN_MS = 5 * 1000L;
+    // Some months of fixes at the rates LocationRequestScheduler asks for
+    private static final long HISTORY_MAX_BYTES = 1024 * 1024L;
+
+    public interface TransitionListener {
+        void onGeofenceEntered(SmartLocation geofence);
+
+        void onGeofenceExited(int geofenceId);
+    }
+
+    private static LocationEngine instance;
+
+    private final Context context;
+    private final SmartMuteDatabaseHelper databaseHelper;
+    private final WakeLockManager wakeLocks;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<TransitionListener> listeners = new CopyOnWriteArrayList<>();
+    // Null if the file couldn't be opened; monitoring goes on without it
+    private final LocationHistoryStore locationHistory;
+
+    // Fixes and geofence events are evaluated here; only transitions reach the main thread
+    private HandlerThread evaluationThread;
+    private Handler evaluation;
+    private GeofenceBackend geofenceBackend;
+    // Runs on the evaluation thread only; start, stop and rule changes are posted there
+    private WifiPlaceMonitor wifiPlaces;
+
+    // Called on the evaluation thread; profile, log and notification work runs
+    // on main, under a lease taken before the hand-off so the CPU can't sleep in between
+    private final GeofenceStateMachine geofenceState = new GeofenceStateMachine(
+            new GeofenceStateMachine.Listener() {
+                @Override
+                public void onEnter(SmartLocation fence) {
+                    WakeLockManager.Lease lease = wakeLocks.acquire(WakeLockManager.SUBSYSTEM_PROFILE, PROFILE_LEASE_MS);
+                    mainHandler.post(() -> {
+                        try {
+                            onGeofenceEnter(fence);
+                            saveActiveGeofence(fence.getId());
+                            for (TransitionListener listener : listeners) {
+                                listener.onGeofenceEntered(fence);
+                            }
+                        } finally {
+                            lease.close();
+                        }
+                    });
+                }
+
+                @Override
+                public void onExit(int fenceId) {
+                    WakeLockManager.Lease lease = wakeLocks.acquire(WakeLockManager.SUBSYSTEM_PROFILE, PROFILE_LEASE_MS);
+                    mainHandler.post(() -> {
+                        try {
+                            onGeofenceExit(fenceId);
+                            saveActiveGeofence(-1);
+                            for (TransitionListener listener : listeners) {
+                                listener.onGeofenceExited(fenceId);
+                            }
+                        } finally {
+                            lease.close();
+                        }
+                    });
+                }
+            });
+
+    // Location rule edits go to the backend: re-registered with the platform,
+    // or re-evaluated against the last fix when polling. Wi-Fi places are
+    // matched against the current network again. A bulk write arrives as one
+    // change and is handled in one pass.
+    private final DataChange.Listener ruleChangeListener = change -> {
+        if (change.affects(DataChange.Entity.LOCATION) && geofenceBackend != null) {
+            geofenceBackend.onRulesChanged(change);
+            WifiPlaceMonitor monitor = wifiPlaces;
+            int[] locationIds = change.getIds(DataChange.Entity.LOCATION);
+            evaluation.post(() -> monitor.onRulesChanged(locationIds));
+        }
+    };
+
+    public static synchronized LocationEngine getInstance(Context context) {
+        if (instance == null) {
+            instance = new LocationEngine(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private LocationEngine(Context context) {
+        this.context = context;
+        this.databaseHelper = SmartMuteDatabaseHelper.getInstance(context);
+        this.wakeLocks = WakeLockManager.getInstance(context);
+        this.locationHistory = openLocationHistory();
+        restoreActiveGeofence();
+    }
+
+    /**
+     * Adds a subscriber. The first one brings up the evaluation thread and
+     * chooses a backend; call {@link #start()} once location permission is
+     * there to begin monitoring.
+     */
+    public void subscribe(TransitionListener listener) {
+        listeners.addIfAbsent(listener);
+        if (geofenceBackend != null) {
+            return;
+        }
+
+        evaluationThread = new HandlerThread("SmartMuteGeofenceEvaluation", Process.THREAD_PRIORITY_BACKGROUND);
+        evaluationThread.start();
+        Handler handler = new Handler(evaluationThread.getLooper());
+        evaluation = handler;
+        geofenceBackend = GeofenceBackend.create(context, databaseHelper, geofenceState, handler, locationHistory);
+        wifiPlaces = new WifiPlaceMonitor(new AndroidConnectivitySource(context, handler), geofenceState,
+                databaseHelper::getRuleSnapshot, SystemClock::elapsedRealtime,
+                (check, delayMs) -> scheduleWifiCheck(handler, check, delayMs), this::recordWifiTransition);
+        databaseHelper.addChangeListener(ruleChangeListener);
+        Log.d(TAG, "Location engine created");
+    }
+
+    // Removes a subscriber; the last one out stops monitoring
+    public void unsubscribe(TransitionListener listener) {
+        listeners.remove(listener);
+        if (!listeners.isEmpty() || geofenceBackend == null) {
+            return;
+        }
+
+        databaseHelper.removeChangeListener(ruleChangeListener);
+        geofenceBackend.stop();
+        geofenceBackend = null;
+        evaluation.post(wifiPlaces::stop);
+        // Time after this counts for nothing; the thread quits safely, so this still runs
+        evaluation.post(this::recordStop);
+        wifiPlaces = null;
+        evaluation = null;
+        evaluationThread.quitSafely();
+        evaluationThread = null;
+        Log.d(TAG, "Location engine stopped; wake lock held " + Math.round(wakeLocks.getHeldMillisPerHour())
+                + " ms/h, " + wakeLocks.getStats());
+    }
+
+    /**
+     * Starts monitoring if it isn't running; safe to call from every
+     * subscriber. Throws SecurityException without location permission.
+     */
+    public void start() {
+        if (geofenceBackend == null) {
+            throw new IllegalStateException("start() without a subscriber");
+        }
+        // Wi-Fi places need no location request, so they come up first
+        evaluation.post(wifiPlaces::start);
+        geofenceBackend.start();
+    }
+
+    // Fixes and transitions the engine has seen, for analytics and replay; may be null
+    LocationHistoryStore getLocationHistory() {
+        return locationHistory;
+    }
+
+    /**
+     * Platform geofence events, forwarded by GeofenceEventReceiver; done is
+     * run once the event no longer needs the receiver kept alive. With no
+     * subscriber (the process was restarted for the event) there is no
+     * evaluation thread, so the transition is applied here on main and its
+     * profile change and persisted state follow in the queue before done.
+     */
+    void handleGeofenceEvent(Intent intent, Runnable done) {
+        if (geofenceBackend != null) {
+            // The backend holds its own lease across the hand-off
+            geofenceBackend.handleIntent(intent);
+            done.run();
+            return;
+        }
+        if (!GeofenceBackend.ACTION_GEOFENCE_EVENT.equals(intent.getAction())) {
+            done.run();
+            return;
+        }
+
+        Log.d(TAG, "Geofence event while stopped; applying it without a backend");
+        GeofencingEvent applied = null;
+        try {
+            // A transition takes its own profile lease before posting that work
+            applied = PlatformGeofenceBackend.handleStoppedIntent(intent, geofenceState,
+                    databaseHelper.getRuleSnapshot());
+        } catch (Exception e) {
+            Log.e(TAG, "Error handling geofence event: " + e.getMessage());
+        }
+        if (applied == null || locationHistory == null) {
+            mainHandler.post(done);
+            return;
+        }
+
+        // The process may go once done runs, so the record is written out first, off main
+        GeofencingEvent event = applied;
+        int activeFenceId = geofenceState.getActiveFenceId();
+        new Thread(() -> {
+            PlatformGeofenceBackend.recordTransition(event, activeFenceId, locationHistory);
+            try {
+                locationHistory.flush();
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing location history: " + e.getMessage());
+            }
+            mainHandler.post(done);
+        }, "SmartMuteGeofenceHistory").start();
+    }
+
+    // Runs on the evaluation thread
+    private void recordWifiTransition(int activeFenceId) {
+        if (locationHistory == null) {
+            return;
+        }
+        try {
+            locationHistory.appendTransition(System.currentTimeMillis(), Double.NaN, Double.NaN, 0, activeFenceId);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing location history: " + e.getMessage());
+        }
+    }
+
+    // Runs on the evaluation thread as it winds down
+    private void recordStop() {
+        if (locationHistory == null) {
+            return;
+        }
+        try {
+            locationHistory.appendStop(System.currentTimeMillis());
+            locationHistory.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing location history: " + e.getMessage());
+        }
+    }
+
+    // Handler time stops while the CPU sleeps, so the wait before a Wi-Fi exit
+    // is confirmed holds a lease; it ends when the check runs
+    private void scheduleWifiCheck(Handler handler, Runnable check, long delayMs) {
+        WakeLockManager.Lease lease = wakeLocks.acquire(WakeLockManager.SUBSYSTEM_WIFI_PLACE,
+                delayMs + WIFI_CHECK_MARGIN_MS);
+        handler.postDelayed(() -> {
+            try {
+                check.run();
+            } finally {
+                lease.close();
+            }
+        }, delayMs);
+    }
+
+    private LocationHistoryStore openLocationHistory() {
+        try {
+            return new LocationHistoryStore(new File(context.getFilesDir(), "location_history.bin"),
+                    HISTORY_MAX_BYTES);
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening location history: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Read once at startup so a fence we were inside before a restart still
+    // gets its revert profile when we leave it
+    private void restoreActiveGeofence() {
+        SharedPreferences prefs = context.getSharedPreferences("SmartMutePrefs", Context.MODE_PRIVATE);
+        if (prefs.getBoolean("was_inside_geofence", false)) {
+            geofenceState.restore(prefs.getInt("last_geofence_id", -1));
+        }
+    }
+
+    // Written only when the active fence actually changes
+    private void saveActiveGeofence(int fenceId) {
+        context.getSharedPreferences("SmartMutePrefs", Context.MODE_PRIVATE).edit()
+                .putBoolean("was_inside_geofence", fenceId != -1)
+                .putInt("last_geofence_id", fenceId)
+                .apply();
+    }
+
+    private void onGeofenceEnter(SmartLocation geofence) {
+        Log.i(TAG, "ENTERED geofence: " + geofence.getName());
+
+        try {
+            // Get the profile to apply
+            Profile profile = databaseHelper.getRuleSnapshot().getProfile(geofence.getProfileId());
+            if (profile != null) {
+                // Apply the sound profile
+                applySoundProfile(profile);
+
+                // Log the event
+                databaseHelper.addLog("GEOFENCE_ENTER",
+                        "Entered: " + geofence.getName() + " | Applied: " + profile.getName());
+
+                // Show notification
+                showGeofenceNotification("Entered " + geofence.getName(),
+                        "Sound profile set to: " + profile.getName(), true);
+            } else {
+                Log.e(TAG, "Profile not found for ID: " + geofence.getProfileId());
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error entering geofence: " + e.getMessage());
+        }
+    }
+
+    private void onGeofenceExit(int lastGeofenceId) {
+        Log.i(TAG, "EXITED geofence with ID: " + lastGeofenceId);
+
+        try {
+            // Get the last geofence to find revert profile
+            RuleSnapshot snapshot = databaseHelper.getRuleSnapshot();
+            SmartLocation lastGeofence = snapshot.getActiveLocation(lastGeofenceId);
+            if (lastGeofence == null) {
+                // Fence was disabled or removed while we were inside it
+                lastGeofence = databaseHelper.getLocation(lastGeofenceId);
+            }
+            if (lastGeofence != null) {
+                Profile revertProfile = snapshot.getProfile(lastGeofence.getRevertProfileId());
+                if (revertProfile != null) {
+                    // Apply the revert profile
+                    applySoundProfile(revertProfile);
+
+                    // Log the event
+                    databaseHelper.addLog("GEOFENCE_EXIT",
+                            "Exited: " + lastGeofence.getName() + " | Reverted to: " + revertProfile.getName());
+
+                    // Show notification
+                    showGeofenceNotification("Left " + lastGeofence.getName(),
+                            "Sound profile reverted to: " + revertProfile.getName(), false);
+                } else {
+                    // Fallback to default normal profile
+                    applyDefaultProfile();
+                    databaseHelper.addLog("GEOFENCE_EXIT",
+                            "Exited: " + lastGeofence.getName() + " | Reverted to default");
+                }
+            } else {
+                // No previous geofence info, apply default profile
+                applyDefaultProfile();
+                databaseHelper.addLog("GEOFENCE_EXIT", "Exited unknown geofence | Reverted to default");
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error exiting geofence: " + e.getMessage());
+            applyDefaultProfile(); // Safety fallback
+        }
+    }
+
+    private void applySoundProfile(Profile profile) {
+        Log.i(TAG, "Applying sound profile: " + profile.getName());
+
+        try {
+            SoundProfileManager soundManager = new SoundProfileManager(context);
+            soundManager.applyProfile(profile);
+
+            // Broadcast profile change for UI updates
+            Intent intent = new Intent("PROFILE_CHANGED_ACTION");
+            intent.putExtra("profile_name", profile.getName());
+            context.sendBroadcast(intent);
+
+        } catch (Exception e) {
+            Log.e(TAG, "Error applying sound profile: " + e.getMessage());
+        }
+    }
+
+    private void applyDefaultProfile() {
+        try {
+            AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+            audioManager.setRingerMode(AudioManager.RINGER_MODE_NORMAL);
+
+            // Set reasonable default volumes
+            int maxVolume = audioManager.getStreamMaxVolume(AudioManager.STREAM_RING);
+            audioManager.setStreamVolume(AudioManager.STREAM_RING, maxVolume, 0);
+
+            Log.i(TAG, "Applied default normal profile");
+        } catch (Exception e) {
+            Log.e(TAG, "Error applying default profile: " + e.getMessage());
+        }
+    }
+
+    private void showGeofenceNotification(String title, String message, boolean isEnter) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            String channelId = "geofence_channel";
+            NotificationManager notificationManager =
+                    (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+
+            // Create notification channel if needed
+            NotificationChannel channel = new NotificationChannel(
+                    channelId,
+                    "Geofence Alerts",
+                    NotificationManager.IMPORTANCE_HIGH
+            );
+            channel.setDescription("Notifications for geofence entries and exits");
+            notificationManager.createNotificationChannel(channel);
+
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(context, channelId)
+                    .setContentTitle(title)
+                    .setContentText(message)
+                    .setSmallIcon(isEnter ? R.drawable.ic_location_enter : R.drawable.ic_location_exit)
+                    .setColor(context.getResources().getColor(R.color.electric_blue))
+                    .setAutoCancel(true)
+                    .setPriority(NotificationCompat.PRIORITY_HIGH);
+
+            notificationManager.notify((int) System.currentTimeMillis(), builder.build());
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package com.example.smartmute;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only location history in one file of fixed-size blocks, kept apart
+ * from the database so it never grows the logs table.
+ *
+ * Each block holds a header (sequence number, time range, fix count) and a
+ * run of records, each stored as zigzag varint deltas from the one before:
+ * time, latitude and longitude (1e-6 degrees), accuracy in meters with two
+ * flag bits, and the active fence. A fix usually packs into 6-10 bytes.
+ *
+ * Besides polling fixes, the store takes transition records from the
+ * platform geofences and Wi-Fi places, which may carry no location, and a
+ * record marking that monitoring stopped. A transition record vouches for
+ * its fence until the next record however long that is; a fix only for as
+ * long as the next fix could be due.
+ *
+ * The file is a ring of at most maxBytes / BLOCK_SIZE blocks. When it is
+ * full, the oldest block is overwritten. The headers double as a time index,
+ * read once when the store is opened and kept in memory. A range scan
+ * decodes only the blocks whose time range overlaps it.
+ *
+ * The block being filled lives in memory and is written out when it fills,
+ * every FLUSH_INTERVAL_MS of fix time, and on flush() or close(), so a crash
+ * loses at most that much. Reopening resumes filling the newest block.
+ *
+ * Pure Java so it can be tested on the JVM; methods are synchronized, since
+ * fixes are appended on the evaluation thread while readers scan elsewhere.
+ */
+final class LocationHistoryStore implements Closeable {
+
+    interface Visitor {
+        // fenceId is the active fence after the record, -1 for none or NOT_MONITORING;
+        // latitude and longitude are NaN for a record with no location
+        void visit(long timeMs, double latitude, double longitude, int accuracy, int fenceId);
+    }
+
+    // The fence of the record that ends the history before monitoring stopped
+    static final int NOT_MONITORING = -2;
+
+    static final int BLOCK_SIZE = 4096;
+    static final long FLUSH_INTERVAL_MS = 10 * 60 * 1000L;
+
+    private static final int MAGIC = 0x534D4842;
+    private static final int HEADER_SIZE = 36;
+    // Worst case of one fix: a 10-byte time delta and four 5-byte ints
+    private static final int MAX_FIX_BYTES = 30;
+    // A tenth of a meter, well below any fix's accuracy
+    private static final double E6 = 1e6;
+    private static final int MAX_ACCURACY = 65535;
+    // Low bits of the stored accuracy
+    private static final int FLAG_TRANSITION = 1, FLAG_NO_LOCATION = 2, FLAG_BITS = 2;
+
+    private static final class IndexEntry {
+        final int slot;
+        final long sequence;
+        final long minTime, maxTime;
+        final int count;
+
+        IndexEntry(int slot, long sequence, long minTime, long maxTime, int count) {
+            this.slot = slot;
+            this.sequence = sequence;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.count = count;
+        }
+    }
+
+    // The block being filled, with the previous fix each delta is taken from
+    private static final class Block {
+        final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        int slot;
+        long sequence;
+        long minTime, maxTime;
+        int count;
+        long lastTime;
+        int lastLat, lastLon, lastFence;
+
+        void reset(int slot, long sequence) {
+            this.slot = slot;
+            this.sequence = sequence;
+            minTime = Long.MAX_VALUE;
+            maxTime = Long.MIN_VALUE;
+            count = 0;
+            lastTime = 0;
+            lastLat = 0;
+            lastLon = 0;
+            lastFence = -1;
+            buffer.clear();
+            buffer.position(HEADER_SIZE);
+        }
+
+        boolean hasRoom() {
+            return buffer.position() + MAX_FIX_BYTES <= BLOCK_SIZE;
+        }
+
+        void append(long time, int lat, int lon, int accuracy, int flags, int fence) {
+            writeVarLong(buffer, zigzag(time - lastTime));
+            writeVarLong(buffer, zigzag(lat - lastLat));
+            writeVarLong(buffer, zigzag(lon - lastLon));
+            writeVarLong(buffer, (long) accuracy << FLAG_BITS | flags);
+            writeVarLong(buffer, zigzag(fence - lastFence));
+            lastTime = time;
+            lastLat = lat;
+            lastLon = lon;
+            lastFence = fence;
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+            count++;
+        }
+
+        void writeHeader() {
+            buffer.putInt(0, MAGIC);
+            buffer.putLong(4, sequence);
+            buffer.putLong(12, minTime);
+            buffer.putLong(20, maxTime);
+            buffer.putInt(28, count);
+            buffer.putInt(32, buffer.position());
+        }
+    }
+
+    private final FileChannel channel;
+    private final int slotCount;
+    // Sealed blocks, oldest first; the current block is not in here
+    private final List<IndexEntry> index = new ArrayList<>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private final Block current = new Block();
+    private final ByteBuffer scratch = ByteBuffer.allocate(BLOCK_SIZE);
+    private int fileBlocks;
+    private long nextSequence;
+    private long lastFlushTime = Long.MIN_VALUE;
+
+    /**
+     * Opens or creates the store. {@code maxBytes} bounds the file; at least
+     * two blocks are kept whatever it says.
+     */
+    LocationHistoryStore(File file, long maxBytes) throws IOException {
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        slotCount = (int) Math.max(2, Math.min(Integer.MAX_VALUE, maxBytes / BLOCK_SIZE));
+        if (channel.size() > (long) slotCount * BLOCK_SIZE) {
+            // The bound shrank; blocks past it are dropped
+            channel.truncate((long) slotCount * BLOCK_SIZE);
+        }
+        fileBlocks = (int) (channel.size() / BLOCK_SIZE);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        for (int slot = 0; slot < fileBlocks; slot++) {
+            header.clear();
+            readFully(header, (long) slot * BLOCK_SIZE);
+            if (header.getInt(0) != MAGIC || header.getInt(28) <= 0) {
+                freeSlots.add(slot);
+                continue;
+            }
+            index.add(new IndexEntry(slot, header.getLong(4), header.getLong(12), header.getLong(20),
+                    header.getInt(28)));
+        }
+        index.sort(Comparator.comparingLong(entry -> entry.sequence));
+
+        if (index.isEmpty()) {
+            nextSequence = 0;
+            current.reset(allocateSlot(), nextSequence++);
+            return;
+        }
+        IndexEntry newest = index.get(index.size() - 1);
+        nextSequence = newest.sequence + 1;
+        resume(newest);
+    }
+
+    /**
+     * Appends one fix. {@code timeMs} is wall-clock time; fixes should come in
+     * time order, but a clock change only costs a longer delta.
+     */
+    synchronized void append(long timeMs, double latitude, double longitude, double accuracy, int fenceId)
+            throws IOException {
+        append(timeMs, latitude, longitude, accuracy, 0, fenceId);
+    }
+
+    /**
+     * Appends a transition, after which {@code fenceId} is active. The
+     * latitude and longitude are NaN when the transition has no location,
+     * as for a Wi-Fi place.
+     */
+    synchronized void appendTransition(long timeMs, double latitude, double longitude, double accuracy,
+                                       int fenceId) throws IOException {
+        append(timeMs, latitude, longitude, accuracy, FLAG_TRANSITION, fenceId);
+    }
+
+    // Ends the time credited to the last record, until monitoring starts again
+    synchronized void appendStop(long timeMs) throws IOException {
+        append(timeMs, Double.NaN, Double.NaN, 0, 0, NOT_MONITORING);
+    }
+
+    private void append(long timeMs, double latitude, double longitude, double accuracy, int flags, int fenceId)
+            throws IOException {
+        if (!current.hasRoom()) {
+            seal();
+        }
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            // Repeats the last position, so it costs two bytes
+            current.append(timeMs, current.lastLat, current.lastLon, 0, flags | FLAG_NO_LOCATION, fenceId);
+        } else {
+            current.append(timeMs, (int) Math.round(latitude * E6), (int) Math.round(longitude * E6),
+                    (int) Math.max(0, Math.min(MAX_ACCURACY, Math.round(accuracy))), flags, fenceId);
+        }
+
+        if (lastFlushTime == Long.MIN_VALUE) {
+            lastFlushTime = timeMs;
+        } else if (timeMs - lastFlushTime >= FLUSH_INTERVAL_MS) {
+            flush();
+        }
+    }
+
+    /**
+     * Visits every fix with fromMs <= time < toMs, oldest block first, and
+     * returns how many there were. Blocks outside the range are not read.
+     */
+    synchronized int scan(long fromMs, long toMs, Visitor visitor) throws IOException {
+        return scan(fromMs, toMs, (timeMs, latitude, longitude, accuracy, flags, fenceId) ->
+                visitor.visit(timeMs, latitude, longitude, accuracy, fenceId));
+    }
+
+    private interface RecordVisitor {
+        void visit(long timeMs, double latitude, double longitude, int accuracy, int flags, int fenceId);
+    }
+
+    private int scan(long fromMs, long toMs, RecordVisitor visitor) throws IOException {
+        int visited = 0;
+        for (IndexEntry entry : index) {
+            if (entry.maxTime < fromMs || entry.minTime >= toMs) {
+                continue;
+            }
+            scratch.clear();
+            readFully(scratch, (long) entry.slot * BLOCK_SIZE);
+            visited += decode(scratch, entry.count, fromMs, toMs, visitor);
+        }
+        if (current.count > 0 && current.maxTime >= fromMs && current.minTime < toMs) {
+            visited += decode(current.buffer.duplicate(), current.count, fromMs, toMs, visitor);
+        }
+        return visited;
+    }
+
+    /**
+     * Time spent in each fence (-1 for none) between fromMs and toMs. Each gap
+     * between consecutive records counts for the fence of the earlier one:
+     * in full after a transition, otherwise only if it is no longer than
+     * {@code maxGapMs}, the longest the fixes may be apart. The last record
+     * counts the same way up to toMs, so pass the current time for a stay
+     * still going on. Nothing counts after monitoring stopped.
+     */
+    synchronized Map<Integer, Long> timePerFence(long fromMs, long toMs, long maxGapMs) throws IOException {
+        Map<Integer, Long> totals = new HashMap<>();
+        long[] previousTime = {Long.MIN_VALUE};
+        int[] previous = {0, NOT_MONITORING};
+        scan(fromMs, toMs, (timeMs, latitude, longitude, accuracy, flags, fenceId) -> {
+            credit(totals, previous[0], previous[1], timeMs - previousTime[0], maxGapMs);
+            previousTime[0] = timeMs;
+            previous[0] = flags;
+            previous[1] = fenceId;
+        });
+        credit(totals, previous[0], previous[1], toMs - previousTime[0], maxGapMs);
+        return totals;
+    }
+
+    private static void credit(Map<Integer, Long> totals, int flags, int fenceId, long gapMs, long maxGapMs) {
+        if (fenceId != NOT_MONITORING && gapMs > 0 && ((flags & FLAG_TRANSITION) != 0 || gapMs <= maxGapMs)) {
+            totals.merge(fenceId, gapMs, Long::sum);
+        }
+    }
+
+    // Time of the oldest fix still kept, or Long.MAX_VALUE if there is none
+    synchronized long getOldestTimeMs() {
+        long oldest = current.count > 0 ? current.minTime : Long.MAX_VALUE;
+        for (IndexEntry entry : index) {
+            oldest = Math.min(oldest, entry.minTime);
+        }
+        return oldest;
+    }
+
+    synchronized int getFixCount() {
+        int count = current.count;
+        for (IndexEntry entry : index) {
+            count += entry.count;
+        }
+        return count;
+    }
+
+    // Writes the block being filled; it stays open for more fixes
+    synchronized void flush() throws IOException {
+        if (current.count == 0) {
+            return;
+        }
+        current.writeHeader();
+        ByteBuffer block = current.buffer.duplicate();
+        block.clear();
+        writeFully(block, (long) current.slot * BLOCK_SIZE);
+        lastFlushTime = current.lastTime;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    private void seal() throws IOException {
+        flush();
+        index.add(new IndexEntry(current.slot, current.sequence, current.minTime, current.maxTime, current.count));
+        current.reset(allocateSlot(), nextSequence++);
+    }
+
+    // A never-used slot while the file can grow, otherwise the oldest block's
+    private int allocateSlot() {
+        Integer free = freeSlots.poll();
+        if (free != null) {
+            return free;
+        }
+        if (fileBlocks < slotCount) {
+            return fileBlocks++;
+        }
+        return index.remove(0).slot;
+    }
+
+    // Reloads the newest block so a restart keeps filling it
+    private void resume(IndexEntry newest) throws IOException {
+        current.reset(newest.slot, newest.sequence);
+        ByteBuffer block = current.buffer.duplicate();
+        block.clear();
+        readFully(block, (long) newest.slot * BLOCK_SIZE);
+
+        // Walking the fixes restores the delta base and leaves the position after the last one
+        for (int i = 0; i < newest.count; i++) {
+            current.lastTime += unzigzag(readVarLong(current.buffer));
+            current.lastLat += (int) unzigzag(readVarLong(current.buffer));
+            current.lastLon += (int) unzigzag(readVarLong(current.buffer));
+            readVarLong(current.buffer);
+            current.lastFence += (int) unzigzag(readVarLong(current.buffer));
+        }
+        current.minTime = newest.minTime;
+        current.maxTime = newest.maxTime;
+        current.count = newest.count;
+        index.remove(index.size() - 1);
+        if (!current.hasRoom()) {
+            seal();
+        }
+    }
+
+    private static int decode(ByteBuffer block, int count, long fromMs, long toMs, RecordVisitor visitor) {
+        block.position(HEADER_SIZE);
+        long time = 0;
+        int lat = 0, lon = 0, fence = -1;
+        int visited = 0;
+        for (int i = 0; i < count; i++) {
+            time += unzigzag(readVarLong(block));
+            lat += (int) unzigzag(readVarLong(block));
+            lon += (int) unzigzag(readVarLong(block));
+            long stored = readVarLong(block);
+            int flags = (int) stored & ((1 << FLAG_BITS) - 1);
+            fence += (int) unzigzag(readVarLong(block));
+            if (time >= fromMs && time < toMs) {
+                boolean located = (flags & FLAG_NO_LOCATION) == 0;
+                visitor.visit(time, located ? lat / E6 : Double.NaN, located ? lon / E6 : Double.NaN,
+                        (int) (stored >>> FLAG_BITS), flags, fence);
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("History file truncated at " + position);
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
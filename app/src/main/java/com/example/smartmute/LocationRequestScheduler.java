@@ -0,0 +1,134 @@
+package com.example.smartmute;
+
+/**
+ * Decides how often, and at what power, the polling backend should ask for
+ * location. After each fix it takes the distance to the nearest fence edge,
+ * estimates the earliest time the device could reach it from recent speed,
+ * and asks for the next fix well before then:
+ *
+ *   far from every fence   low power, minutes apart (fixes other apps
+ *                           request are still accepted as they arrive)
+ *   approaching one        balanced, scaled to the time to crossing
+ *   right at an edge       high accuracy, every few seconds
+ *
+ * Pure Java so the policy can be tested on the JVM.
+ */
+final class LocationRequestScheduler {
+
+    enum Tier { PASSIVE, BALANCED, HIGH_ACCURACY }
+
+    static final class Plan {
+        final Tier tier;
+        final long intervalMs;
+
+        Plan(Tier tier, long intervalMs) {
+            this.tier = tier;
+            this.intervalMs = intervalMs;
+        }
+
+        @Override
+        public String toString() {
+            return tier + " every " + intervalMs / 1000 + "s";
+        }
+    }
+
+    // What the services used to request unconditionally; used until the first fix
+    static final Plan INITIAL_PLAN = new Plan(Tier.BALANCED, 30 * 1000L);
+
+    // Within this of an edge (after subtracting fix accuracy) we are at the edge
+    private static final double EDGE_METERS = 100.0;
+    private static final long EDGE_INTERVAL_MS = 10 * 1000L;
+
+    // Crossings further off than this are "far"
+    private static final long APPROACH_HORIZON_MS = 15 * 60 * 1000L;
+    private static final long BALANCED_MIN_INTERVAL_MS = 15 * 1000L;
+    private static final long BALANCED_MAX_INTERVAL_MS = 5 * 60 * 1000L;
+    // Capped so a user who sets off at driving speed is picked up in time
+    private static final long PASSIVE_MAX_INTERVAL_MS = 10 * 60 * 1000L;
+    // Longest polling fixes should be apart, with slack for one the provider delivers late
+    static final long MAX_FIX_GAP_MS = PASSIVE_MAX_INTERVAL_MS + PASSIVE_MAX_INTERVAL_MS / 2;
+
+    // Someone standing still can still start walking, and speed estimates lag
+    private static final double MIN_ASSUMED_SPEED = 1.5;
+    private static final double SPEED_HEADROOM = 1.5;
+    private static final int SPEED_SAMPLES = 4;
+
+    // Re-issuing the request costs a round trip; skip changes smaller than this
+    private static final double REISSUE_INTERVAL_CHANGE = 0.25;
+
+    private final double[] recentSpeeds = new double[SPEED_SAMPLES];
+    private int speedCursor;
+    private boolean hasPreviousFix;
+    private double previousLatitude, previousLongitude;
+    private long previousFixMs;
+
+    /**
+     * Plans the next request from this fix. {@code speed} is the fix's own
+     * speed in m/s, or NaN if it has none; {@code transitionPending} keeps
+     * fixes coming often enough for a dwell timer to complete.
+     */
+    Plan onFix(double latitude, double longitude, double accuracy, double speed, long elapsedRealtimeMs,
+               GeofenceIndex fences, boolean transitionPending, long dwellMs) {
+        recordSpeed(latitude, longitude, speed, elapsedRealtimeMs);
+        double assumedSpeed = Math.max(MIN_ASSUMED_SPEED, maxRecentSpeed() * SPEED_HEADROOM);
+        // Edges further than this all get the longest passive interval, so the search can stop there
+        double horizonMeters = accuracy + assumedSpeed * PASSIVE_MAX_INTERVAL_MS / 1000.0 * 2;
+        double distanceToBoundary = fences.distanceToNearestBoundary(latitude, longitude, horizonMeters);
+
+        Plan plan;
+        double distance = Math.max(0, distanceToBoundary - accuracy);
+        if (distance <= EDGE_METERS) {
+            plan = new Plan(Tier.HIGH_ACCURACY, EDGE_INTERVAL_MS);
+        } else {
+            double crossingMs = distance / assumedSpeed * 1000;
+            // Half the time to crossing leaves room for one late or missed fix
+            long intervalMs = (long) (crossingMs / 2);
+            if (crossingMs <= APPROACH_HORIZON_MS) {
+                plan = new Plan(Tier.BALANCED, clamp(intervalMs, BALANCED_MIN_INTERVAL_MS, BALANCED_MAX_INTERVAL_MS));
+            } else {
+                plan = new Plan(Tier.PASSIVE, clamp(intervalMs, BALANCED_MAX_INTERVAL_MS, PASSIVE_MAX_INTERVAL_MS));
+            }
+        }
+
+        if (transitionPending && plan.intervalMs > dwellMs) {
+            plan = new Plan(plan.tier == Tier.PASSIVE ? Tier.BALANCED : plan.tier, dwellMs);
+        }
+        return plan;
+    }
+
+    // Only worth a new request when the tier changes or the interval moves noticeably
+    static boolean shouldReissue(Plan current, Plan next) {
+        if (current.tier != next.tier) {
+            return true;
+        }
+        return Math.abs(next.intervalMs - current.intervalMs) > current.intervalMs * REISSUE_INTERVAL_CHANGE;
+    }
+
+    private void recordSpeed(double latitude, double longitude, double speed, long elapsedRealtimeMs) {
+        double observed = Double.isNaN(speed) ? 0 : speed;
+        if (hasPreviousFix && elapsedRealtimeMs > previousFixMs) {
+            // Displacement speed catches movement on fixes that carry no speed
+            double moved = GeofenceKernel.vincentyDistance(previousLatitude, previousLongitude, latitude, longitude);
+            observed = Math.max(observed, moved / ((elapsedRealtimeMs - previousFixMs) / 1000.0));
+        }
+        recentSpeeds[speedCursor] = observed;
+        speedCursor = (speedCursor + 1) % SPEED_SAMPLES;
+
+        hasPreviousFix = true;
+        previousLatitude = latitude;
+        previousLongitude = longitude;
+        previousFixMs = elapsedRealtimeMs;
+    }
+
+    private double maxRecentSpeed() {
+        double max = 0;
+        for (double speed : recentSpeeds) {
+            max = Math.max(max, speed);
+        }
+        return max;
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -1,10 +1,17 @@
 package com.example.smartmute;
 
 import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.database.Cursor;
 import android.location.Location;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.OpenableColumns;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -36,8 +43,13 @@ public class LocationsFragment extends Fragment {
     private SmartMuteDatabaseHelper databaseHelper;
     private FusedLocationProviderClient fusedLocationClient;
 
+    private static final String TAG = "LocationsFragment";
+    private static final int IMPORT_RULES_REQUEST = 2001;
+    private static final int EXPORT_RULES_REQUEST = 2002;
+
     private Button btnAddLocation, btnGetCurrentLocation, btnUseManualCoordinates;
-    private EditText etLocationName, etRadius, etLatitude, etLongitude;
+    private Button btnImportRules, btnExportRules;
+    private EditText etLocationName, etRadius, etPriority, etLatitude, etLongitude;
     private Spinner spinnerEnterProfile, spinnerExitProfile;
     private TextView tvCoordinates;
 
@@ -58,10 +70,71 @@ public class LocationsFragment extends Fragment {
         loadLocations();
         setupClickListeners();
         getCurrentLocation();
+        databaseHelper.addChangeListener(changeListener);
 
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        databaseHelper.removeChangeListener(changeListener);
+    }
+
+    // Refreshes only the row that changed instead of re-reading the whole table
+    private final DataChange.Listener changeListener = change -> {
+        if (change.isReload()) {
+            // A bulk write such as an import: one full reload instead of a query per row
+            if (change.affects(DataChange.Entity.PROFILE)) {
+                loadProfiles();
+            }
+            if (change.affects(DataChange.Entity.LOCATION)) {
+                loadLocations();
+            } else if (change.affects(DataChange.Entity.PROFILE)) {
+                locationsAdapter.notifyDataSetChanged();
+            }
+            return;
+        }
+        if (change.getEntity() == DataChange.Entity.PROFILE) {
+            loadProfiles();
+            locationsAdapter.notifyDataSetChanged();
+            return;
+        }
+        if (change.getEntity() != DataChange.Entity.LOCATION) {
+            return;
+        }
+
+        int position = findLocationPosition(change.getId());
+        if (change.getOperation() == DataChange.Operation.DELETED) {
+            if (position >= 0) {
+                locationsList.remove(position);
+                locationsAdapter.notifyItemRemoved(position);
+            }
+            return;
+        }
+
+        SmartLocation location = databaseHelper.getLocation(change.getId());
+        if (location == null) {
+            return;
+        }
+        if (position >= 0) {
+            locationsList.set(position, location);
+            locationsAdapter.notifyItemChanged(position);
+        } else {
+            locationsList.add(location);
+            locationsAdapter.notifyItemInserted(locationsList.size() - 1);
+        }
+    };
+
+    private int findLocationPosition(int locationId) {
+        for (int i = 0; i < locationsList.size(); i++) {
+            if (locationsList.get(i).getId() == locationId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     private void initializeViews(View view) {
         locationsRecyclerView = view.findViewById(R.id.locations_recycler_view);
         btnAddLocation = view.findViewById(R.id.btn_add_location);
@@ -69,11 +142,14 @@ public class LocationsFragment extends Fragment {
         btnUseManualCoordinates = view.findViewById(R.id.btn_use_manual);
         etLocationName = view.findViewById(R.id.et_location_name);
         etRadius = view.findViewById(R.id.et_radius);
+        etPriority = view.findViewById(R.id.et_priority);
         etLatitude = view.findViewById(R.id.et_latitude);
         etLongitude = view.findViewById(R.id.et_longitude);
         spinnerEnterProfile = view.findViewById(R.id.spinner_enter_profile);
         spinnerExitProfile = view.findViewById(R.id.spinner_exit_profile);
         tvCoordinates = view.findViewById(R.id.tv_coordinates);
+        btnImportRules = view.findViewById(R.id.btn_import_rules);
+        btnExportRules = view.findViewById(R.id.btn_export_rules);
 
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(requireActivity());
 
@@ -83,7 +159,7 @@ public class LocationsFragment extends Fragment {
     }
 
     private void setupDatabase() {
-        databaseHelper = new SmartMuteDatabaseHelper(requireContext());
+        databaseHelper = SmartMuteDatabaseHelper.getInstance(requireContext());
     }
 
     private void setupRecyclerView() {
@@ -132,6 +208,8 @@ public class LocationsFragment extends Fragment {
         btnUseManualCoordinates.setOnClickListener(v -> toggleManualCoordinates());
 
         btnAddLocation.setOnClickListener(v -> addNewLocation());
+        btnImportRules.setOnClickListener(v -> pickImportFile());
+        btnExportRules.setOnClickListener(v -> pickExportFile());
     }
 
     private void toggleManualCoordinates() {
@@ -254,12 +332,12 @@ public class LocationsFragment extends Fragment {
         location.setProfileId(enterProfile.getId());
         location.setRevertProfileId(exitProfile.getId());
         location.setEnabled(true);
+        location.setPriority(parsePriority());
 
         long id = databaseHelper.addLocation(location);
         if (id != -1) {
             Toast.makeText(requireContext(), "Location rule added successfully", Toast.LENGTH_SHORT).show();
             clearForm();
-            loadLocations();
 
             // Start location monitoring service
             startLocationMonitoringService();
@@ -268,6 +346,15 @@ public class LocationsFragment extends Fragment {
         }
     }
 
+    // Blank or unparsable means the default, which ranks overlaps by size alone
+    private int parsePriority() {
+        try {
+            return Integer.parseInt(etPriority.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     private void startLocationMonitoringService() {
         try {
             Intent serviceIntent = new Intent(requireContext(), LocationMonitoringService.class);
@@ -280,6 +367,7 @@ public class LocationsFragment extends Fragment {
     private void clearForm() {
         etLocationName.setText("");
         etRadius.setText("");
+        etPriority.setText("0");
         etLatitude.setText("");
         etLongitude.setText("");
         tvCoordinates.setText("No coordinates selected");
@@ -300,6 +388,77 @@ public class LocationsFragment extends Fragment {
         }
     }
 
+    // ==================== IMPORT / EXPORT ====================
+
+    private void pickImportFile() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{
+                "text/csv", "text/comma-separated-values", "text/plain", "application/json"});
+        startActivityForResult(intent, IMPORT_RULES_REQUEST);
+    }
+
+    private void pickExportFile() {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        // JSON is the only format that keeps polygons and Wi-Fi places
+        intent.setType("application/json");
+        intent.putExtra(Intent.EXTRA_TITLE, "smartmute-rules.json");
+        startActivityForResult(intent, EXPORT_RULES_REQUEST);
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != Activity.RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        if (requestCode == IMPORT_RULES_REQUEST) {
+            runImportExport(data.getData(), true);
+        } else if (requestCode == EXPORT_RULES_REQUEST) {
+            runImportExport(data.getData(), false);
+        }
+    }
+
+    // Off the main thread; the list refreshes from the import's single change event
+    private void runImportExport(Uri uri, boolean isImport) {
+        Context context = requireContext().getApplicationContext();
+        RuleImportExport.Format format = RuleImportExport.Format.fromFileName(displayName(context, uri));
+        Thread worker = new Thread(() -> {
+            String message;
+            try {
+                RuleImportExport importExport = new RuleImportExport(context);
+                if (isImport) {
+                    message = "Imported " + importExport.importRules(uri, format);
+                } else {
+                    importExport.exportRules(uri, format);
+                    message = "Rules exported";
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Rule " + (isImport ? "import" : "export") + " failed: " + e.getMessage());
+                message = (isImport ? "Import" : "Export") + " failed: " + e.getMessage();
+            }
+            String result = message;
+            new Handler(Looper.getMainLooper()).post(() ->
+                    Toast.makeText(context, result, Toast.LENGTH_LONG).show());
+        }, "SmartMuteRuleImportExport");
+        worker.start();
+    }
+
+    private static String displayName(Context context, Uri uri) {
+        Cursor cursor = context.getContentResolver().query(uri,
+                new String[]{OpenableColumns.DISPLAY_NAME}, null, null, null);
+        if (cursor == null) {
+            return uri.getLastPathSegment();
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : uri.getLastPathSegment();
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         if (requestCode == 1001) {
@@ -311,14 +470,6 @@ public class LocationsFragment extends Fragment {
         }
     }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        if (databaseHelper != null) {
-            databaseHelper.close();
-        }
-    }
-
     // Locations Adapter
     private class LocationsAdapter extends RecyclerView.Adapter<LocationsAdapter.LocationViewHolder> {
         private List<SmartLocation> locations;
@@ -362,9 +513,16 @@ public class LocationsFragment extends Fragment {
 
             public void bind(SmartLocation location) {
                 tvName.setText(location.getName());
-                tvCoordinates.setText(String.format("Lat: %.6f, Lng: %.6f",
-                        location.getLatitude(), location.getLongitude()));
-                tvRadius.setText("Radius: " + location.getRadius() + "m");
+                String priority = location.getPriority() != 0 ? "  •  Priority " + location.getPriority() : "";
+                if (location.isWifiPlace()) {
+                    // No circle; entered by connecting to one of these networks
+                    tvCoordinates.setText("Wi-Fi: " + String.join(", ", location.getWifiNetworks()));
+                    tvRadius.setText("Wi-Fi place" + priority);
+                } else {
+                    tvCoordinates.setText(String.format("Lat: %.6f, Lng: %.6f",
+                            location.getLatitude(), location.getLongitude()));
+                    tvRadius.setText("Radius: " + location.getRadius() + "m" + priority);
+                }
 
                 // Get profile names
                 Profile enterProfile = databaseHelper.getProfile(location.getProfileId());
@@ -389,6 +547,7 @@ public class LocationsFragment extends Fragment {
                 // Populate form with location data for editing
                 etLocationName.setText(location.getName());
                 etRadius.setText(String.valueOf(location.getRadius()));
+                etPriority.setText(String.valueOf(location.getPriority()));
                 etLatitude.setText(String.valueOf(location.getLatitude()));
                 etLongitude.setText(String.valueOf(location.getLongitude()));
 
@@ -423,6 +582,7 @@ public class LocationsFragment extends Fragment {
             private void updateLocation(SmartLocation location) {
                 location.setName(etLocationName.getText().toString().trim());
                 location.setRadius(Integer.parseInt(etRadius.getText().toString().trim()));
+                location.setPriority(parsePriority());
                 location.setLatitude(Double.parseDouble(etLatitude.getText().toString().trim()));
                 location.setLongitude(Double.parseDouble(etLongitude.getText().toString().trim()));
 
@@ -441,7 +601,6 @@ public class LocationsFragment extends Fragment {
                 if (updated) {
                     Toast.makeText(requireContext(), "Location updated", Toast.LENGTH_SHORT).show();
                     clearForm();
-                    loadLocations();
                     // Reset add button
                     btnAddLocation.setText("Add Location Rule");
                     btnAddLocation.setOnClickListener(v -> addNewLocation());
@@ -454,8 +613,6 @@ public class LocationsFragment extends Fragment {
             private void deleteLocation(SmartLocation location) {
                 boolean deleted = databaseHelper.deleteLocation(location.getId());
                 if (deleted) {
-                    locations.remove(location);
-                    notifyDataSetChanged();
                     Toast.makeText(requireContext(), "Location deleted", Toast.LENGTH_SHORT).show();
 
                     // Restart location monitoring service
@@ -467,7 +624,6 @@ public class LocationsFragment extends Fragment {
                 location.setEnabled(!location.isEnabled());
                 boolean updated = databaseHelper.updateLocation(location);
                 if (updated) {
-                    notifyDataSetChanged();
                     Toast.makeText(requireContext(),
                             "Location " + (location.isEnabled() ? "enabled" : "disabled"),
                             Toast.LENGTH_SHORT).show();
@@ -0,0 +1,221 @@
+package com.example.smartmute;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the logs table bounded. Raw events older than the retention window
+ * are folded into daily_stats (count and paired duration per event type per
+ * day), deleted in small chunks so no single transaction holds the write lock
+ * for long, and the freed pages are handed back with incremental vacuum.
+ */
+public class LogMaintenance {
+    private static final String TAG = "LogMaintenance";
+    private static final String PREFS_NAME = "SmartMutePrefs";
+    private static final String PREF_LAST_RUN = "last_log_maintenance";
+
+    public static final int DEFAULT_RETENTION_DAYS = 30;
+    private static final long RUN_INTERVAL_MS = 24 * 60 * 60 * 1000L;
+    private static final int CHUNK_SIZE = 500;
+    private static final int VACUUM_PAGES_PER_RUN = 2000;
+
+    // End events whose duration is measured from the matching start event
+    private static final Map<String, String> DURATION_PAIRS = new HashMap<>();
+    static {
+        DURATION_PAIRS.put("GEOFENCE_EXIT", "GEOFENCE_ENTER");
+        DURATION_PAIRS.put("SCHEDULE_END", "SCHEDULE_START");
+    }
+
+    private final Context context;
+    private final SmartMuteDatabaseHelper databaseHelper;
+
+    public LogMaintenance(Context context) {
+        this.context = context.getApplicationContext();
+        this.databaseHelper = SmartMuteDatabaseHelper.getInstance(context);
+    }
+
+    // Runs on a background thread at most once a day
+    public void runIfDueAsync() {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long lastRun = prefs.getLong(PREF_LAST_RUN, 0);
+        if (System.currentTimeMillis() - lastRun < RUN_INTERVAL_MS) {
+            return;
+        }
+
+        Thread worker = new Thread(() -> {
+            run(DEFAULT_RETENTION_DAYS);
+            prefs.edit().putLong(PREF_LAST_RUN, System.currentTimeMillis()).apply();
+        }, "SmartMuteLogMaintenance");
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    public void run(int retentionDays) {
+        try {
+            // Make sure nothing still queued in memory is left behind by the rollup
+            databaseHelper.flushLogs();
+
+            int rolledUp = rollUpAndDelete(retentionDays);
+            reclaimSpace();
+            Log.i(TAG, "Rolled up " + rolledUp + " log events older than " + retentionDays + " days");
+        } catch (Exception e) {
+            Log.e(TAG, "Log maintenance failed: " + e.getMessage());
+        }
+    }
+
+    private int rollUpAndDelete(int retentionDays) {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        // Fixed once, so every chunk's rollup and delete cover exactly the same rows
+        String cutoff = DatabaseUtils.stringForQuery(db, "SELECT datetime('now', ?)",
+                new String[]{"-" + retentionDays + " days"});
+        Map<String, Long> openStarts = new HashMap<>();
+        long lastId = 0;
+        int total = 0;
+
+        SQLiteStatement ensureRow = db.compileStatement("INSERT OR IGNORE INTO "
+                + SmartMuteDatabaseHelper.TABLE_DAILY_STATS + " ("
+                + SmartMuteDatabaseHelper.KEY_DAY + ", " + SmartMuteDatabaseHelper.KEY_EVENT_TYPE
+                + ") VALUES (?, ?)");
+        SQLiteStatement addCounts = db.compileStatement("UPDATE " + SmartMuteDatabaseHelper.TABLE_DAILY_STATS
+                + " SET " + SmartMuteDatabaseHelper.KEY_EVENT_COUNT + " = " + SmartMuteDatabaseHelper.KEY_EVENT_COUNT + " + ?, "
+                + SmartMuteDatabaseHelper.KEY_TOTAL_DURATION + " = " + SmartMuteDatabaseHelper.KEY_TOTAL_DURATION + " + ?"
+                + " WHERE " + SmartMuteDatabaseHelper.KEY_DAY + " = ? AND "
+                + SmartMuteDatabaseHelper.KEY_EVENT_TYPE + " = ?");
+        SQLiteStatement deleteChunk = db.compileStatement("DELETE FROM " + SmartMuteDatabaseHelper.TABLE_LOGS
+                + " WHERE " + SmartMuteDatabaseHelper.KEY_ID + " > ? AND " + SmartMuteDatabaseHelper.KEY_ID + " <= ?"
+                + " AND " + SmartMuteDatabaseHelper.KEY_CREATED_AT + " < ?");
+
+        try {
+            while (true) {
+                Map<String, long[]> buckets = new HashMap<>();
+                long firstId = lastId;
+                int rows = 0;
+
+                Cursor cursor = db.rawQuery("SELECT " + SmartMuteDatabaseHelper.KEY_ID + ", "
+                                + SmartMuteDatabaseHelper.KEY_EVENT_TYPE + ", "
+                                + "date(" + SmartMuteDatabaseHelper.KEY_CREATED_AT + "), "
+                                + "CAST(strftime('%s', " + SmartMuteDatabaseHelper.KEY_CREATED_AT + ") AS INTEGER)"
+                                + " FROM " + SmartMuteDatabaseHelper.TABLE_LOGS
+                                + " WHERE " + SmartMuteDatabaseHelper.KEY_ID + " > ? AND "
+                                + SmartMuteDatabaseHelper.KEY_CREATED_AT + " < ?"
+                                + " ORDER BY " + SmartMuteDatabaseHelper.KEY_ID + " LIMIT " + CHUNK_SIZE,
+                        new String[]{String.valueOf(lastId), cutoff});
+                try {
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getLong(0);
+                        String eventType = cursor.isNull(1) ? "UNKNOWN" : cursor.getString(1);
+                        String day = cursor.isNull(2) ? "unknown" : cursor.getString(2);
+                        long timestamp = cursor.getLong(3);
+
+                        long duration = 0;
+                        String startType = DURATION_PAIRS.get(eventType);
+                        if (startType != null) {
+                            Long start = openStarts.remove(startType);
+                            if (start != null && timestamp >= start) {
+                                duration = timestamp - start;
+                            }
+                        } else if (DURATION_PAIRS.containsValue(eventType)) {
+                            openStarts.put(eventType, timestamp);
+                        }
+
+                        String key = day + '\n' + eventType;
+                        long[] bucket = buckets.get(key);
+                        if (bucket == null) {
+                            bucket = new long[2];
+                            buckets.put(key, bucket);
+                        }
+                        bucket[0]++;
+                        bucket[1] += duration;
+                        rows++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                if (rows == 0) {
+                    break;
+                }
+
+                // Rollup and delete commit together, so a crash never counts a row twice
+                db.beginTransactionNonExclusive();
+                try {
+                    for (Map.Entry<String, long[]> entry : buckets.entrySet()) {
+                        int split = entry.getKey().indexOf('\n');
+                        String day = entry.getKey().substring(0, split);
+                        String eventType = entry.getKey().substring(split + 1);
+
+                        ensureRow.bindString(1, day);
+                        ensureRow.bindString(2, eventType);
+                        ensureRow.executeInsert();
+
+                        addCounts.bindLong(1, entry.getValue()[0]);
+                        addCounts.bindLong(2, entry.getValue()[1]);
+                        addCounts.bindString(3, day);
+                        addCounts.bindString(4, eventType);
+                        addCounts.executeUpdateDelete();
+                    }
+
+                    deleteChunk.bindLong(1, firstId);
+                    deleteChunk.bindLong(2, lastId);
+                    deleteChunk.bindString(3, cutoff);
+                    deleteChunk.executeUpdateDelete();
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                total += rows;
+                if (rows < CHUNK_SIZE) {
+                    break;
+                }
+            }
+        } finally {
+            ensureRow.close();
+            addCounts.close();
+            deleteChunk.close();
+        }
+        return total;
+    }
+
+    private void reclaimSpace() {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        // Databases created before retention existed use auto_vacuum=NONE and need
+        // one full VACUUM to switch over; after that freed pages are trimmed incrementally
+        if (queryLong(db, "PRAGMA auto_vacuum") != 2) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            Log.i(TAG, "Converted database to incremental auto-vacuum");
+            return;
+        }
+
+        long freePages = queryLong(db, "PRAGMA freelist_count");
+        if (freePages > 0) {
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_PAGES_PER_RUN + ")", null);
+            try {
+                // The pragma only runs when the cursor is stepped
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            Log.d(TAG, "Incremental vacuum released up to " + Math.min(freePages, VACUUM_PAGES_PER_RUN) + " pages");
+        }
+    }
+
+    private long queryLong(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -95,6 +95,9 @@ public class MainActivity extends AppCompatActivity {
 
         setContentView(R.layout.activity_main);
 
+        // Schedule edits re-register their alarms through the database change feed
+        AlarmUtils.startScheduleSync(this);
+
         // Request permissions first
         checkXiaomiPermissions();
         requestRequiredPermissions();
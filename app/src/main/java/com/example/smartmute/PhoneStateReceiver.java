@@ -7,49 +7,14 @@ import android.media.AudioManager;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 import android.widget.Toast;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Date;
 
 public class PhoneStateReceiver extends BroadcastReceiver {
 
     private static final String TAG = "PhoneStateReceiver";
 
-    // Track call timestamps for each emergency contact
-    private static final Map<String, CallTracker> callTrackers = new HashMap<>();
     private static String lastIncomingNumber = "";
 
-    private static class CallTracker {
-        private int callCount = 0;
-        private long firstCallTime = 0;
-
-        public void addCall() {
-            long currentTime = System.currentTimeMillis();
-            if (callCount == 0) {
-                firstCallTime = currentTime;
-            }
-            callCount++;
-        }
-
-        public boolean shouldTrigger(int threshold, int windowMinutes) {
-            long currentTime = System.currentTimeMillis();
-            long windowMillis = windowMinutes * 60 * 1000L;
-
-            // Reset if outside time window
-            if (currentTime - firstCallTime > windowMillis) {
-                callCount = 0;
-                firstCallTime = 0;
-                return false;
-            }
-
-            return callCount >= threshold;
-        }
-
-        public void reset() {
-            callCount = 0;
-            firstCallTime = 0;
-        }
-    }
-
     @Override
     public void onReceive(Context context, Intent intent) {
         if (intent == null || !TelephonyManager.ACTION_PHONE_STATE_CHANGED.equals(intent.getAction())) {
@@ -115,57 +80,47 @@ public class PhoneStateReceiver extends BroadcastReceiver {
 
     private void processIncomingCall(Context context, String incomingNumber) {
         try {
-            SmartMuteDatabaseHelper databaseHelper = new SmartMuteDatabaseHelper(context);
+            SmartMuteDatabaseHelper databaseHelper = SmartMuteDatabaseHelper.getInstance(context);
 
-            // Check if this number is an emergency contact
-            boolean isEmergencyContact = databaseHelper.isEmergencyContact(incomingNumber);
+            // One indexed lookup decides whether this is an emergency contact
+            EmergencyContact contact = databaseHelper.getEmergencyContactByPhone(incomingNumber);
 
-            if (isEmergencyContact) {
+            if (contact != null) {
                 Log.i(TAG, "Emergency contact calling: " + incomingNumber);
 
-                // Get emergency contact details
-                EmergencyContact contact = databaseHelper.getEmergencyContactByPhone(incomingNumber);
-                if (contact != null && contact.isRingOverride()) {
+                if (contact.isRingOverride()) {
                     handleEmergencyCall(context, contact, incomingNumber);
                 } else {
-                    Log.w(TAG, "Emergency contact not found or ring override disabled for: " + incomingNumber);
+                    Log.w(TAG, "Ring override disabled for: " + incomingNumber);
                 }
             } else {
                 Log.d(TAG, "Not an emergency contact: " + incomingNumber);
             }
 
-            databaseHelper.close();
-
         } catch (Exception e) {
             Log.e(TAG, "Error processing incoming call: " + e.getMessage());
         }
     }
 
     private void handleEmergencyCall(Context context, EmergencyContact contact, String incomingNumber) {
-        String normalizedNumber = normalizePhoneNumber(incomingNumber);
+        SmartMuteDatabaseHelper databaseHelper = SmartMuteDatabaseHelper.getInstance(context);
 
-        // Get or create tracker for this number
-        CallTracker tracker = callTrackers.get(normalizedNumber);
-        if (tracker == null) {
-            tracker = new CallTracker();
-            callTrackers.put(normalizedNumber, tracker);
-        }
-
-        // Add this call to tracker
-        tracker.addCall();
+        // Calls are counted in the database so a burst survives the receiver's process being killed
+        databaseHelper.logCallEvent(incomingNumber, new Date());
+        int callCount = databaseHelper.getRecentCallCount(incomingNumber, contact.getWindowMinutes());
 
         Log.d(TAG, String.format("Emergency call #%d from %s (threshold: %d in %d min)",
-                tracker.callCount, contact.getName(), contact.getCallCountThreshold(), contact.getWindowMinutes()));
+                callCount, contact.getName(), contact.getCallCountThreshold(), contact.getWindowMinutes()));
 
         // Check if emergency condition is met
-        if (tracker.shouldTrigger(contact.getCallCountThreshold(), contact.getWindowMinutes())) {
+        if (callCount >= contact.getCallCountThreshold()) {
             Log.i(TAG, "EMERGENCY OVERRIDE TRIGGERED for: " + contact.getName());
 
             // Trigger emergency override
             triggerEmergencyOverride(context, contact);
 
-            // Reset tracker after triggering
-            tracker.reset();
+            // Start counting afresh after triggering
+            databaseHelper.clearCallEvents(incomingNumber);
 
             // Log the event
             logEmergencyEvent(context, contact);
@@ -230,18 +185,11 @@ public class PhoneStateReceiver extends BroadcastReceiver {
 
     private void logEmergencyEvent(Context context, EmergencyContact contact) {
         try {
-            SmartMuteDatabaseHelper databaseHelper = new SmartMuteDatabaseHelper(context);
+            SmartMuteDatabaseHelper databaseHelper = SmartMuteDatabaseHelper.getInstance(context);
             databaseHelper.addLog("EMERGENCY_OVERRIDE",
                     "Emergency call from: " + contact.getName() + " (" + contact.getPhoneNumber() + ")");
-            databaseHelper.close();
         } catch (Exception e) {
             Log.e(TAG, "Failed to log emergency event: " + e.getMessage());
         }
     }
-
-    private String normalizePhoneNumber(String phoneNumber) {
-        if (phoneNumber == null) return "";
-        // Remove all non-digit characters except +
-        return phoneNumber.replaceAll("[^\\d+]", "");
-    }
 }
\ No newline at end of file
@@ -0,0 +1,339 @@
+package com.example.smartmute;
+
+import android.Manifest;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GoogleApiAvailability;
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofenceStatusCodes;
+import com.google.android.gms.location.GeofencingClient;
+import com.google.android.gms.location.GeofencingEvent;
+import com.google.android.gms.location.GeofencingRequest;
+import com.google.android.gms.location.LocationServices;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Registers the active locations with the OS geofencing API, which watches
+ * them in low-power hardware instead of keeping a location subscription
+ * open. Events come back as a broadcast with {@link #ACTION_GEOFENCE_EVENT},
+ * which GeofenceEventReceiver forwards through the LocationEngine.
+ *
+ * The platform's loitering delay and notification responsiveness are set
+ * from the state machine's dwell times, so transitions feel the same as with
+ * polling. If registration fails, the platform withdraws geofencing (location
+ * turned off), the rules outgrow its per-app limit or a polygon fence appears
+ * (the platform only knows circles), this hands over to the polling backend
+ * for the rest of the service's life. Wi-Fi places are not registered; they
+ * have no circle and WifiPlaceMonitor handles them.
+ *
+ * Registration bookkeeping stays on the main thread, where the engine and
+ * the Task callbacks call in; transitions are applied on the evaluation thread.
+ * Each event is appended to the location history as a transition, at the
+ * location that triggered it when the platform supplies one.
+ */
+final class PlatformGeofenceBackend implements GeofenceBackend {
+    private static final String TAG = "PlatformGeofenceBackend";
+
+    // Per-app limit of the platform geofencing API
+    static final int MAX_FENCES = 100;
+
+    // Covers the hand-off from the receiver to the evaluation thread
+    private static final long EVENT_LEASE_MS = 10 * 1000L;
+
+    private final Context context;
+    private final Supplier<RuleSnapshot> rules;
+    private final GeofenceStateMachine state;
+    private final Handler evaluation;
+    private final GeofenceBackend fallback;
+    private final LocationHistoryStore history;
+
+    private GeofencingClient geofencingClient;
+    private PendingIntent pendingIntent;
+    private boolean started;
+    private boolean usingFallback;
+
+    PlatformGeofenceBackend(Context context, Supplier<RuleSnapshot> rules, GeofenceStateMachine state,
+                            Handler evaluation, GeofenceBackend fallback, LocationHistoryStore history) {
+        this.context = context;
+        this.rules = rules;
+        this.state = state;
+        this.evaluation = evaluation;
+        this.fallback = fallback;
+        this.history = history;
+    }
+
+    static boolean isSupported(Context context, RuleSnapshot snapshot) {
+        if (GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(context) != ConnectionResult.SUCCESS) {
+            return false;
+        }
+        // Geofencing needs fine location, and background location to fire while we're not in front
+        if (context.checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                && context.checkSelfPermission(Manifest.permission.ACCESS_BACKGROUND_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            return false;
+        }
+        // The index holds just the geographic fences
+        return snapshot.getGeofenceIndex().size() <= MAX_FENCES && !hasPolygon(snapshot);
+    }
+
+    private static boolean hasPolygon(RuleSnapshot snapshot) {
+        for (SmartLocation location : snapshot.getActiveLocations()) {
+            if (location.isPolygon()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void start() {
+        if (usingFallback) {
+            fallback.start();
+            return;
+        }
+        if (started) {
+            return;
+        }
+        geofencingClient = LocationServices.getGeofencingClient(context);
+        started = true;
+
+        List<Geofence> geofences = new ArrayList<>();
+        for (SmartLocation location : rules.get().getActiveLocations()) {
+            if (!location.isWifiPlace()) {
+                geofences.add(toGeofence(location));
+            }
+        }
+        if (geofences.isEmpty()) {
+            Log.d(TAG, "No active locations configured");
+            return;
+        }
+        addGeofences(geofences);
+    }
+
+    @Override
+    public void onRulesChanged(DataChange change) {
+        if (usingFallback) {
+            fallback.onRulesChanged(change);
+            return;
+        }
+        if (!started) {
+            return;
+        }
+
+        RuleSnapshot snapshot = rules.get();
+        if (snapshot.getGeofenceIndex().size() > MAX_FENCES) {
+            fallBack("more than " + MAX_FENCES + " active locations");
+            return;
+        }
+
+        // Every changed fence goes into one add and one remove call, however many rows changed
+        List<Geofence> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        List<Integer> gone = new ArrayList<>();
+        for (int id : change.getIds(DataChange.Entity.LOCATION)) {
+            SmartLocation location = snapshot.getActiveLocation(id);
+            if (location != null && location.isPolygon()) {
+                fallBack("polygon location " + location.getId());
+                return;
+            }
+            if (location == null) {
+                removed.add(String.valueOf(id));
+                gone.add(id);
+            } else if (location.isWifiPlace()) {
+                // May have been a circle before; entering and leaving it is WifiPlaceMonitor's job now
+                removed.add(String.valueOf(id));
+            } else {
+                // Re-adding under the same request id replaces the old registration
+                added.add(toGeofence(location));
+            }
+        }
+
+        if (!removed.isEmpty()) {
+            geofencingClient.removeGeofences(removed);
+        }
+        if (!added.isEmpty()) {
+            addGeofences(added);
+        }
+        if (!gone.isEmpty()) {
+            // Nothing will report leaving a fence that no longer exists
+            long now = SystemClock.elapsedRealtime();
+            evaluation.post(() -> {
+                for (int id : gone) {
+                    state.applyTransition(id, false, now, snapshot);
+                }
+                recordTransition(null, state.getActiveFenceId(), history);
+            });
+        }
+    }
+
+    @Override
+    public boolean handleIntent(Intent intent) {
+        if (!ACTION_GEOFENCE_EVENT.equals(intent.getAction())) {
+            return false;
+        }
+        if (usingFallback) {
+            // Delivered before the registrations were withdrawn
+            return true;
+        }
+
+        GeofencingEvent event = GeofencingEvent.fromIntent(intent);
+        if (event == null) {
+            return true;
+        }
+        if (event.hasError()) {
+            Log.e(TAG, "Geofencing error: " + GeofenceStatusCodes.getStatusCodeString(event.getErrorCode()));
+            if (event.getErrorCode() == GeofenceStatusCodes.GEOFENCE_NOT_AVAILABLE) {
+                // The platform has dropped every registration
+                fallBack("geofencing not available");
+            }
+            return true;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        // The receiver's own wake lock ends when onReceive returns, before this runs
+        WakeLockManager.Lease lease = WakeLockManager.getInstance(context)
+                .acquire(WakeLockManager.SUBSYSTEM_GEOFENCE_EVENT, EVENT_LEASE_MS);
+        evaluation.post(() -> {
+            try {
+                applyTransitions(event, state, rules.get(), now);
+                recordTransition(event, state.getActiveFenceId(), history);
+            } finally {
+                lease.close();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Applies a geofence event delivered while no backend is running: the
+     * registrations outlive the process, so the platform can wake us with
+     * nothing subscribed. The caller must be the only thread touching the
+     * state machine. Returns the event applied, for the history, or null.
+     */
+    static GeofencingEvent handleStoppedIntent(Intent intent, GeofenceStateMachine state, RuleSnapshot snapshot) {
+        GeofencingEvent event = GeofencingEvent.fromIntent(intent);
+        if (event == null) {
+            return null;
+        }
+        if (event.hasError()) {
+            Log.e(TAG, "Geofencing error while stopped: "
+                    + GeofenceStatusCodes.getStatusCodeString(event.getErrorCode()));
+            return null;
+        }
+        applyTransitions(event, state, snapshot, SystemClock.elapsedRealtime());
+        return event;
+    }
+
+    /**
+     * Appends the transitions just applied to the history, after which
+     * activeFenceId is active. The location is the event's triggering one,
+     * if it has any; {@code event} and {@code history} may be null.
+     */
+    static void recordTransition(GeofencingEvent event, int activeFenceId, LocationHistoryStore history) {
+        if (history == null) {
+            return;
+        }
+        Location location = event != null ? event.getTriggeringLocation() : null;
+        try {
+            if (location != null) {
+                history.appendTransition(System.currentTimeMillis(), location.getLatitude(),
+                        location.getLongitude(), location.getAccuracy(), activeFenceId);
+            } else {
+                history.appendTransition(System.currentTimeMillis(), Double.NaN, Double.NaN, 0, activeFenceId);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing location history: " + e.getMessage());
+        }
+    }
+
+    private static void applyTransitions(GeofencingEvent event, GeofenceStateMachine state, RuleSnapshot snapshot,
+                                         long now) {
+        boolean inside = event.getGeofenceTransition() != Geofence.GEOFENCE_TRANSITION_EXIT;
+        for (Geofence geofence : event.getTriggeringGeofences()) {
+            try {
+                state.applyTransition(Integer.parseInt(geofence.getRequestId()), inside, now, snapshot);
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Unexpected geofence id: " + geofence.getRequestId());
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (started && !usingFallback) {
+            geofencingClient.removeGeofences(pendingIntent());
+            Log.d(TAG, "Geofences removed");
+        }
+        started = false;
+        fallback.stop();
+    }
+
+    private void addGeofences(List<Geofence> geofences) {
+        GeofencingRequest request = new GeofencingRequest.Builder()
+                // Settle fences we are already in or out of at registration time
+                .setInitialTrigger(GeofencingRequest.INITIAL_TRIGGER_DWELL | GeofencingRequest.INITIAL_TRIGGER_EXIT)
+                .addGeofences(geofences)
+                .build();
+        geofencingClient.addGeofences(request, pendingIntent())
+                .addOnSuccessListener(unused -> Log.d(TAG, "Registered " + geofences.size() + " geofences"))
+                .addOnFailureListener(e -> fallBack("registration failed: " + e.getMessage()));
+    }
+
+    private void fallBack(String reason) {
+        if (usingFallback) {
+            return;
+        }
+        Log.w(TAG, "Falling back to polling: " + reason);
+        usingFallback = true;
+        if (geofencingClient != null) {
+            geofencingClient.removeGeofences(pendingIntent());
+        }
+        if (started) {
+            try {
+                fallback.start();
+            } catch (SecurityException e) {
+                Log.e(TAG, "SecurityException starting polling fallback: " + e.getMessage());
+            }
+        }
+    }
+
+    private PendingIntent pendingIntent() {
+        if (pendingIntent == null) {
+            Intent intent = new Intent(context, GeofenceEventReceiver.class).setAction(ACTION_GEOFENCE_EVENT);
+            int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                // The platform fills in the event extras
+                flags |= PendingIntent.FLAG_MUTABLE;
+            }
+            pendingIntent = PendingIntent.getBroadcast(context, 0, intent, flags);
+        }
+        return pendingIntent;
+    }
+
+    private static Geofence toGeofence(SmartLocation location) {
+        return new Geofence.Builder()
+                .setRequestId(String.valueOf(location.getId()))
+                .setCircularRegion(location.getLatitude(), location.getLongitude(), location.getRadius())
+                .setExpirationDuration(Geofence.NEVER_EXPIRE)
+                .setTransitionTypes(Geofence.GEOFENCE_TRANSITION_DWELL | Geofence.GEOFENCE_TRANSITION_EXIT)
+                .setLoiteringDelay((int) GeofenceStateMachine.DEFAULT_ENTER_DWELL_MS)
+                .setNotificationResponsiveness((int) GeofenceStateMachine.DEFAULT_EXIT_DWELL_MS)
+                .build();
+    }
+}
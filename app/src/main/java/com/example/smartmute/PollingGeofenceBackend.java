@@ -0,0 +1,306 @@
+package com.example.smartmute;
+
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationAvailability;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.location.Priority;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates fences in-app against a fused location subscription whose
+ * interval and priority LocationRequestScheduler adapts to how close the
+ * nearest fence edge is. Used where platform geofencing isn't available, and
+ * as a stand-in for it since {@link #onFix} can be driven directly.
+ *
+ * Fixes are delivered straight to the evaluation thread and evaluated by
+ * FixEvaluator, every fix of a batch in turn, so the path between them is
+ * checked too. The location request is only reconsidered after the last fix
+ * of a batch.
+ *
+ * Every fix is also appended to the location history, tagged with the
+ * fence active after it; the history never asks for fixes of its own.
+ *
+ * The location subscription is only open while there is a geographic fence
+ * to watch; with nothing but Wi-Fi places configured no fix is requested.
+ *
+ * A fix whose accuracy circle straddles a fence edge decides nothing for that
+ * fence. Instead, unless the running request is already high accuracy, one
+ * precise fix is asked for to settle it.
+ */
+final class PollingGeofenceBackend implements GeofenceBackend {
+    private static final String TAG = "PollingGeofenceBackend";
+
+    // Evaluating one fix takes milliseconds; this only bounds a stuck one
+    private static final long EVALUATION_LEASE_MS = 10 * 1000L;
+    // Where accuracy never improves (deep indoors) this bounds the GPS use
+    private static final long MIN_PRECISE_FIX_INTERVAL_MS = 60 * 1000L;
+    // The batching the services always asked for, kept while approaching a fence
+    private static final long MAX_WAIT_MS = 60 * 1000L;
+
+    private final Context context;
+    private final Supplier<RuleSnapshot> rules;
+    private final GeofenceStateMachine state;
+    private final Handler evaluation;
+    private final WakeLockManager wakeLocks;
+    private final FixEvaluator evaluator;
+    private final LocationHistoryStore history;
+    // Read by start() on the main thread, replaced on the evaluation thread
+    private volatile LocationRequestScheduler.Plan currentPlan = LocationRequestScheduler.INITIAL_PLAN;
+
+    private FusedLocationProviderClient fusedLocationClient;
+    private boolean started;
+    // Location updates requested; read on the evaluation thread
+    private volatile boolean subscribed;
+
+    private long lastPreciseRequestMs = -MIN_PRECISE_FIX_INTERVAL_MS;
+
+    private final LocationCallback locationCallback = new LocationCallback() {
+        @Override
+        public void onLocationResult(LocationResult locationResult) {
+            if (locationResult == null) {
+                Log.d(TAG, "Location result is null");
+                return;
+            }
+
+            // Every fix in a batch counts: the path between them may cross a fence
+            List<Location> locations = locationResult.getLocations();
+            for (int i = 0; i < locations.size(); i++) {
+                Location location = locations.get(i);
+                onFix(location.getLatitude(), location.getLongitude(),
+                        location.hasAccuracy() ? location.getAccuracy() : 0,
+                        location.hasSpeed() ? location.getSpeed() : Double.NaN,
+                        location.getElapsedRealtimeNanos() / 1_000_000L, i == locations.size() - 1);
+            }
+        }
+
+        @Override
+        public void onLocationAvailability(LocationAvailability locationAvailability) {
+            if (!locationAvailability.isLocationAvailable()) {
+                Log.w(TAG, "Location services became unavailable");
+            }
+        }
+    };
+
+    PollingGeofenceBackend(Context context, Supplier<RuleSnapshot> rules, GeofenceStateMachine state,
+                           Handler evaluation, LocationHistoryStore history) {
+        this.context = context;
+        this.rules = rules;
+        this.state = state;
+        this.evaluation = evaluation;
+        this.wakeLocks = WakeLockManager.getInstance(context);
+        this.evaluator = new FixEvaluator(state);
+        this.history = history;
+    }
+
+    @Override
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        try {
+            updateSubscription();
+        } catch (SecurityException e) {
+            // Not started, so a later start() with permission tries again
+            started = false;
+            throw e;
+        }
+    }
+
+    // A fence added, moved, disabled or removed takes effect against the last fix
+    // right away instead of waiting for the next location update
+    @Override
+    public void onRulesChanged(DataChange change) {
+        if (started) {
+            // The first geographic fence opens the subscription, the last one closes it
+            try {
+                updateSubscription();
+            } catch (SecurityException e) {
+                Log.e(TAG, "SecurityException starting location updates: " + e.getMessage());
+            }
+        }
+        evaluation.post(() -> {
+            if (evaluator.hasFix()) {
+                Log.d(TAG, "Re-evaluating geofences after " + change);
+                try (WakeLockManager.Lease lease = wakeLocks.acquire(WakeLockManager.SUBSYSTEM_EVALUATION,
+                        EVALUATION_LEASE_MS)) {
+                    reschedule(evaluator.reevaluate(rules.get()).plan);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error checking location rules: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean handleIntent(Intent intent) {
+        return false;
+    }
+
+    @Override
+    public void stop() {
+        started = false;
+        updateSubscription();
+    }
+
+    // Subscribed while started with a geographic fence to watch
+    private void updateSubscription() {
+        boolean wanted = started && rules.get().getGeofenceIndex().size() > 0;
+        if (wanted == subscribed) {
+            return;
+        }
+        if (wanted) {
+            if (fusedLocationClient == null) {
+                fusedLocationClient = LocationServices.getFusedLocationProviderClient(context);
+            }
+            fusedLocationClient.requestLocationUpdates(createLocationRequest(currentPlan), locationCallback,
+                    evaluation.getLooper());
+            subscribed = true;
+            Log.d(TAG, "Location updates started: " + currentPlan);
+        } else {
+            fusedLocationClient.removeLocationUpdates(locationCallback);
+            subscribed = false;
+            Log.d(TAG, started ? "No geographic fences; location updates stopped" : "Location updates stopped");
+        }
+    }
+
+    // Runs on the evaluation thread
+    void onFix(double latitude, double longitude, double accuracy, double speed, long elapsedRealtimeMs) {
+        onFix(latitude, longitude, accuracy, speed, elapsedRealtimeMs, true);
+    }
+
+    private void onFix(double latitude, double longitude, double accuracy, double speed, long elapsedRealtimeMs,
+                       boolean lastInBatch) {
+        Log.d(TAG, "Location update: " + latitude + ", " + longitude);
+
+        // Held only while this fix is evaluated, not between fixes
+        try (WakeLockManager.Lease lease = wakeLocks.acquire(WakeLockManager.SUBSYSTEM_EVALUATION,
+                EVALUATION_LEASE_MS)) {
+            RuleSnapshot snapshot = rules.get();
+            if (snapshot.getGeofenceIndex().size() == 0 && state.getActiveFenceId() == -1) {
+                Log.d(TAG, "No active locations configured");
+            }
+
+            FixEvaluator.Result result = evaluator.onFix(snapshot, latitude, longitude, accuracy, speed,
+                    elapsedRealtimeMs);
+            record(latitude, longitude, accuracy, elapsedRealtimeMs);
+            for (TrajectoryEvaluator.Crossing crossing : evaluator.getCrossings()) {
+                Log.d(TAG, "Path crossed " + crossing);
+            }
+            if (result.inconclusive) {
+                Log.d(TAG, "Fix accuracy " + accuracy + "m is inconclusive for " + result.uncertainFences
+                        + " geofences");
+            }
+
+            if (lastInBatch) {
+                reschedule(result.plan);
+                if (result.inconclusive) {
+                    requestPreciseFix(elapsedRealtimeMs);
+                }
+            }
+
+        } catch (Exception e) {
+            Log.e(TAG, "Error checking location rules: " + e.getMessage());
+        }
+    }
+
+    private void record(double latitude, double longitude, double accuracy, long elapsedRealtimeMs) {
+        if (history == null) {
+            return;
+        }
+        // Wall-clock time, so the history lines up with the event log
+        long timeMs = System.currentTimeMillis() - (SystemClock.elapsedRealtime() - elapsedRealtimeMs);
+        try {
+            history.append(timeMs, latitude, longitude, accuracy, state.getActiveFenceId());
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing location history: " + e.getMessage());
+        }
+    }
+
+    // One high-accuracy fix, fed back like any other, to settle an undecided fence
+    private void requestPreciseFix(long nowMs) {
+        if (!subscribed || currentPlan.tier == LocationRequestScheduler.Tier.HIGH_ACCURACY
+                || nowMs - lastPreciseRequestMs < MIN_PRECISE_FIX_INTERVAL_MS) {
+            return;
+        }
+        lastPreciseRequestMs = nowMs;
+        try {
+            fusedLocationClient.getCurrentLocation(Priority.PRIORITY_HIGH_ACCURACY, null)
+                    .addOnSuccessListener(evaluation::post, location -> {
+                        if (location != null && subscribed) {
+                            onFix(location.getLatitude(), location.getLongitude(),
+                                    location.hasAccuracy() ? location.getAccuracy() : 0,
+                                    location.hasSpeed() ? location.getSpeed() : Double.NaN,
+                                    location.getElapsedRealtimeNanos() / 1_000_000L, true);
+                        }
+                    });
+            Log.d(TAG, "Requested a precise fix for an inconclusive one");
+        } catch (SecurityException e) {
+            Log.e(TAG, "SecurityException requesting a precise fix: " + e.getMessage());
+        }
+    }
+
+    private void reschedule(LocationRequestScheduler.Plan plan) {
+        if (!subscribed || !LocationRequestScheduler.shouldReissue(currentPlan, plan)) {
+            return;
+        }
+        try {
+            // Same callback, so this replaces the running request
+            fusedLocationClient.requestLocationUpdates(createLocationRequest(plan), locationCallback,
+                    evaluation.getLooper());
+            Log.d(TAG, "Location request changed from " + currentPlan + " to " + plan);
+            currentPlan = plan;
+        } catch (SecurityException e) {
+            Log.e(TAG, "SecurityException updating location request: " + e.getMessage());
+        }
+    }
+
+    private static LocationRequest createLocationRequest(LocationRequestScheduler.Plan plan) {
+        int priority;
+        switch (plan.tier) {
+            case HIGH_ACCURACY:
+                priority = LocationRequest.PRIORITY_HIGH_ACCURACY;
+                break;
+            case BALANCED:
+                priority = LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY;
+                break;
+            default:
+                priority = LocationRequest.PRIORITY_LOW_POWER;
+                break;
+        }
+        return LocationRequest.create()
+                .setInterval(plan.intervalMs)
+                // Fixes other apps pay for are taken whenever they come
+                .setFastestInterval(Math.min(plan.intervalMs, 15000))
+                // Batched fixes cost one wakeup, and the path between them is still evaluated
+                .setMaxWaitTime(maxWaitMs(plan))
+                .setPriority(priority);
+    }
+
+    private static long maxWaitMs(LocationRequestScheduler.Plan plan) {
+        switch (plan.tier) {
+            case PASSIVE:
+                // Far from every fence: a whole interval of other apps' fixes at once
+                return plan.intervalMs;
+            case BALANCED:
+                // The interval is half the time to the nearest edge, so the batch
+                // still arrives before the device can reach it
+                return Math.min(MAX_WAIT_MS, 2 * plan.intervalMs);
+            default:
+                // At an edge every fix counts as soon as it is taken
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.example.smartmute;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A polygon fence ready for fast containment tests. Vertices are stored as a
+ * compact blob (latitude/longitude pairs as E7 fixed-point ints, 8 bytes per
+ * vertex) and prepared once at load time:
+ *
+ *   - vertices projected to meters around the bounding-box centre,
+ *   - edge arrays (start point and delta) for the crossing-number test,
+ *   - a grid over the bounding box whose cells are classified INSIDE,
+ *     OUTSIDE or BOUNDARY, with each grid row keeping the edges that span it.
+ *
+ * Most points land in an INSIDE or OUTSIDE cell and are answered by one
+ * lookup; the rest test only the edges of their row.
+ *
+ * The owning SmartLocation keeps a circle around the polygon (centre and
+ * circumscribed radius), so bounding boxes, grid bucketing and scheduling
+ * treat it like any other fence until containment is decided here.
+ *
+ * Pure Java so it can be tested on the JVM.
+ */
+final class PreparedPolygon {
+    private static final double E7 = 1e7;
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * 6371008.8;
+
+    private static final byte OUTSIDE = 0, INSIDE = 1, BOUNDARY = 2;
+    private static final int MIN_GRID = 4, MAX_GRID = 64;
+
+    private final double[] vertices;
+    private final double centerLat, centerLon, cosLat;
+
+    // Edge i runs from (edgeX[i], edgeY[i]) by (edgeDx[i], edgeDy[i]), in meters
+    private final double[] edgeX, edgeY, edgeDx, edgeDy;
+
+    private final double minX, minY, cellWidth, cellHeight;
+    private final int grid;
+    private final byte[] cells;
+    // Indexes of the edges whose y-range overlaps each grid row
+    private final int[][] rowEdges;
+
+    /**
+     * @param vertices latitude/longitude pairs, at least three vertices; the
+     *                 ring closes itself and may run either way round
+     */
+    PreparedPolygon(double[] vertices) {
+        if (vertices.length < 6 || vertices.length % 2 != 0) {
+            throw new IllegalArgumentException("A polygon needs at least three vertices");
+        }
+        for (int i = 0; i < vertices.length; i += 2) {
+            // Also rejects NaN, which fails both comparisons
+            if (!(Math.abs(vertices[i]) <= 90) || !(Math.abs(vertices[i + 1]) <= 180)) {
+                throw new IllegalArgumentException("Vertex " + i / 2 + " is off the globe: "
+                        + vertices[i] + ", " + vertices[i + 1]);
+            }
+        }
+        this.vertices = vertices.clone();
+        int count = vertices.length / 2;
+
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minLat = Math.min(minLat, vertices[2 * i]);
+            maxLat = Math.max(maxLat, vertices[2 * i]);
+            minLon = Math.min(minLon, vertices[2 * i + 1]);
+            maxLon = Math.max(maxLon, vertices[2 * i + 1]);
+        }
+        centerLat = (minLat + maxLat) / 2;
+        centerLon = (minLon + maxLon) / 2;
+        cosLat = Math.cos(Math.toRadians(centerLat));
+
+        double[] x = new double[count], y = new double[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = toX(vertices[2 * i + 1]);
+            y[i] = toY(vertices[2 * i]);
+        }
+        edgeX = x;
+        edgeY = y;
+        edgeDx = new double[count];
+        edgeDy = new double[count];
+        for (int i = 0; i < count; i++) {
+            int next = (i + 1) % count;
+            edgeDx[i] = x[next] - x[i];
+            edgeDy[i] = y[next] - y[i];
+        }
+
+        // Roughly two cells per edge along each axis, so a boundary cell holds a few edges
+        grid = Math.max(MIN_GRID, Math.min(MAX_GRID, 2 * (int) Math.ceil(Math.sqrt(count))));
+        minX = toX(minLon);
+        minY = toY(minLat);
+        // Floored so a degenerate (flat) polygon still has a usable grid
+        cellWidth = Math.max(toX(maxLon) - minX, 1e-6) / grid;
+        cellHeight = Math.max(toY(maxLat) - minY, 1e-6) / grid;
+        cells = new byte[grid * grid];
+        rowEdges = new int[grid][];
+        prepareGrid(count);
+    }
+
+    /**
+     * Decodes a blob written by {@link #encode}.
+     *
+     * @throws IllegalArgumentException if the blob is missing, truncated or
+     *                                  holds fewer than three valid vertices
+     */
+    static PreparedPolygon decode(byte[] blob) {
+        if (blob == null || blob.length % 8 != 0) {
+            throw new IllegalArgumentException("Polygon blob of "
+                    + (blob == null ? "null" : blob.length + " bytes") + " is not whole vertices");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(blob);
+        double[] vertices = new double[blob.length / 4];
+        for (int i = 0; i < vertices.length; i++) {
+            vertices[i] = buffer.getInt() / E7;
+        }
+        return new PreparedPolygon(vertices);
+    }
+
+    // E7 keeps about a centimeter of precision in half the bytes of doubles
+    byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(vertices.length * 4);
+        for (double coordinate : vertices) {
+            buffer.putInt((int) Math.round(coordinate * E7));
+        }
+        return buffer.array();
+    }
+
+    int getVertexCount() {
+        return vertices.length / 2;
+    }
+
+    // Latitude/longitude pairs as given
+    double[] getVertices() {
+        return vertices.clone();
+    }
+
+    double getCenterLatitude() {
+        return centerLat;
+    }
+
+    double getCenterLongitude() {
+        return centerLon;
+    }
+
+    // Radius in meters of the circle around the bounding-box centre enclosing every vertex
+    int circumscribedRadius() {
+        double max = 0;
+        for (int i = 0; i < edgeX.length; i++) {
+            max = Math.max(max, Math.hypot(edgeX[i], edgeY[i]));
+        }
+        // Rounded up, with room for the flat projection's error
+        return (int) Math.ceil(max * 1.01) + 1;
+    }
+
+    boolean contains(double latitude, double longitude) {
+        double px = toX(longitude), py = toY(latitude);
+        if (px < minX || py < minY || px > minX + cellWidth * grid || py > minY + cellHeight * grid) {
+            return false;
+        }
+        // The top and right edges of the box are closed, so clamp into the last cell
+        int col = Math.min(grid - 1, (int) ((px - minX) / cellWidth));
+        int row = Math.min(grid - 1, (int) ((py - minY) / cellHeight));
+
+        byte cell = cells[row * grid + col];
+        if (cell != BOUNDARY) {
+            return cell == INSIDE;
+        }
+        return crossingNumber(px, py, rowEdges[row]);
+    }
+
+    /**
+     * Distance in meters from the point to the nearest edge, from either
+     * side. Scans every edge, so it is for margins and scheduling, not for
+     * containment.
+     */
+    double distanceToEdge(double latitude, double longitude) {
+        double px = toX(longitude), py = toY(latitude);
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < edgeX.length; i++) {
+            double lengthSq = edgeDx[i] * edgeDx[i] + edgeDy[i] * edgeDy[i];
+            double t = lengthSq == 0 ? 0
+                    : ((px - edgeX[i]) * edgeDx[i] + (py - edgeY[i]) * edgeDy[i]) / lengthSq;
+            t = Math.max(0, Math.min(1, t));
+            nearest = Math.min(nearest, Math.hypot(px - edgeX[i] - t * edgeDx[i], py - edgeY[i] - t * edgeDy[i]));
+        }
+        return nearest;
+    }
+
+    /**
+     * Positions (0..1) along the segment from point 0 to point 1 where it
+     * crosses an edge, unsorted. Returns how many were written to {@code out},
+     * which must hold one per edge.
+     */
+    int segmentCrossings(double lat0, double lon0, double lat1, double lon1, double[] out) {
+        double x0 = toX(lon0), y0 = toY(lat0);
+        double sx = toX(lon1) - x0, sy = toY(lat1) - y0;
+        int found = 0;
+        for (int i = 0; i < edgeX.length; i++) {
+            double denominator = sx * edgeDy[i] - sy * edgeDx[i];
+            if (denominator == 0) {
+                // Parallel; a shared stretch of edge crosses nothing
+                continue;
+            }
+            double qx = edgeX[i] - x0, qy = edgeY[i] - y0;
+            double s = (qx * edgeDy[i] - qy * edgeDx[i]) / denominator;
+            double u = (qx * sy - qy * sx) / denominator;
+            // Half-open on the edge so a crossing through a vertex counts once
+            if (s >= 0 && s <= 1 && u >= 0 && u < 1) {
+                out[found++] = s;
+            }
+        }
+        return found;
+    }
+
+    int edgeCount() {
+        return edgeX.length;
+    }
+
+    private void prepareGrid(int count) {
+        // Rows: every edge whose y-range overlaps the row's band
+        int[] rowCounts = new int[grid];
+        for (int i = 0; i < count; i++) {
+            int first = clampRow(Math.min(edgeY[i], edgeY[i] + edgeDy[i]));
+            int last = clampRow(Math.max(edgeY[i], edgeY[i] + edgeDy[i]));
+            for (int row = first; row <= last; row++) {
+                rowCounts[row]++;
+            }
+        }
+        for (int row = 0; row < grid; row++) {
+            rowEdges[row] = new int[rowCounts[row]];
+            rowCounts[row] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            int first = clampRow(Math.min(edgeY[i], edgeY[i] + edgeDy[i]));
+            int last = clampRow(Math.max(edgeY[i], edgeY[i] + edgeDy[i]));
+            for (int row = first; row <= last; row++) {
+                rowEdges[row][rowCounts[row]++] = i;
+            }
+        }
+
+        // Cells: any edge whose bounding box touches a cell makes it BOUNDARY
+        // (conservatively); the rest are wholly in or out, decided at their centre
+        for (int i = 0; i < count; i++) {
+            int firstRow = clampRow(Math.min(edgeY[i], edgeY[i] + edgeDy[i]));
+            int lastRow = clampRow(Math.max(edgeY[i], edgeY[i] + edgeDy[i]));
+            int firstCol = clampCol(Math.min(edgeX[i], edgeX[i] + edgeDx[i]));
+            int lastCol = clampCol(Math.max(edgeX[i], edgeX[i] + edgeDx[i]));
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int col = firstCol; col <= lastCol; col++) {
+                    cells[row * grid + col] = BOUNDARY;
+                }
+            }
+        }
+        for (int row = 0; row < grid; row++) {
+            double centerY = minY + (row + 0.5) * cellHeight;
+            for (int col = 0; col < grid; col++) {
+                if (cells[row * grid + col] != BOUNDARY) {
+                    double centerX = minX + (col + 0.5) * cellWidth;
+                    cells[row * grid + col] = crossingNumber(centerX, centerY, rowEdges[row]) ? INSIDE : OUTSIDE;
+                }
+            }
+        }
+    }
+
+    // Even-odd rule along a ray towards +x; edges are half-open in y so a
+    // vertex on the ray is counted once
+    private boolean crossingNumber(double px, double py, int[] edges) {
+        boolean inside = false;
+        for (int edge : edges) {
+            double y0 = edgeY[edge], y1 = y0 + edgeDy[edge];
+            if ((y0 > py) != (y1 > py)) {
+                double crossX = edgeX[edge] + (py - y0) / edgeDy[edge] * edgeDx[edge];
+                if (px < crossX) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    private int clampRow(double y) {
+        return Math.max(0, Math.min(grid - 1, (int) Math.floor((y - minY) / cellHeight)));
+    }
+
+    private int clampCol(double x) {
+        return Math.max(0, Math.min(grid - 1, (int) Math.floor((x - minX) / cellWidth)));
+    }
+
+    private double toX(double longitude) {
+        double dLon = longitude - centerLon;
+        if (dLon > 180) dLon -= 360;
+        if (dLon < -180) dLon += 360;
+        return dLon * cosLat * METERS_PER_DEGREE;
+    }
+
+    private double toY(double latitude) {
+        return (latitude - centerLat) * METERS_PER_DEGREE;
+    }
+}
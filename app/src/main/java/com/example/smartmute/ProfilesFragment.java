@@ -21,7 +21,9 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import androidx.annotation.NonNull;
 
 
@@ -40,6 +42,9 @@ public class ProfilesFragment extends Fragment {
 
     private AudioManager audioManager;
 
+    // Profile id -> number of location and schedule rules using it
+    private Map<Integer, Integer> profileUsage = new HashMap<>();
+
     public ProfilesFragment() {}
 
     @Override
@@ -53,10 +58,71 @@ public class ProfilesFragment extends Fragment {
         loadProfiles();
         setupClickListeners();
         setupSeekBars();
+        databaseHelper.addChangeListener(changeListener);
 
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        databaseHelper.removeChangeListener(changeListener);
+    }
+
+    // Refreshes only the row that changed instead of re-reading the whole table
+    private final DataChange.Listener changeListener = change -> {
+        if (change.isReload()) {
+            // A bulk write such as an import: one full reload instead of a query per row
+            if (change.affects(DataChange.Entity.PROFILE)) {
+                loadProfiles();
+            } else if (change.affects(DataChange.Entity.LOCATION) || change.affects(DataChange.Entity.SCHEDULE)) {
+                profileUsage = databaseHelper.getProfileUsageCounts();
+                profilesAdapter.notifyDataSetChanged();
+            }
+            return;
+        }
+        if (change.getEntity() == DataChange.Entity.LOCATION
+                || change.getEntity() == DataChange.Entity.SCHEDULE) {
+            // A rule picked up or dropped a profile; badges come from one grouped query
+            profileUsage = databaseHelper.getProfileUsageCounts();
+            profilesAdapter.notifyDataSetChanged();
+            return;
+        }
+        if (change.getEntity() != DataChange.Entity.PROFILE) {
+            return;
+        }
+
+        int position = findProfilePosition(change.getId());
+        if (change.getOperation() == DataChange.Operation.DELETED) {
+            if (position >= 0) {
+                profilesList.remove(position);
+                profilesAdapter.notifyItemRemoved(position);
+            }
+            return;
+        }
+
+        Profile profile = databaseHelper.getProfile(change.getId());
+        if (profile == null) {
+            return;
+        }
+        if (position >= 0) {
+            profilesList.set(position, profile);
+            profilesAdapter.notifyItemChanged(position);
+        } else {
+            profilesList.add(profile);
+            profilesAdapter.notifyItemInserted(profilesList.size() - 1);
+        }
+    };
+
+    private int findProfilePosition(int profileId) {
+        for (int i = 0; i < profilesList.size(); i++) {
+            if (profilesList.get(i).getId() == profileId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     private void initializeViews(View view) {
         profilesRecyclerView = view.findViewById(R.id.profiles_recycler_view);
         btnAddProfile = view.findViewById(R.id.btn_add_profile);
@@ -116,7 +182,7 @@ public class ProfilesFragment extends Fragment {
     }
 
     private void setupDatabase() {
-        databaseHelper = new SmartMuteDatabaseHelper(requireContext());
+        databaseHelper = SmartMuteDatabaseHelper.getInstance(requireContext());
     }
 
     private void setupAudioManager() {
@@ -131,6 +197,7 @@ public class ProfilesFragment extends Fragment {
     }
 
     private void loadProfiles() {
+        profileUsage = databaseHelper.getProfileUsageCounts();
         profilesList.clear();
         profilesList.addAll(databaseHelper.getAllProfiles());
         profilesAdapter.notifyDataSetChanged();
@@ -252,7 +319,6 @@ public class ProfilesFragment extends Fragment {
         if (id != -1) {
             Toast.makeText(requireContext(), "Profile added successfully", Toast.LENGTH_SHORT).show();
             clearForm();
-            loadProfiles();
         } else {
             Toast.makeText(requireContext(), "Failed to add profile", Toast.LENGTH_SHORT).show();
         }
@@ -289,14 +355,6 @@ public class ProfilesFragment extends Fragment {
         updateVolumeLabels();
     }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        if (databaseHelper != null) {
-            databaseHelper.close();
-        }
-    }
-
     // Profiles Adapter
     private class ProfilesAdapter extends RecyclerView.Adapter<ProfilesAdapter.ProfileViewHolder> {
         private List<Profile> profiles;
@@ -340,6 +398,11 @@ public class ProfilesFragment extends Fragment {
                 tvName.setText(profile.getName());
                 tvSettings.setText(getSettingsString(profile));
 
+                Integer usage = profileUsage.get(profile.getId());
+                if (usage != null && usage > 0) {
+                    tvName.setText(profile.getName() + "  •  In use (" + usage + (usage == 1 ? " rule)" : " rules)"));
+                }
+
                 btnApply.setOnClickListener(v -> applyProfile(profile));
                 btnEdit.setOnClickListener(v -> editProfile(profile));
                 btnDelete.setOnClickListener(v -> deleteProfile(profile));
@@ -391,7 +454,6 @@ public class ProfilesFragment extends Fragment {
                 if (updated) {
                     Toast.makeText(requireContext(), "Profile updated", Toast.LENGTH_SHORT).show();
                     clearForm();
-                    loadProfiles();
                     // Reset add button
                     btnAddProfile.setText("Add Profile");
                     btnAddProfile.setOnClickListener(v -> addNewProfile());
@@ -410,8 +472,6 @@ public class ProfilesFragment extends Fragment {
 
                 boolean deleted = databaseHelper.deleteProfile(profile.getId());
                 if (deleted) {
-                    profiles.remove(profile);
-                    notifyDataSetChanged();
                     Toast.makeText(requireContext(), "Profile deleted", Toast.LENGTH_SHORT).show();
                 }
             }
@@ -0,0 +1,175 @@
+package com.example.smartmute;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.smartmute.SmartMuteDatabaseHelper.*;
+
+/**
+ * Cursor-to-entity mappers. Each mapper resolves its column indices once when
+ * it is created for a cursor, so mapping a row is just typed getters.
+ */
+final class RowMappers {
+    private static final String TAG = "RowMappers";
+
+    interface RowMapper<T> {
+        T map(Cursor cursor);
+    }
+
+    private RowMappers() {}
+
+    // Maps every row and closes the cursor
+    static <T> List<T> mapAll(Cursor cursor, RowMapper<T> mapper) {
+        List<T> rows = new ArrayList<>(Math.max(cursor.getCount(), 0));
+        try {
+            while (cursor.moveToNext()) {
+                rows.add(mapper.map(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    // Maps the first row, or returns null, and closes the cursor
+    static <T> T mapFirst(Cursor cursor, RowMapper<T> mapper) {
+        try {
+            return cursor.moveToFirst() ? mapper.map(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    static final class ProfileMapper implements RowMapper<Profile> {
+        private final int id, name, ringtone, mediaVolume, callVolume, notifVolume, vibrate, dnd;
+
+        ProfileMapper(Cursor cursor) {
+            id = cursor.getColumnIndexOrThrow(KEY_ID);
+            name = cursor.getColumnIndexOrThrow(KEY_NAME);
+            ringtone = cursor.getColumnIndexOrThrow(KEY_RINGTONE);
+            mediaVolume = cursor.getColumnIndexOrThrow(KEY_MEDIA_VOLUME);
+            callVolume = cursor.getColumnIndexOrThrow(KEY_CALL_VOLUME);
+            notifVolume = cursor.getColumnIndexOrThrow(KEY_NOTIF_VOLUME);
+            vibrate = cursor.getColumnIndexOrThrow(KEY_VIBRATE);
+            dnd = cursor.getColumnIndexOrThrow(KEY_DND);
+        }
+
+        @Override
+        public Profile map(Cursor cursor) {
+            Profile profile = new Profile();
+            profile.setId(cursor.getInt(id));
+            profile.setName(cursor.getString(name));
+            profile.setRingtone(cursor.getString(ringtone));
+            profile.setMediaVolume(cursor.getInt(mediaVolume));
+            profile.setCallVolume(cursor.getInt(callVolume));
+            profile.setNotificationVolume(cursor.getInt(notifVolume));
+            profile.setVibrate(cursor.getInt(vibrate) == 1);
+            profile.setDnd(cursor.getInt(dnd) == 1);
+            return profile;
+        }
+    }
+
+    static final class LocationMapper implements RowMapper<SmartLocation> {
+        private final int id, name, latitude, longitude, radius, profileId, revertProfileId, enabled, priority,
+                polygon, wifiNetworks;
+
+        LocationMapper(Cursor cursor) {
+            id = cursor.getColumnIndexOrThrow(KEY_ID);
+            name = cursor.getColumnIndexOrThrow(KEY_NAME);
+            latitude = cursor.getColumnIndexOrThrow(KEY_LATITUDE);
+            longitude = cursor.getColumnIndexOrThrow(KEY_LONGITUDE);
+            radius = cursor.getColumnIndexOrThrow(KEY_RADIUS);
+            profileId = cursor.getColumnIndexOrThrow(KEY_PROFILE_ID);
+            revertProfileId = cursor.getColumnIndexOrThrow(KEY_REVERT_PROFILE_ID);
+            enabled = cursor.getColumnIndexOrThrow(KEY_ENABLED);
+            priority = cursor.getColumnIndexOrThrow(KEY_PRIORITY);
+            polygon = cursor.getColumnIndexOrThrow(KEY_POLYGON);
+            wifiNetworks = cursor.getColumnIndexOrThrow(KEY_WIFI_NETWORKS);
+        }
+
+        @Override
+        public SmartLocation map(Cursor cursor) {
+            SmartLocation location = new SmartLocation();
+            location.setId(cursor.getInt(id));
+            location.setName(cursor.getString(name));
+            location.setLatitude(cursor.getDouble(latitude));
+            location.setLongitude(cursor.getDouble(longitude));
+            location.setRadius(cursor.getInt(radius));
+            location.setProfileId(cursor.getInt(profileId));
+            location.setRevertProfileId(cursor.getInt(revertProfileId));
+            location.setEnabled(cursor.getInt(enabled) == 1);
+            location.setPriority(cursor.getInt(priority));
+            if (!cursor.isNull(polygon)) {
+                // Prepared once here; every snapshot and index shares the result
+                try {
+                    location.setPolygon(PreparedPolygon.decode(cursor.getBlob(polygon)));
+                } catch (IllegalArgumentException e) {
+                    // A corrupt outline must not take every other rule down with it;
+                    // the fence stays listed but never triggers
+                    Log.e(TAG, "Invalid polygon for location " + location.getId() + ": " + e.getMessage());
+                    location.setEnabled(false);
+                }
+            }
+            if (!cursor.isNull(wifiNetworks)) {
+                location.setWifiNetworks(Arrays.asList(cursor.getString(wifiNetworks).split("\n")));
+            }
+            return location;
+        }
+    }
+
+    static final class ScheduleMapper implements RowMapper<Schedule> {
+        private final int id, name, startTime, endTime, daysMask, profileId, enabled;
+
+        ScheduleMapper(Cursor cursor) {
+            id = cursor.getColumnIndexOrThrow(KEY_ID);
+            name = cursor.getColumnIndexOrThrow(KEY_NAME);
+            startTime = cursor.getColumnIndexOrThrow(KEY_START_TIME);
+            endTime = cursor.getColumnIndexOrThrow(KEY_END_TIME);
+            daysMask = cursor.getColumnIndexOrThrow(KEY_DAYS_MASK);
+            profileId = cursor.getColumnIndexOrThrow(KEY_PROFILE_ID);
+            enabled = cursor.getColumnIndexOrThrow(KEY_ENABLED);
+        }
+
+        @Override
+        public Schedule map(Cursor cursor) {
+            Schedule schedule = new Schedule();
+            schedule.setId(cursor.getInt(id));
+            schedule.setName(cursor.getString(name));
+            schedule.setStartTime(cursor.getString(startTime));
+            schedule.setEndTime(cursor.getString(endTime));
+            schedule.setDaysMask(cursor.getInt(daysMask));
+            schedule.setProfileId(cursor.getInt(profileId));
+            schedule.setEnabled(cursor.getInt(enabled) == 1);
+            return schedule;
+        }
+    }
+
+    static final class EmergencyContactMapper implements RowMapper<EmergencyContact> {
+        private final int id, name, phone, callCountThreshold, windowMinutes, ringOverride;
+
+        EmergencyContactMapper(Cursor cursor) {
+            id = cursor.getColumnIndexOrThrow(KEY_ID);
+            name = cursor.getColumnIndexOrThrow(KEY_NAME);
+            phone = cursor.getColumnIndexOrThrow(KEY_PHONE);
+            callCountThreshold = cursor.getColumnIndexOrThrow(KEY_CALL_COUNT_THRESHOLD);
+            windowMinutes = cursor.getColumnIndexOrThrow(KEY_WINDOW_MINUTES);
+            ringOverride = cursor.getColumnIndexOrThrow(KEY_RING_OVERRIDE);
+        }
+
+        @Override
+        public EmergencyContact map(Cursor cursor) {
+            EmergencyContact contact = new EmergencyContact();
+            contact.setId(cursor.getInt(id));
+            contact.setName(cursor.getString(name));
+            contact.setPhoneNumber(cursor.getString(phone));
+            contact.setCallCountThreshold(cursor.getInt(callCountThreshold));
+            contact.setWindowMinutes(cursor.getInt(windowMinutes));
+            contact.setRingOverride(cursor.getInt(ringOverride) == 1);
+            return contact;
+        }
+    }
+}
@@ -0,0 +1,535 @@
+package com.example.smartmute;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams geofences, schedules and emergency contacts to and from CSV or JSON.
+ * Neither direction holds the whole rule set in memory: export walks a cursor
+ * row by row and import parses one record at a time. An import is written in a
+ * single transaction, followed by one snapshot rebuild and one change event
+ * published after the commit, so listeners reload and alarms are re-registered
+ * once per import. LocationsFragment offers both directions through the
+ * system file picker.
+ *
+ * CSV rows start with a record type:
+ *   location,name,latitude,longitude,radius,profile_id,revert_profile_id,enabled[,priority]
+ *   schedule,name,start_time,end_time,days_mask,profile_id,enabled
+ *   contact,name,phone,call_count_threshold,window_minutes,ring_override
+ * Lines starting with '#' are ignored.
+ *
+ * JSON is an object with "locations", "schedules" and "contacts" arrays whose
+ * objects use the database column names. A polygon location carries
+ * "polygon": [[latitude, longitude], ...]; its centre and radius are derived
+ * from the outline. A Wi-Fi place carries "wifi_networks": [ssid or bssid, ...]
+ * and no usable circle. CSV has no polygon column and exports the enclosing
+ * circle; it has no way to say "Wi-Fi place", so those are left out of it.
+ */
+public class RuleImportExport {
+    private static final String TAG = "RuleImportExport";
+
+    public enum Format {
+        CSV, JSON;
+
+        public static Format fromFileName(String name) {
+            return name != null && name.toLowerCase().endsWith(".json") ? JSON : CSV;
+        }
+    }
+
+    public static class ImportResult {
+        public int locations;
+        public int schedules;
+        public int contacts;
+        public int skipped;
+
+        @Override
+        public String toString() {
+            return locations + " locations, " + schedules + " schedules, "
+                    + contacts + " contacts, " + skipped + " skipped";
+        }
+    }
+
+    private final Context context;
+    private final SmartMuteDatabaseHelper databaseHelper;
+
+    public RuleImportExport(Context context) {
+        this.context = context.getApplicationContext();
+        this.databaseHelper = SmartMuteDatabaseHelper.getInstance(context);
+        AlarmUtils.startScheduleSync(context);
+    }
+
+    // ==================== IMPORT ====================
+
+    public ImportResult importRules(Uri uri, Format format) throws IOException {
+        InputStream in = context.getContentResolver().openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        try {
+            return importRules(in, format);
+        } finally {
+            in.close();
+        }
+    }
+
+    public ImportResult importRules(InputStream in, Format format) throws IOException {
+        ImportResult result = new ImportResult();
+        long started = System.currentTimeMillis();
+
+        try {
+            databaseHelper.runInBulkTransaction(() -> {
+                try {
+                    if (format == Format.JSON) {
+                        importJson(in, result);
+                    } else {
+                        importCsv(in, result);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        // Alarms for the imported schedules are registered in one pass by AlarmUtils'
+        // schedule sync when the transaction's change event is published
+        databaseHelper.addLog("RULES_IMPORTED", result.toString());
+        Log.i(TAG, "Imported " + result + " in " + (System.currentTimeMillis() - started) + " ms");
+        return result;
+    }
+
+    private void importCsv(InputStream in, ImportResult result) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        List<String> fields = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            splitCsvLine(line, fields);
+            try {
+                switch (fields.get(0)) {
+                    case "location":
+                        SmartLocation location = new SmartLocation();
+                        location.setName(fields.get(1));
+                        location.setLatitude(Double.parseDouble(fields.get(2)));
+                        location.setLongitude(Double.parseDouble(fields.get(3)));
+                        location.setRadius(Integer.parseInt(fields.get(4)));
+                        location.setProfileId(Integer.parseInt(fields.get(5)));
+                        location.setRevertProfileId(Integer.parseInt(fields.get(6)));
+                        location.setEnabled(parseFlag(fields.get(7)));
+                        // Files exported before priorities existed stop at enabled
+                        if (fields.size() > 8) {
+                            location.setPriority(Integer.parseInt(fields.get(8)));
+                        }
+                        countInsert(databaseHelper.addLocation(location), result, 0);
+                        break;
+                    case "schedule":
+                        Schedule schedule = new Schedule();
+                        schedule.setName(fields.get(1));
+                        schedule.setStartTime(fields.get(2));
+                        schedule.setEndTime(fields.get(3));
+                        schedule.setDaysMask(Integer.parseInt(fields.get(4)));
+                        schedule.setProfileId(Integer.parseInt(fields.get(5)));
+                        schedule.setEnabled(parseFlag(fields.get(6)));
+                        countInsert(databaseHelper.addSchedule(schedule), result, 1);
+                        break;
+                    case "contact":
+                        EmergencyContact contact = new EmergencyContact();
+                        contact.setName(fields.get(1));
+                        contact.setPhoneNumber(fields.get(2));
+                        contact.setCallCountThreshold(Integer.parseInt(fields.get(3)));
+                        contact.setWindowMinutes(Integer.parseInt(fields.get(4)));
+                        contact.setRingOverride(parseFlag(fields.get(5)));
+                        countInsert(databaseHelper.addEmergencyContact(contact), result, 2);
+                        break;
+                    default:
+                        Log.w(TAG, "Line " + lineNumber + ": unknown record type " + fields.get(0));
+                        result.skipped++;
+                }
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                Log.w(TAG, "Line " + lineNumber + ": malformed record, skipping");
+                result.skipped++;
+            }
+        }
+    }
+
+    private void importJson(InputStream in, ImportResult result) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String section = reader.nextName();
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+
+            reader.beginArray();
+            while (reader.hasNext()) {
+                switch (section) {
+                    case "locations":
+                        countInsert(databaseHelper.addLocation(readLocation(reader)), result, 0);
+                        break;
+                    case "schedules":
+                        countInsert(databaseHelper.addSchedule(readSchedule(reader)), result, 1);
+                        break;
+                    case "contacts":
+                        countInsert(databaseHelper.addEmergencyContact(readContact(reader)), result, 2);
+                        break;
+                    default:
+                        reader.skipValue();
+                        result.skipped++;
+                }
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    private SmartLocation readLocation(JsonReader reader) throws IOException {
+        SmartLocation location = new SmartLocation();
+        location.setEnabled(true);
+        double[] polygon = null;
+        List<String> wifiNetworks = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case SmartMuteDatabaseHelper.KEY_NAME: location.setName(reader.nextString()); break;
+                case SmartMuteDatabaseHelper.KEY_LATITUDE: location.setLatitude(reader.nextDouble()); break;
+                case SmartMuteDatabaseHelper.KEY_LONGITUDE: location.setLongitude(reader.nextDouble()); break;
+                case SmartMuteDatabaseHelper.KEY_RADIUS: location.setRadius(reader.nextInt()); break;
+                case SmartMuteDatabaseHelper.KEY_PROFILE_ID: location.setProfileId(reader.nextInt()); break;
+                case SmartMuteDatabaseHelper.KEY_REVERT_PROFILE_ID: location.setRevertProfileId(reader.nextInt()); break;
+                case SmartMuteDatabaseHelper.KEY_ENABLED: location.setEnabled(reader.nextBoolean()); break;
+                case SmartMuteDatabaseHelper.KEY_PRIORITY: location.setPriority(reader.nextInt()); break;
+                case SmartMuteDatabaseHelper.KEY_POLYGON: polygon = readPolygon(reader); break;
+                case SmartMuteDatabaseHelper.KEY_WIFI_NETWORKS: wifiNetworks = readStrings(reader); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (polygon != null) {
+            // After the loop, since the outline overrides any centre and radius
+            try {
+                location.setPolygon(new PreparedPolygon(polygon));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid polygon for " + location.getName() + ": " + e.getMessage());
+            }
+        }
+        location.setWifiNetworks(wifiNetworks);
+        return location;
+    }
+
+    private double[] readPolygon(JsonReader reader) throws IOException {
+        List<Double> coordinates = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginArray();
+            coordinates.add(reader.nextDouble());
+            coordinates.add(reader.nextDouble());
+            reader.endArray();
+        }
+        reader.endArray();
+
+        double[] vertices = new double[coordinates.size()];
+        for (int i = 0; i < vertices.length; i++) {
+            vertices[i] = coordinates.get(i);
+        }
+        return vertices;
+    }
+
+    private List<String> readStrings(JsonReader reader) throws IOException {
+        List<String> values = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            values.add(reader.nextString());
+        }
+        reader.endArray();
+        return values;
+    }
+
+    private Schedule readSchedule(JsonReader reader) throws IOException {
+        Schedule schedule = new Schedule();
+        schedule.setEnabled(true);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case SmartMuteDatabaseHelper.KEY_NAME: schedule.setName(reader.nextString()); break;
+                case SmartMuteDatabaseHelper.KEY_START_TIME: schedule.setStartTime(reader.nextString()); break;
+                case SmartMuteDatabaseHelper.KEY_END_TIME: schedule.setEndTime(reader.nextString()); break;
+                case SmartMuteDatabaseHelper.KEY_DAYS_MASK: schedule.setDaysMask(reader.nextInt()); break;
+                case SmartMuteDatabaseHelper.KEY_PROFILE_ID: schedule.setProfileId(reader.nextInt()); break;
+                case SmartMuteDatabaseHelper.KEY_ENABLED: schedule.setEnabled(reader.nextBoolean()); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return schedule;
+    }
+
+    private EmergencyContact readContact(JsonReader reader) throws IOException {
+        EmergencyContact contact = new EmergencyContact();
+        contact.setRingOverride(true);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case SmartMuteDatabaseHelper.KEY_NAME: contact.setName(reader.nextString()); break;
+                case SmartMuteDatabaseHelper.KEY_PHONE: contact.setPhoneNumber(reader.nextString()); break;
+                case SmartMuteDatabaseHelper.KEY_CALL_COUNT_THRESHOLD: contact.setCallCountThreshold(reader.nextInt()); break;
+                case SmartMuteDatabaseHelper.KEY_WINDOW_MINUTES: contact.setWindowMinutes(reader.nextInt()); break;
+                case SmartMuteDatabaseHelper.KEY_RING_OVERRIDE: contact.setRingOverride(reader.nextBoolean()); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return contact;
+    }
+
+    private void countInsert(long id, ImportResult result, int kind) {
+        if (id == -1) {
+            result.skipped++;
+        } else if (kind == 0) {
+            result.locations++;
+        } else if (kind == 1) {
+            result.schedules++;
+        } else {
+            result.contacts++;
+        }
+    }
+
+    private static boolean parseFlag(String value) {
+        return "1".equals(value) || "true".equalsIgnoreCase(value);
+    }
+
+    // Splits one CSV line into fields, honouring double-quoted fields with "" escapes
+    static void splitCsvLine(String line, List<String> fields) {
+        fields.clear();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+    }
+
+    // ==================== EXPORT ====================
+
+    public void exportRules(Uri uri, Format format) throws IOException {
+        OutputStream out = context.getContentResolver().openOutputStream(uri);
+        if (out == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        try {
+            exportRules(out, format);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void exportRules(OutputStream out, Format format) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        if (format == Format.JSON) {
+            exportJson(writer);
+        } else {
+            exportCsv(writer);
+        }
+        writer.flush();
+    }
+
+    private Cursor queryTable(String table) {
+        return databaseHelper.getReadableDatabase().rawQuery(
+                "SELECT * FROM " + table + " ORDER BY " + SmartMuteDatabaseHelper.KEY_ID, null);
+    }
+
+    private void exportCsv(Writer writer) throws IOException {
+        writer.write("# location,name,latitude,longitude,radius,profile_id,revert_profile_id,enabled,priority\n");
+        Cursor cursor = queryTable(SmartMuteDatabaseHelper.TABLE_LOCATIONS);
+        try {
+            RowMappers.LocationMapper mapper = new RowMappers.LocationMapper(cursor);
+            while (cursor.moveToNext()) {
+                SmartLocation location = mapper.map(cursor);
+                if (location.isWifiPlace()) {
+                    continue;
+                }
+                writeCsvRow(writer, "location", location.getName(), String.valueOf(location.getLatitude()),
+                        String.valueOf(location.getLongitude()), String.valueOf(location.getRadius()),
+                        String.valueOf(location.getProfileId()), String.valueOf(location.getRevertProfileId()),
+                        location.isEnabled() ? "1" : "0", String.valueOf(location.getPriority()));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        writer.write("# schedule,name,start_time,end_time,days_mask,profile_id,enabled\n");
+        cursor = queryTable(SmartMuteDatabaseHelper.TABLE_SCHEDULES);
+        try {
+            RowMappers.ScheduleMapper mapper = new RowMappers.ScheduleMapper(cursor);
+            while (cursor.moveToNext()) {
+                Schedule schedule = mapper.map(cursor);
+                writeCsvRow(writer, "schedule", schedule.getName(), schedule.getStartTime(), schedule.getEndTime(),
+                        String.valueOf(schedule.getDaysMask()), String.valueOf(schedule.getProfileId()),
+                        schedule.isEnabled() ? "1" : "0");
+            }
+        } finally {
+            cursor.close();
+        }
+
+        writer.write("# contact,name,phone,call_count_threshold,window_minutes,ring_override\n");
+        cursor = queryTable(SmartMuteDatabaseHelper.TABLE_EMERGENCY_CONTACTS);
+        try {
+            RowMappers.EmergencyContactMapper mapper = new RowMappers.EmergencyContactMapper(cursor);
+            while (cursor.moveToNext()) {
+                EmergencyContact contact = mapper.map(cursor);
+                writeCsvRow(writer, "contact", contact.getName(), contact.getPhoneNumber(),
+                        String.valueOf(contact.getCallCountThreshold()), String.valueOf(contact.getWindowMinutes()),
+                        contact.isRingOverride() ? "1" : "0");
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void writeCsvRow(Writer writer, String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String field = fields[i] == null ? "" : fields[i];
+            if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0) {
+                writer.write('"');
+                writer.write(field.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(field);
+            }
+        }
+        writer.write('\n');
+    }
+
+    private void exportJson(Writer out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginObject();
+
+        writer.name("locations").beginArray();
+        Cursor cursor = queryTable(SmartMuteDatabaseHelper.TABLE_LOCATIONS);
+        try {
+            RowMappers.LocationMapper mapper = new RowMappers.LocationMapper(cursor);
+            while (cursor.moveToNext()) {
+                SmartLocation location = mapper.map(cursor);
+                writer.beginObject()
+                        .name(SmartMuteDatabaseHelper.KEY_NAME).value(location.getName())
+                        .name(SmartMuteDatabaseHelper.KEY_LATITUDE).value(location.getLatitude())
+                        .name(SmartMuteDatabaseHelper.KEY_LONGITUDE).value(location.getLongitude())
+                        .name(SmartMuteDatabaseHelper.KEY_RADIUS).value(location.getRadius())
+                        .name(SmartMuteDatabaseHelper.KEY_PROFILE_ID).value(location.getProfileId())
+                        .name(SmartMuteDatabaseHelper.KEY_REVERT_PROFILE_ID).value(location.getRevertProfileId())
+                        .name(SmartMuteDatabaseHelper.KEY_ENABLED).value(location.isEnabled())
+                        .name(SmartMuteDatabaseHelper.KEY_PRIORITY).value(location.getPriority());
+                if (location.isPolygon()) {
+                    writePolygon(writer, location.getPolygon());
+                }
+                if (location.isWifiPlace()) {
+                    writer.name(SmartMuteDatabaseHelper.KEY_WIFI_NETWORKS).beginArray();
+                    for (String network : location.getWifiNetworks()) {
+                        writer.value(network);
+                    }
+                    writer.endArray();
+                }
+                writer.endObject();
+            }
+        } finally {
+            cursor.close();
+        }
+        writer.endArray();
+
+        writer.name("schedules").beginArray();
+        cursor = queryTable(SmartMuteDatabaseHelper.TABLE_SCHEDULES);
+        try {
+            RowMappers.ScheduleMapper mapper = new RowMappers.ScheduleMapper(cursor);
+            while (cursor.moveToNext()) {
+                Schedule schedule = mapper.map(cursor);
+                writer.beginObject()
+                        .name(SmartMuteDatabaseHelper.KEY_NAME).value(schedule.getName())
+                        .name(SmartMuteDatabaseHelper.KEY_START_TIME).value(schedule.getStartTime())
+                        .name(SmartMuteDatabaseHelper.KEY_END_TIME).value(schedule.getEndTime())
+                        .name(SmartMuteDatabaseHelper.KEY_DAYS_MASK).value(schedule.getDaysMask())
+                        .name(SmartMuteDatabaseHelper.KEY_PROFILE_ID).value(schedule.getProfileId())
+                        .name(SmartMuteDatabaseHelper.KEY_ENABLED).value(schedule.isEnabled())
+                        .endObject();
+            }
+        } finally {
+            cursor.close();
+        }
+        writer.endArray();
+
+        writer.name("contacts").beginArray();
+        cursor = queryTable(SmartMuteDatabaseHelper.TABLE_EMERGENCY_CONTACTS);
+        try {
+            RowMappers.EmergencyContactMapper mapper = new RowMappers.EmergencyContactMapper(cursor);
+            while (cursor.moveToNext()) {
+                EmergencyContact contact = mapper.map(cursor);
+                writer.beginObject()
+                        .name(SmartMuteDatabaseHelper.KEY_NAME).value(contact.getName())
+                        .name(SmartMuteDatabaseHelper.KEY_PHONE).value(contact.getPhoneNumber())
+                        .name(SmartMuteDatabaseHelper.KEY_CALL_COUNT_THRESHOLD).value(contact.getCallCountThreshold())
+                        .name(SmartMuteDatabaseHelper.KEY_WINDOW_MINUTES).value(contact.getWindowMinutes())
+                        .name(SmartMuteDatabaseHelper.KEY_RING_OVERRIDE).value(contact.isRingOverride())
+                        .endObject();
+            }
+        } finally {
+            cursor.close();
+        }
+        writer.endArray();
+
+        writer.endObject();
+        writer.flush();
+    }
+
+    private static void writePolygon(JsonWriter writer, PreparedPolygon polygon) throws IOException {
+        double[] vertices = polygon.getVertices();
+        writer.name(SmartMuteDatabaseHelper.KEY_POLYGON).beginArray();
+        for (int i = 0; i < vertices.length; i += 2) {
+            writer.beginArray().value(vertices[i]).value(vertices[i + 1]).endArray();
+        }
+        writer.endArray();
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.smartmute;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable view of every enabled rule, rebuilt by SmartMuteDatabaseHelper
+ * whenever one of its write methods commits. Readers on the location path
+ * only ever see a complete snapshot and never touch the database.
+ */
+public final class RuleSnapshot {
+    private final List<SmartLocation> activeLocations;
+    private final List<Schedule> activeSchedules;
+    private final List<EmergencyContact> emergencyContacts;
+    private final Map<Integer, Profile> profilesById;
+    private final Map<Integer, SmartLocation> locationsById;
+    private final GeofenceIndex geofenceIndex;
+
+    RuleSnapshot(List<SmartLocation> activeLocations, List<Schedule> activeSchedules,
+                 List<Profile> profiles, List<EmergencyContact> emergencyContacts,
+                 GeofenceIndex geofenceIndex) {
+        this.activeLocations = Collections.unmodifiableList(new ArrayList<>(activeLocations));
+        this.activeSchedules = Collections.unmodifiableList(new ArrayList<>(activeSchedules));
+        this.emergencyContacts = Collections.unmodifiableList(new ArrayList<>(emergencyContacts));
+
+        Map<Integer, Profile> profileMap = new HashMap<>();
+        for (Profile profile : profiles) {
+            profileMap.put(profile.getId(), profile);
+        }
+        this.profilesById = Collections.unmodifiableMap(profileMap);
+
+        Map<Integer, SmartLocation> locationMap = new HashMap<>();
+        for (SmartLocation location : activeLocations) {
+            locationMap.put(location.getId(), location);
+        }
+        this.locationsById = Collections.unmodifiableMap(locationMap);
+        this.geofenceIndex = geofenceIndex;
+    }
+
+    // Entries are shared between readers, treat them as read-only
+    public List<SmartLocation> getActiveLocations() { return activeLocations; }
+
+    public List<Schedule> getActiveSchedules() { return activeSchedules; }
+
+    public List<EmergencyContact> getEmergencyContacts() { return emergencyContacts; }
+
+    public Profile getProfile(int id) { return profilesById.get(id); }
+
+    public SmartLocation getActiveLocation(int id) { return locationsById.get(id); }
+
+    // Spatial index over the same active locations
+    public GeofenceIndex getGeofenceIndex() { return geofenceIndex; }
+}
@@ -52,10 +52,71 @@ public class SchedulesFragment extends Fragment {
         loadProfiles();
         loadSchedules();
         setupClickListeners();
+        databaseHelper.addChangeListener(changeListener);
 
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        databaseHelper.removeChangeListener(changeListener);
+    }
+
+    // Refreshes only the row that changed; alarms are kept in step by AlarmUtils' schedule sync
+    private final DataChange.Listener changeListener = change -> {
+        if (change.isReload()) {
+            // A bulk write such as an import: one full reload instead of a query per row
+            if (change.affects(DataChange.Entity.PROFILE)) {
+                loadProfiles();
+            }
+            if (change.affects(DataChange.Entity.SCHEDULE)) {
+                loadSchedules();
+            } else if (change.affects(DataChange.Entity.PROFILE)) {
+                schedulesAdapter.notifyDataSetChanged();
+            }
+            return;
+        }
+        if (change.getEntity() == DataChange.Entity.PROFILE) {
+            loadProfiles();
+            schedulesAdapter.notifyDataSetChanged();
+            return;
+        }
+        if (change.getEntity() != DataChange.Entity.SCHEDULE) {
+            return;
+        }
+
+        int position = findSchedulePosition(change.getId());
+        if (change.getOperation() == DataChange.Operation.DELETED) {
+            if (position >= 0) {
+                schedulesList.remove(position);
+                schedulesAdapter.notifyItemRemoved(position);
+            }
+            return;
+        }
+
+        Schedule schedule = databaseHelper.getSchedule(change.getId());
+        if (schedule == null) {
+            return;
+        }
+        if (position >= 0) {
+            schedulesList.set(position, schedule);
+            schedulesAdapter.notifyItemChanged(position);
+        } else {
+            schedulesList.add(schedule);
+            schedulesAdapter.notifyItemInserted(schedulesList.size() - 1);
+        }
+    };
+
+    private int findSchedulePosition(int scheduleId) {
+        for (int i = 0; i < schedulesList.size(); i++) {
+            if (schedulesList.get(i).getId() == scheduleId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     private void initializeViews(View view) {
         schedulesRecyclerView = view.findViewById(R.id.schedules_recycler_view);
         btnAddSchedule = view.findViewById(R.id.btn_add_schedule);
@@ -77,7 +138,7 @@ public class SchedulesFragment extends Fragment {
     }
 
     private void setupDatabase() {
-        databaseHelper = new SmartMuteDatabaseHelper(requireContext());
+        databaseHelper = SmartMuteDatabaseHelper.getInstance(requireContext());
     }
 
     private void setupRecyclerView() {
@@ -186,16 +247,8 @@ public class SchedulesFragment extends Fragment {
 
         long id = databaseHelper.addSchedule(schedule);
         if (id != -1) {
-            schedule.setId((int) id);
-
-            // Schedule both start and end alarms
-            AlarmUtils alarmUtils = new AlarmUtils(requireContext());
-            alarmUtils.scheduleAlarmsForSchedule(schedule);
-            alarmUtils.cleanup();
-
             Toast.makeText(requireContext(), "Schedule added successfully", Toast.LENGTH_SHORT).show();
             clearForm();
-            loadSchedules();
         } else {
             Toast.makeText(requireContext(), "Failed to add schedule", Toast.LENGTH_SHORT).show();
         }
@@ -237,14 +290,6 @@ public class SchedulesFragment extends Fragment {
         }
     }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        if (databaseHelper != null) {
-            databaseHelper.close();
-        }
-    }
-
     // Schedules Adapter
     private class SchedulesAdapter extends RecyclerView.Adapter<SchedulesAdapter.ScheduleViewHolder> {
         private List<Schedule> schedules;
@@ -379,17 +424,8 @@ public class SchedulesFragment extends Fragment {
 
                 boolean updated = databaseHelper.updateSchedule(schedule);
                 if (updated) {
-                    // Update alarms
-                    AlarmUtils alarmUtils = new AlarmUtils(requireContext());
-                    alarmUtils.cancelAlarmsForSchedule(schedule.getId());
-                    if (schedule.isEnabled()) {
-                        alarmUtils.scheduleAlarmsForSchedule(schedule);
-                    }
-                    alarmUtils.cleanup();
-
                     Toast.makeText(requireContext(), "Schedule updated", Toast.LENGTH_SHORT).show();
                     clearForm();
-                    loadSchedules();
                     // Reset add button
                     btnAddSchedule.setText("Add Schedule");
                     btnAddSchedule.setOnClickListener(v -> addNewSchedule());
@@ -397,15 +433,8 @@ public class SchedulesFragment extends Fragment {
             }
 
             private void deleteSchedule(Schedule schedule) {
-                // Cancel alarms first
-                AlarmUtils alarmUtils = new AlarmUtils(requireContext());
-                alarmUtils.cancelAlarmsForSchedule(schedule.getId());
-                alarmUtils.cleanup();
-
                 boolean deleted = databaseHelper.deleteSchedule(schedule.getId());
                 if (deleted) {
-                    schedules.remove(schedule);
-                    notifyDataSetChanged();
                     Toast.makeText(requireContext(), "Schedule deleted", Toast.LENGTH_SHORT).show();
                 }
             }
@@ -416,16 +445,6 @@ public class SchedulesFragment extends Fragment {
                 // Update in database
                 boolean updated = databaseHelper.updateSchedule(schedule);
                 if (updated) {
-                    // Update alarms
-                    AlarmUtils alarmUtils = new AlarmUtils(requireContext());
-                    if (schedule.isEnabled()) {
-                        alarmUtils.scheduleAlarmsForSchedule(schedule);
-                    } else {
-                        alarmUtils.cancelAlarmsForSchedule(schedule.getId());
-                    }
-                    alarmUtils.cleanup();
-
-                    notifyDataSetChanged();
                     Toast.makeText(requireContext(),
                             "Schedule " + (schedule.isEnabled() ? "enabled" : "disabled"),
                             Toast.LENGTH_SHORT).show();
@@ -1,5 +1,8 @@
 package com.example.smartmute;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class SmartLocation {
     private int id;
@@ -10,6 +13,13 @@ public class SmartLocation {
     private int profileId;
     private int revertProfileId;
     private boolean enabled;
+    // Higher wins where fences overlap
+    private int priority;
+    // Null for a plain circle; otherwise the circle encloses this polygon
+    private PreparedPolygon polygon;
+    // SSIDs and BSSIDs; when set this is a Wi-Fi place, entered by connecting
+    // to one of them, and its circle is unused
+    private List<String> wifiNetworks = Collections.emptyList();
 
     public SmartLocation() {}
 
@@ -49,4 +59,39 @@ public class SmartLocation {
 
     public boolean isEnabled() { return enabled; }
     public void setEnabled(boolean enabled) { this.enabled = enabled; }
-}
\ No newline at end of file
+
+    public int getPriority() { return priority; }
+    public void setPriority(int priority) { this.priority = priority; }
+
+    public boolean isPolygon() { return polygon != null; }
+
+    PreparedPolygon getPolygon() { return polygon; }
+
+    // Also moves the centre and radius to the circle around the polygon
+    void setPolygon(PreparedPolygon polygon) {
+        this.polygon = polygon;
+        if (polygon != null) {
+            this.latitude = polygon.getCenterLatitude();
+            this.longitude = polygon.getCenterLongitude();
+            this.radius = polygon.circumscribedRadius();
+        }
+    }
+
+    public boolean isWifiPlace() { return !wifiNetworks.isEmpty(); }
+
+    public List<String> getWifiNetworks() { return wifiNetworks; }
+
+    // Blank entries are dropped and BSSIDs lower-cased, so matching is exact
+    public void setWifiNetworks(List<String> networks) {
+        List<String> normalized = new ArrayList<>();
+        if (networks != null) {
+            for (String network : networks) {
+                String anchor = WifiPlaceMonitor.normalizeAnchor(network);
+                if (anchor != null && !normalized.contains(anchor)) {
+                    normalized.add(anchor);
+                }
+            }
+        }
+        wifiNetworks = normalized.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(normalized);
+    }
+}
@@ -3,17 +3,30 @@ package com.example.smartmute;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
 
 
 
 public class SmartMuteDatabaseHelper extends SQLiteOpenHelper {
+    private static final String TAG = "SmartMuteDatabaseHelper";
     private static final String DATABASE_NAME = "smartmute.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 8;
 
     // Table names
     public static final String TABLE_PROFILES = "profiles";
@@ -21,6 +34,8 @@ public class SmartMuteDatabaseHelper extends SQLiteOpenHelper {
     public static final String TABLE_SCHEDULES = "schedules";
     public static final String TABLE_EMERGENCY_CONTACTS = "emergency_contacts";
     public static final String TABLE_LOGS = "logs";
+    public static final String TABLE_DAILY_STATS = "daily_stats";
+    public static final String TABLE_CALL_EVENTS = "call_events";
 
     // Common column names
     public static final String KEY_ID = "id";
@@ -41,6 +56,9 @@ public class SmartMuteDatabaseHelper extends SQLiteOpenHelper {
     public static final String KEY_RADIUS = "radius";
     public static final String KEY_PROFILE_ID = "profile_id";
     public static final String KEY_REVERT_PROFILE_ID = "revert_profile_id";
+    public static final String KEY_PRIORITY = "priority";
+    public static final String KEY_POLYGON = "polygon";
+    public static final String KEY_WIFI_NETWORKS = "wifi_networks";
 
     // Schedules table columns
     public static final String KEY_START_TIME = "start_time";
@@ -52,14 +70,38 @@ public class SmartMuteDatabaseHelper extends SQLiteOpenHelper {
     public static final String KEY_CALL_COUNT_THRESHOLD = "call_count_threshold";
     public static final String KEY_WINDOW_MINUTES = "window_minutes";
     public static final String KEY_RING_OVERRIDE = "ring_override";
+    public static final String KEY_NORMALIZED_PHONE = "normalized_phone";
 
     // Logs table columns
     public static final String KEY_EVENT_TYPE = "event_type";
     public static final String KEY_DETAILS = "details";
     public static final String KEY_CREATED_AT = "created_at";
 
-    public SmartMuteDatabaseHelper(Context context) {
+    // Daily stats table columns
+    public static final String KEY_DAY = "day";
+    public static final String KEY_EVENT_COUNT = "event_count";
+    public static final String KEY_TOTAL_DURATION = "total_duration_seconds";
+
+    // Call events table columns
+    public static final String KEY_OCCURRED_AT = "occurred_at";
+
+    private static SmartMuteDatabaseHelper instance;
+
+    private final EventLogWriter logWriter = new EventLogWriter(this);
+
+    // One helper (and therefore one connection pool) per process. Receivers, services
+    // and fragments all share it, so it must never be closed by a caller.
+    public static synchronized SmartMuteDatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new SmartMuteDatabaseHelper(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SmartMuteDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // WAL lets readers (location callbacks, UI) run alongside a writer
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -69,6 +111,9 @@ public class SmartMuteDatabaseHelper extends SQLiteOpenHelper {
         createSchedulesTable(db);
         createEmergencyContactsTable(db);
         createLogsTable(db);
+        createDailyStatsTable(db);
+        createCallEventsTable(db);
+        createProfileReferenceIndexes(db);
     }
 
     private void createProfilesTable(SQLiteDatabase db) {
@@ -94,7 +139,10 @@ public class SmartMuteDatabaseHelper extends SQLiteOpenHelper {
                 + KEY_RADIUS + " INTEGER,"
                 + KEY_PROFILE_ID + " INTEGER,"
                 + KEY_REVERT_PROFILE_ID + " INTEGER,"
-                + KEY_ENABLED + " INTEGER DEFAULT 1"
+                + KEY_ENABLED + " INTEGER DEFAULT 1,"
+                + KEY_PRIORITY + " INTEGER NOT NULL DEFAULT 0,"
+                + KEY_POLYGON + " BLOB,"
+                + KEY_WIFI_NETWORKS + " TEXT"
                 + ")";
         db.execSQL(CREATE_LOCATIONS_TABLE);
     }
@@ -119,9 +167,16 @@ public class SmartMuteDatabaseHelper extends SQLiteOpenHelper {
                 + KEY_PHONE + " TEXT,"
                 + KEY_CALL_COUNT_THRESHOLD + " INTEGER,"
                 + KEY_WINDOW_MINUTES + " INTEGER,"
-                + KEY_RING_OVERRIDE + " INTEGER DEFAULT 1"
+                + KEY_RING_OVERRIDE + " INTEGER DEFAULT 1,"
+                + KEY_NORMALIZED_PHONE + " TEXT"
                 + ")";
         db.execSQL(CREATE_EMERGENCY_CONTACTS_TABLE);
+        createNormalizedPhoneIndex(db);
+    }
+
+    private void createNormalizedPhoneIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS idx_emergency_contacts_normalized_phone ON "
+                + TABLE_EMERGENCY_CONTACTS + "(" + KEY_NORMALIZED_PHONE + ")");
     }
 
     private void createLogsTable(SQLiteDatabase db) {
@@ -134,487 +189,716 @@ public class SmartMuteDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(CREATE_LOGS_TABLE);
     }
 
+    // Compact per-day rollup of log events that have aged out of the logs table
+    private void createDailyStatsTable(SQLiteDatabase db) {
+        String CREATE_DAILY_STATS_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_DAILY_STATS + "("
+                + KEY_DAY + " TEXT NOT NULL,"
+                + KEY_EVENT_TYPE + " TEXT NOT NULL,"
+                + KEY_EVENT_COUNT + " INTEGER NOT NULL DEFAULT 0,"
+                + KEY_TOTAL_DURATION + " INTEGER NOT NULL DEFAULT 0,"
+                + "PRIMARY KEY (" + KEY_DAY + ", " + KEY_EVENT_TYPE + ")"
+                + ")";
+        db.execSQL(CREATE_DAILY_STATS_TABLE);
+    }
+
+    // Lets profile usage checks seek instead of scanning locations and schedules
+    private void createProfileReferenceIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_locations_profile_id ON "
+                + TABLE_LOCATIONS + "(" + KEY_PROFILE_ID + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_locations_revert_profile_id ON "
+                + TABLE_LOCATIONS + "(" + KEY_REVERT_PROFILE_ID + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_schedules_profile_id ON "
+                + TABLE_SCHEDULES + "(" + KEY_PROFILE_ID + ")");
+    }
+
+    // Incoming calls per normalized number (epoch millis), for emergency burst detection
+    private void createCallEventsTable(SQLiteDatabase db) {
+        String CREATE_CALL_EVENTS_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_CALL_EVENTS + "("
+                + KEY_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + KEY_NORMALIZED_PHONE + " TEXT NOT NULL,"
+                + KEY_OCCURRED_AT + " INTEGER NOT NULL"
+                + ")";
+        db.execSQL(CREATE_CALL_EVENTS_TABLE);
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_call_events_phone_time ON "
+                + TABLE_CALL_EVENTS + "(" + KEY_NORMALIZED_PHONE + ", " + KEY_OCCURRED_AT + ")");
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_PROFILES);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_LOCATIONS);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SCHEDULES);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EMERGENCY_CONTACTS);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_LOGS);
-        onCreate(db);
+        // Migrate step by step so existing rules and contacts survive app updates
+        if (oldVersion < 2) {
+            upgradeToVersion2(db);
+        }
+        if (oldVersion < 3) {
+            createDailyStatsTable(db);
+        }
+        if (oldVersion < 4) {
+            createCallEventsTable(db);
+        }
+        if (oldVersion < 5) {
+            createProfileReferenceIndexes(db);
+        }
+        if (oldVersion < 6) {
+            // v6: explicit priority for overlapping fences; existing fences tie at 0
+            db.execSQL("ALTER TABLE " + TABLE_LOCATIONS + " ADD COLUMN " + KEY_PRIORITY
+                    + " INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 7) {
+            // v7: optional polygon outline; existing fences stay circles
+            db.execSQL("ALTER TABLE " + TABLE_LOCATIONS + " ADD COLUMN " + KEY_POLYGON + " BLOB");
+        }
+        if (oldVersion < 8) {
+            // v8: optional Wi-Fi networks; existing locations stay geographic
+            db.execSQL("ALTER TABLE " + TABLE_LOCATIONS + " ADD COLUMN " + KEY_WIFI_NETWORKS + " TEXT");
+        }
+    }
+
+    // v2: stored normalized phone number with a unique index for emergency lookups
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_EMERGENCY_CONTACTS + " ADD COLUMN " + KEY_NORMALIZED_PHONE + " TEXT");
+
+        Cursor cursor = db.query(TABLE_EMERGENCY_CONTACTS, new String[]{KEY_ID, KEY_NAME, KEY_PHONE,
+                        KEY_CALL_COUNT_THRESHOLD, KEY_WINDOW_MINUTES, KEY_RING_OVERRIDE},
+                null, null, null, null, KEY_ID);
+        // Oldest entry per number, as {id, threshold, window, ring override}
+        Map<String, int[]> kept = new HashMap<>();
+        ContentValues values = new ContentValues();
+        while (cursor.moveToNext()) {
+            int id = cursor.getInt(0);
+            String normalized = normalizePhoneNumber(cursor.getString(2));
+            if (normalized.isEmpty()) {
+                continue;
+            }
+            int[] settings = {id, cursor.getInt(3), cursor.getInt(4), cursor.getInt(5)};
+            int[] oldest = kept.get(normalized);
+            if (oldest == null) {
+                kept.put(normalized, settings);
+                values.clear();
+                values.put(KEY_NORMALIZED_PHONE, normalized);
+                db.update(TABLE_EMERGENCY_CONTACTS, values, KEY_ID + " = ?", new String[]{String.valueOf(id)});
+                continue;
+            }
+
+            // The same number was saved twice. The index must be unique, so fold this entry into the
+            // oldest one: it still rings through whenever either entry would have.
+            oldest[1] = Math.min(oldest[1], settings[1]);
+            oldest[2] = Math.max(oldest[2], settings[2]);
+            oldest[3] = oldest[3] != 0 || settings[3] != 0 ? 1 : 0;
+            values.clear();
+            values.put(KEY_CALL_COUNT_THRESHOLD, oldest[1]);
+            values.put(KEY_WINDOW_MINUTES, oldest[2]);
+            values.put(KEY_RING_OVERRIDE, oldest[3]);
+            db.update(TABLE_EMERGENCY_CONTACTS, values, KEY_ID + " = ?", new String[]{String.valueOf(oldest[0])});
+            db.delete(TABLE_EMERGENCY_CONTACTS, KEY_ID + " = ?", new String[]{String.valueOf(id)});
+            Log.w(TAG, "Merged duplicate emergency contact " + id + " (" + cursor.getString(1) + ", "
+                    + cursor.getString(2) + ") into contact " + oldest[0]);
+        }
+        cursor.close();
+
+        createNormalizedPhoneIndex(db);
+    }
+
+    // ==================== STATEMENTS ====================
+
+    private static final String SQL_INSERT_PROFILE = "INSERT INTO " + TABLE_PROFILES + " ("
+            + KEY_NAME + ", " + KEY_RINGTONE + ", " + KEY_MEDIA_VOLUME + ", " + KEY_CALL_VOLUME + ", "
+            + KEY_NOTIF_VOLUME + ", " + KEY_VIBRATE + ", " + KEY_DND + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String SQL_UPDATE_PROFILE = "UPDATE " + TABLE_PROFILES + " SET "
+            + KEY_NAME + " = ?, " + KEY_RINGTONE + " = ?, " + KEY_MEDIA_VOLUME + " = ?, " + KEY_CALL_VOLUME + " = ?, "
+            + KEY_NOTIF_VOLUME + " = ?, " + KEY_VIBRATE + " = ?, " + KEY_DND + " = ? WHERE " + KEY_ID + " = ?";
+    private static final String SQL_DELETE_PROFILE = "DELETE FROM " + TABLE_PROFILES + " WHERE " + KEY_ID + " = ?";
+    private static final String SQL_SELECT_PROFILE = "SELECT * FROM " + TABLE_PROFILES + " WHERE " + KEY_ID + " = ?";
+
+    // Each EXISTS stops at the first hit on its own index
+    private static final String SQL_PROFILE_IN_USE = "SELECT"
+            + " EXISTS(SELECT 1 FROM " + TABLE_LOCATIONS + " WHERE " + KEY_PROFILE_ID + " = ?1)"
+            + " OR EXISTS(SELECT 1 FROM " + TABLE_LOCATIONS + " WHERE " + KEY_REVERT_PROFILE_ID + " = ?1)"
+            + " OR EXISTS(SELECT 1 FROM " + TABLE_SCHEDULES + " WHERE " + KEY_PROFILE_ID + " = ?1)";
+    // Rules referencing each profile; a location using one profile for both enter and exit counts once
+    private static final String SQL_PROFILE_USAGE_COUNTS = "SELECT " + KEY_PROFILE_ID + ", COUNT(*) FROM ("
+            + "SELECT " + KEY_PROFILE_ID + " FROM " + TABLE_LOCATIONS
+            + " UNION ALL SELECT " + KEY_REVERT_PROFILE_ID + " FROM " + TABLE_LOCATIONS
+            + " WHERE " + KEY_REVERT_PROFILE_ID + " != " + KEY_PROFILE_ID
+            + " UNION ALL SELECT " + KEY_PROFILE_ID + " FROM " + TABLE_SCHEDULES
+            + ") GROUP BY " + KEY_PROFILE_ID;
+
+    private static final String SQL_INSERT_LOCATION = "INSERT INTO " + TABLE_LOCATIONS + " ("
+            + KEY_NAME + ", " + KEY_LATITUDE + ", " + KEY_LONGITUDE + ", " + KEY_RADIUS + ", "
+            + KEY_PROFILE_ID + ", " + KEY_REVERT_PROFILE_ID + ", " + KEY_ENABLED + ", " + KEY_PRIORITY + ", "
+            + KEY_POLYGON + ", " + KEY_WIFI_NETWORKS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String SQL_UPDATE_LOCATION = "UPDATE " + TABLE_LOCATIONS + " SET "
+            + KEY_NAME + " = ?, " + KEY_LATITUDE + " = ?, " + KEY_LONGITUDE + " = ?, " + KEY_RADIUS + " = ?, "
+            + KEY_PROFILE_ID + " = ?, " + KEY_REVERT_PROFILE_ID + " = ?, " + KEY_ENABLED + " = ?, "
+            + KEY_PRIORITY + " = ?, " + KEY_POLYGON + " = ?, " + KEY_WIFI_NETWORKS + " = ? WHERE "
+            + KEY_ID + " = ?";
+    private static final String SQL_DELETE_LOCATION = "DELETE FROM " + TABLE_LOCATIONS + " WHERE " + KEY_ID + " = ?";
+    private static final String SQL_SELECT_LOCATION = "SELECT * FROM " + TABLE_LOCATIONS + " WHERE " + KEY_ID + " = ?";
+
+    private static final String SQL_INSERT_SCHEDULE = "INSERT INTO " + TABLE_SCHEDULES + " ("
+            + KEY_NAME + ", " + KEY_START_TIME + ", " + KEY_END_TIME + ", " + KEY_DAYS_MASK + ", "
+            + KEY_PROFILE_ID + ", " + KEY_ENABLED + ") VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String SQL_UPDATE_SCHEDULE = "UPDATE " + TABLE_SCHEDULES + " SET "
+            + KEY_NAME + " = ?, " + KEY_START_TIME + " = ?, " + KEY_END_TIME + " = ?, " + KEY_DAYS_MASK + " = ?, "
+            + KEY_PROFILE_ID + " = ?, " + KEY_ENABLED + " = ? WHERE " + KEY_ID + " = ?";
+    private static final String SQL_DELETE_SCHEDULE = "DELETE FROM " + TABLE_SCHEDULES + " WHERE " + KEY_ID + " = ?";
+    private static final String SQL_SELECT_SCHEDULE = "SELECT * FROM " + TABLE_SCHEDULES + " WHERE " + KEY_ID + " = ?";
+
+    private static final String SQL_INSERT_CONTACT = "INSERT INTO " + TABLE_EMERGENCY_CONTACTS + " ("
+            + KEY_NAME + ", " + KEY_PHONE + ", " + KEY_NORMALIZED_PHONE + ", " + KEY_CALL_COUNT_THRESHOLD + ", "
+            + KEY_WINDOW_MINUTES + ", " + KEY_RING_OVERRIDE + ") VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String SQL_UPDATE_CONTACT = "UPDATE " + TABLE_EMERGENCY_CONTACTS + " SET "
+            + KEY_NAME + " = ?, " + KEY_PHONE + " = ?, " + KEY_NORMALIZED_PHONE + " = ?, " + KEY_CALL_COUNT_THRESHOLD + " = ?, "
+            + KEY_WINDOW_MINUTES + " = ?, " + KEY_RING_OVERRIDE + " = ? WHERE " + KEY_ID + " = ?";
+    private static final String SQL_DELETE_CONTACT = "DELETE FROM " + TABLE_EMERGENCY_CONTACTS + " WHERE " + KEY_ID + " = ?";
+    private static final String SQL_SELECT_CONTACT = "SELECT * FROM " + TABLE_EMERGENCY_CONTACTS + " WHERE " + KEY_ID + " = ?";
+    private static final String SQL_SELECT_CONTACT_BY_PHONE = "SELECT * FROM " + TABLE_EMERGENCY_CONTACTS
+            + " WHERE " + KEY_NORMALIZED_PHONE + " = ?";
+
+    private static final String SQL_INSERT_CALL_EVENT = "INSERT INTO " + TABLE_CALL_EVENTS + " ("
+            + KEY_NORMALIZED_PHONE + ", " + KEY_OCCURRED_AT + ") VALUES (?, ?)";
+    private static final String SQL_COUNT_CALL_EVENTS = "SELECT COUNT(*) FROM " + TABLE_CALL_EVENTS
+            + " WHERE " + KEY_NORMALIZED_PHONE + " = ? AND " + KEY_OCCURRED_AT + " >= ?";
+    private static final String SQL_DELETE_CALL_EVENTS_FOR_PHONE = "DELETE FROM " + TABLE_CALL_EVENTS
+            + " WHERE " + KEY_NORMALIZED_PHONE + " = ?";
+    private static final String SQL_PRUNE_CALL_EVENTS = "DELETE FROM " + TABLE_CALL_EVENTS
+            + " WHERE " + KEY_OCCURRED_AT + " < ?";
+
+    // Statements are compiled per call: SQLite keeps its own prepared-statement cache per
+    // connection, and a statement shared between threads would have to be locked while it
+    // waits for a connection that a bulk transaction may be holding.
+    private long executeInsert(String sql, StatementBinder binder) {
+        SQLiteStatement statement = getWritableDatabase().compileStatement(sql);
+        try {
+            binder.bind(statement);
+            return statement.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            Log.w(TAG, "Insert rejected: " + e.getMessage());
+            return -1;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private int executeUpdateDelete(String sql, StatementBinder binder) {
+        SQLiteStatement statement = getWritableDatabase().compileStatement(sql);
+        try {
+            binder.bind(statement);
+            return statement.executeUpdateDelete();
+        } catch (SQLiteConstraintException e) {
+            Log.w(TAG, "Update rejected: " + e.getMessage());
+            return 0;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private long queryForLong(String sql, StatementBinder binder) {
+        SQLiteStatement statement = getReadableDatabase().compileStatement(sql);
+        try {
+            binder.bind(statement);
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private interface StatementBinder {
+        void bind(SQLiteStatement statement);
     }
 
     // ==================== PROFILE OPERATIONS ====================
 
+    private static void bindProfile(SQLiteStatement statement, Profile profile) {
+        bindString(statement, 1, profile.getName());
+        bindString(statement, 2, profile.getRingtone());
+        statement.bindLong(3, profile.getMediaVolume());
+        statement.bindLong(4, profile.getCallVolume());
+        statement.bindLong(5, profile.getNotificationVolume());
+        statement.bindLong(6, profile.isVibrate() ? 1 : 0);
+        statement.bindLong(7, profile.isDnd() ? 1 : 0);
+    }
+
     public long addProfile(Profile profile) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(KEY_NAME, profile.getName());
-        values.put(KEY_RINGTONE, profile.getRingtone());
-        values.put(KEY_MEDIA_VOLUME, profile.getMediaVolume());
-        values.put(KEY_CALL_VOLUME, profile.getCallVolume());
-        values.put(KEY_NOTIF_VOLUME, profile.getNotificationVolume());
-        values.put(KEY_VIBRATE, profile.isVibrate() ? 1 : 0);
-        values.put(KEY_DND, profile.isDnd() ? 1 : 0);
-
-        long id = db.insert(TABLE_PROFILES, null, values);
-        db.close();
+        long id = executeInsert(SQL_INSERT_PROFILE, statement -> bindProfile(statement, profile));
+        if (id != -1) publishChange(DataChange.Entity.PROFILE, (int) id, DataChange.Operation.INSERTED);
         return id;
     }
 
     public Profile getProfile(long id) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_PROFILES, null, KEY_ID + "=?",
-                new String[]{String.valueOf(id)}, null, null, null);
-
-        Profile profile = null;
-        if (cursor != null && cursor.moveToFirst()) {
-            profile = new Profile();
-            profile.setId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ID)));
-            profile.setName(cursor.getString(cursor.getColumnIndexOrThrow(KEY_NAME)));
-            profile.setRingtone(cursor.getString(cursor.getColumnIndexOrThrow(KEY_RINGTONE)));
-            profile.setMediaVolume(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_MEDIA_VOLUME)));
-            profile.setCallVolume(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_CALL_VOLUME)));
-            profile.setNotificationVolume(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_NOTIF_VOLUME)));
-            profile.setVibrate(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_VIBRATE)) == 1);
-            profile.setDnd(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_DND)) == 1);
-            cursor.close();
-        }
-        return profile;
+        Cursor cursor = getReadableDatabase().rawQuery(SQL_SELECT_PROFILE, new String[]{String.valueOf(id)});
+        return RowMappers.mapFirst(cursor, new RowMappers.ProfileMapper(cursor));
     }
 
     public List<Profile> getAllProfiles() {
-        List<Profile> profiles = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_PROFILES, null);
-
-        if (cursor.moveToFirst()) {
-            do {
-                Profile profile = new Profile();
-                profile.setId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ID)));
-                profile.setName(cursor.getString(cursor.getColumnIndexOrThrow(KEY_NAME)));
-                profile.setRingtone(cursor.getString(cursor.getColumnIndexOrThrow(KEY_RINGTONE)));
-                profile.setMediaVolume(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_MEDIA_VOLUME)));
-                profile.setCallVolume(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_CALL_VOLUME)));
-                profile.setNotificationVolume(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_NOTIF_VOLUME)));
-                profile.setVibrate(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_VIBRATE)) == 1);
-                profile.setDnd(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_DND)) == 1);
-                profiles.add(profile);
-            } while (cursor.moveToNext());
-        }
-        cursor.close();
-        return profiles;
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT * FROM " + TABLE_PROFILES, null);
+        return RowMappers.mapAll(cursor, new RowMappers.ProfileMapper(cursor));
     }
 
     public boolean updateProfile(Profile profile) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(KEY_NAME, profile.getName());
-        values.put(KEY_RINGTONE, profile.getRingtone());
-        values.put(KEY_MEDIA_VOLUME, profile.getMediaVolume());
-        values.put(KEY_CALL_VOLUME, profile.getCallVolume());
-        values.put(KEY_NOTIF_VOLUME, profile.getNotificationVolume());
-        values.put(KEY_VIBRATE, profile.isVibrate() ? 1 : 0);
-        values.put(KEY_DND, profile.isDnd() ? 1 : 0);
-
-        int result = db.update(TABLE_PROFILES, values, KEY_ID + " = ?",
-                new String[]{String.valueOf(profile.getId())});
-        db.close();
+        int result = executeUpdateDelete(SQL_UPDATE_PROFILE, statement -> {
+            bindProfile(statement, profile);
+            statement.bindLong(8, profile.getId());
+        });
+        if (result > 0) publishChange(DataChange.Entity.PROFILE, profile.getId(), DataChange.Operation.UPDATED);
         return result > 0;
     }
 
     public boolean deleteProfile(int profileId) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        int result = db.delete(TABLE_PROFILES, KEY_ID + " = ?", new String[]{String.valueOf(profileId)});
-        db.close();
+        int result = executeUpdateDelete(SQL_DELETE_PROFILE, statement -> statement.bindLong(1, profileId));
+        if (result > 0) publishChange(DataChange.Entity.PROFILE, profileId, DataChange.Operation.DELETED);
         return result > 0;
     }
 
     public boolean isProfileInUse(int profileId) {
-        SQLiteDatabase db = this.getReadableDatabase();
-
-        // Check if profile is used in locations
-        Cursor locationCursor = db.query(TABLE_LOCATIONS, null,
-                KEY_PROFILE_ID + " = ? OR " + KEY_REVERT_PROFILE_ID + " = ?",
-                new String[]{String.valueOf(profileId), String.valueOf(profileId)},
-                null, null, null);
-        boolean inLocations = locationCursor.getCount() > 0;
-        locationCursor.close();
-
-        // Check if profile is used in schedules
-        Cursor scheduleCursor = db.query(TABLE_SCHEDULES, null,
-                KEY_PROFILE_ID + " = ?",
-                new String[]{String.valueOf(profileId)},
-                null, null, null);
-        boolean inSchedules = scheduleCursor.getCount() > 0;
-        scheduleCursor.close();
-
-        return inLocations || inSchedules;
+        return queryForLong(SQL_PROFILE_IN_USE, statement -> statement.bindLong(1, profileId)) != 0;
+    }
+
+    // Usage count for every referenced profile in one query; unused profiles are absent
+    public Map<Integer, Integer> getProfileUsageCounts() {
+        Map<Integer, Integer> counts = new HashMap<>();
+        Cursor cursor = getReadableDatabase().rawQuery(SQL_PROFILE_USAGE_COUNTS, null);
+        try {
+            while (cursor.moveToNext()) {
+                counts.put(cursor.getInt(0), cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return counts;
     }
 
     // ==================== LOCATION OPERATIONS ====================
 
+    private static void bindLocation(SQLiteStatement statement, SmartLocation location) {
+        bindString(statement, 1, location.getName());
+        statement.bindDouble(2, location.getLatitude());
+        statement.bindDouble(3, location.getLongitude());
+        statement.bindLong(4, location.getRadius());
+        statement.bindLong(5, location.getProfileId());
+        statement.bindLong(6, location.getRevertProfileId());
+        statement.bindLong(7, location.isEnabled() ? 1 : 0);
+        statement.bindLong(8, location.getPriority());
+        if (location.isPolygon()) {
+            statement.bindBlob(9, location.getPolygon().encode());
+        } else {
+            statement.bindNull(9);
+        }
+        if (location.isWifiPlace()) {
+            // One per line: SSIDs may contain commas but not line breaks
+            statement.bindString(10, String.join("\n", location.getWifiNetworks()));
+        } else {
+            statement.bindNull(10);
+        }
+    }
+
     public long addLocation(SmartLocation location) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(KEY_NAME, location.getName());
-        values.put(KEY_LATITUDE, location.getLatitude());
-        values.put(KEY_LONGITUDE, location.getLongitude());
-        values.put(KEY_RADIUS, location.getRadius());
-        values.put(KEY_PROFILE_ID, location.getProfileId());
-        values.put(KEY_REVERT_PROFILE_ID, location.getRevertProfileId());
-        values.put(KEY_ENABLED, location.isEnabled() ? 1 : 0);
-
-        long id = db.insert(TABLE_LOCATIONS, null, values);
-        db.close();
+        long id = executeInsert(SQL_INSERT_LOCATION, statement -> bindLocation(statement, location));
+        if (id != -1) publishChange(DataChange.Entity.LOCATION, (int) id, DataChange.Operation.INSERTED);
         return id;
     }
 
     public List<SmartLocation> getAllLocations() {
-        List<SmartLocation> locations = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_LOCATIONS + " ORDER BY " + KEY_NAME, null);
-
-        if (cursor.moveToFirst()) {
-            do {
-                SmartLocation location = new SmartLocation();
-                location.setId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ID)));
-                location.setName(cursor.getString(cursor.getColumnIndexOrThrow(KEY_NAME)));
-                location.setLatitude(cursor.getDouble(cursor.getColumnIndexOrThrow(KEY_LATITUDE)));
-                location.setLongitude(cursor.getDouble(cursor.getColumnIndexOrThrow(KEY_LONGITUDE)));
-                location.setRadius(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_RADIUS)));
-                location.setProfileId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_PROFILE_ID)));
-                location.setRevertProfileId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_REVERT_PROFILE_ID)));
-                location.setEnabled(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ENABLED)) == 1);
-                locations.add(location);
-            } while (cursor.moveToNext());
-        }
-        cursor.close();
-        return locations;
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT * FROM " + TABLE_LOCATIONS + " ORDER BY " + KEY_NAME, null);
+        return RowMappers.mapAll(cursor, new RowMappers.LocationMapper(cursor));
     }
 
     public SmartLocation getLocation(int locationId) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_LOCATIONS, null, KEY_ID + "=?",
-                new String[]{String.valueOf(locationId)}, null, null, null);
-
-        SmartLocation location = null;
-        if (cursor != null && cursor.moveToFirst()) {
-            location = new SmartLocation();
-            location.setId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ID)));
-            location.setName(cursor.getString(cursor.getColumnIndexOrThrow(KEY_NAME)));
-            location.setLatitude(cursor.getDouble(cursor.getColumnIndexOrThrow(KEY_LATITUDE)));
-            location.setLongitude(cursor.getDouble(cursor.getColumnIndexOrThrow(KEY_LONGITUDE)));
-            location.setRadius(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_RADIUS)));
-            location.setProfileId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_PROFILE_ID)));
-            location.setRevertProfileId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_REVERT_PROFILE_ID)));
-            location.setEnabled(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ENABLED)) == 1);
-            cursor.close();
-        }
-        return location;
+        Cursor cursor = getReadableDatabase().rawQuery(SQL_SELECT_LOCATION, new String[]{String.valueOf(locationId)});
+        return RowMappers.mapFirst(cursor, new RowMappers.LocationMapper(cursor));
     }
 
     public boolean updateLocation(SmartLocation location) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(KEY_NAME, location.getName());
-        values.put(KEY_LATITUDE, location.getLatitude());
-        values.put(KEY_LONGITUDE, location.getLongitude());
-        values.put(KEY_RADIUS, location.getRadius());
-        values.put(KEY_PROFILE_ID, location.getProfileId());
-        values.put(KEY_REVERT_PROFILE_ID, location.getRevertProfileId());
-        values.put(KEY_ENABLED, location.isEnabled() ? 1 : 0);
-
-        int result = db.update(TABLE_LOCATIONS, values, KEY_ID + " = ?",
-                new String[]{String.valueOf(location.getId())});
-        db.close();
+        int result = executeUpdateDelete(SQL_UPDATE_LOCATION, statement -> {
+            bindLocation(statement, location);
+            statement.bindLong(11, location.getId());
+        });
+        if (result > 0) publishChange(DataChange.Entity.LOCATION, location.getId(), DataChange.Operation.UPDATED);
         return result > 0;
     }
 
     public boolean deleteLocation(int locationId) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        int result = db.delete(TABLE_LOCATIONS, KEY_ID + " = ?", new String[]{String.valueOf(locationId)});
-        db.close();
+        int result = executeUpdateDelete(SQL_DELETE_LOCATION, statement -> statement.bindLong(1, locationId));
+        if (result > 0) publishChange(DataChange.Entity.LOCATION, locationId, DataChange.Operation.DELETED);
         return result > 0;
     }
 
     public List<SmartLocation> getActiveLocations() {
-        List<SmartLocation> locations = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_LOCATIONS + " WHERE " + KEY_ENABLED + " = 1", null);
-
-        if (cursor.moveToFirst()) {
-            do {
-                SmartLocation location = new SmartLocation();
-                location.setId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ID)));
-                location.setName(cursor.getString(cursor.getColumnIndexOrThrow(KEY_NAME)));
-                location.setLatitude(cursor.getDouble(cursor.getColumnIndexOrThrow(KEY_LATITUDE)));
-                location.setLongitude(cursor.getDouble(cursor.getColumnIndexOrThrow(KEY_LONGITUDE)));
-                location.setRadius(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_RADIUS)));
-                location.setProfileId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_PROFILE_ID)));
-                location.setRevertProfileId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_REVERT_PROFILE_ID)));
-                location.setEnabled(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ENABLED)) == 1);
-                locations.add(location);
-            } while (cursor.moveToNext());
-        }
-        cursor.close();
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT * FROM " + TABLE_LOCATIONS + " WHERE " + KEY_ENABLED + " = 1", null);
+        List<SmartLocation> locations = RowMappers.mapAll(cursor, new RowMappers.LocationMapper(cursor));
+        // The mapper disables fences whose stored polygon can't be read
+        locations.removeIf(location -> !location.isEnabled());
         return locations;
     }
 
     // ==================== SCHEDULE OPERATIONS ====================
 
+    private static void bindSchedule(SQLiteStatement statement, Schedule schedule) {
+        bindString(statement, 1, schedule.getName());
+        bindString(statement, 2, schedule.getStartTime());
+        bindString(statement, 3, schedule.getEndTime());
+        statement.bindLong(4, schedule.getDaysMask());
+        statement.bindLong(5, schedule.getProfileId());
+        statement.bindLong(6, schedule.isEnabled() ? 1 : 0);
+    }
+
     public long addSchedule(Schedule schedule) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(KEY_NAME, schedule.getName());
-        values.put(KEY_START_TIME, schedule.getStartTime());
-        values.put(KEY_END_TIME, schedule.getEndTime());
-        values.put(KEY_DAYS_MASK, schedule.getDaysMask());
-        values.put(KEY_PROFILE_ID, schedule.getProfileId());
-        values.put(KEY_ENABLED, schedule.isEnabled() ? 1 : 0);
-
-        long id = db.insert(TABLE_SCHEDULES, null, values);
-        db.close();
+        long id = executeInsert(SQL_INSERT_SCHEDULE, statement -> bindSchedule(statement, schedule));
+        if (id != -1) publishChange(DataChange.Entity.SCHEDULE, (int) id, DataChange.Operation.INSERTED);
         return id;
     }
 
     public List<Schedule> getAllSchedules() {
-        List<Schedule> schedules = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_SCHEDULES + " ORDER BY " + KEY_START_TIME, null);
-
-        if (cursor.moveToFirst()) {
-            do {
-                Schedule schedule = new Schedule();
-                schedule.setId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ID)));
-                schedule.setName(cursor.getString(cursor.getColumnIndexOrThrow(KEY_NAME)));
-                schedule.setStartTime(cursor.getString(cursor.getColumnIndexOrThrow(KEY_START_TIME)));
-                schedule.setEndTime(cursor.getString(cursor.getColumnIndexOrThrow(KEY_END_TIME)));
-                schedule.setDaysMask(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_DAYS_MASK)));
-                schedule.setProfileId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_PROFILE_ID)));
-                schedule.setEnabled(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ENABLED)) == 1);
-                schedules.add(schedule);
-            } while (cursor.moveToNext());
-        }
-        cursor.close();
-        return schedules;
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT * FROM " + TABLE_SCHEDULES + " ORDER BY " + KEY_START_TIME, null);
+        return RowMappers.mapAll(cursor, new RowMappers.ScheduleMapper(cursor));
     }
 
     public Schedule getSchedule(int id) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_SCHEDULES, null, KEY_ID + "=?",
-                new String[]{String.valueOf(id)}, null, null, null);
-
-        Schedule schedule = null;
-        if (cursor != null && cursor.moveToFirst()) {
-            schedule = new Schedule();
-            schedule.setId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ID)));
-            schedule.setName(cursor.getString(cursor.getColumnIndexOrThrow(KEY_NAME)));
-            schedule.setStartTime(cursor.getString(cursor.getColumnIndexOrThrow(KEY_START_TIME)));
-            schedule.setEndTime(cursor.getString(cursor.getColumnIndexOrThrow(KEY_END_TIME)));
-            schedule.setDaysMask(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_DAYS_MASK)));
-            schedule.setProfileId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_PROFILE_ID)));
-            schedule.setEnabled(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ENABLED)) == 1);
-            cursor.close();
-        }
-        return schedule;
+        Cursor cursor = getReadableDatabase().rawQuery(SQL_SELECT_SCHEDULE, new String[]{String.valueOf(id)});
+        return RowMappers.mapFirst(cursor, new RowMappers.ScheduleMapper(cursor));
     }
 
     public List<Schedule> getActiveSchedules() {
-        List<Schedule> schedules = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_SCHEDULES + " WHERE " + KEY_ENABLED + " = 1", null);
-
-        if (cursor.moveToFirst()) {
-            do {
-                Schedule schedule = new Schedule();
-                schedule.setId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ID)));
-                schedule.setName(cursor.getString(cursor.getColumnIndexOrThrow(KEY_NAME)));
-                schedule.setStartTime(cursor.getString(cursor.getColumnIndexOrThrow(KEY_START_TIME)));
-                schedule.setEndTime(cursor.getString(cursor.getColumnIndexOrThrow(KEY_END_TIME)));
-                schedule.setDaysMask(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_DAYS_MASK)));
-                schedule.setProfileId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_PROFILE_ID)));
-                schedule.setEnabled(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ENABLED)) == 1);
-                schedules.add(schedule);
-            } while (cursor.moveToNext());
-        }
-        cursor.close();
-        return schedules;
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT * FROM " + TABLE_SCHEDULES + " WHERE " + KEY_ENABLED + " = 1", null);
+        return RowMappers.mapAll(cursor, new RowMappers.ScheduleMapper(cursor));
     }
 
     public boolean updateSchedule(Schedule schedule) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(KEY_NAME, schedule.getName());
-        values.put(KEY_START_TIME, schedule.getStartTime());
-        values.put(KEY_END_TIME, schedule.getEndTime());
-        values.put(KEY_DAYS_MASK, schedule.getDaysMask());
-        values.put(KEY_PROFILE_ID, schedule.getProfileId());
-        values.put(KEY_ENABLED, schedule.isEnabled() ? 1 : 0);
-
-        int result = db.update(TABLE_SCHEDULES, values, KEY_ID + " = ?",
-                new String[]{String.valueOf(schedule.getId())});
-        db.close();
+        int result = executeUpdateDelete(SQL_UPDATE_SCHEDULE, statement -> {
+            bindSchedule(statement, schedule);
+            statement.bindLong(7, schedule.getId());
+        });
+        if (result > 0) publishChange(DataChange.Entity.SCHEDULE, schedule.getId(), DataChange.Operation.UPDATED);
         return result > 0;
     }
 
     public boolean deleteSchedule(int scheduleId) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        int result = db.delete(TABLE_SCHEDULES, KEY_ID + " = ?", new String[]{String.valueOf(scheduleId)});
-        db.close();
+        int result = executeUpdateDelete(SQL_DELETE_SCHEDULE, statement -> statement.bindLong(1, scheduleId));
+        if (result > 0) publishChange(DataChange.Entity.SCHEDULE, scheduleId, DataChange.Operation.DELETED);
         return result > 0;
     }
 
     // ==================== EMERGENCY CONTACT OPERATIONS ====================
 
+    private static void bindEmergencyContact(SQLiteStatement statement, EmergencyContact contact) {
+        String normalized = normalizePhoneNumber(contact.getPhoneNumber());
+        bindString(statement, 1, contact.getName());
+        bindString(statement, 2, contact.getPhoneNumber());
+        // NULLs never collide in the unique index
+        bindString(statement, 3, normalized.isEmpty() ? null : normalized);
+        statement.bindLong(4, contact.getCallCountThreshold());
+        statement.bindLong(5, contact.getWindowMinutes());
+        statement.bindLong(6, contact.isRingOverride() ? 1 : 0);
+    }
+
+    /**
+     * Returns the new row id, or -1 if the insert failed. A number already
+     * saved on another contact is rejected by the unique index; callers
+     * check findContactWithSameNumber first to tell the user which one.
+     */
     public long addEmergencyContact(EmergencyContact contact) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(KEY_NAME, contact.getName());
-        values.put(KEY_PHONE, contact.getPhoneNumber());
-        values.put(KEY_CALL_COUNT_THRESHOLD, contact.getCallCountThreshold());
-        values.put(KEY_WINDOW_MINUTES, contact.getWindowMinutes());
-        values.put(KEY_RING_OVERRIDE, contact.isRingOverride() ? 1 : 0);
-
-        long id = db.insert(TABLE_EMERGENCY_CONTACTS, null, values);
-        db.close();
+        long id = executeInsert(SQL_INSERT_CONTACT, statement -> bindEmergencyContact(statement, contact));
+        if (id != -1) publishChange(DataChange.Entity.EMERGENCY_CONTACT, (int) id, DataChange.Operation.INSERTED);
         return id;
     }
 
+    public EmergencyContact getEmergencyContact(int contactId) {
+        Cursor cursor = getReadableDatabase().rawQuery(SQL_SELECT_CONTACT, new String[]{String.valueOf(contactId)});
+        return RowMappers.mapFirst(cursor, new RowMappers.EmergencyContactMapper(cursor));
+    }
+
     public List<EmergencyContact> getAllEmergencyContacts() {
-        List<EmergencyContact> contacts = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_EMERGENCY_CONTACTS + " ORDER BY " + KEY_NAME, null);
-
-        if (cursor.moveToFirst()) {
-            do {
-                EmergencyContact contact = new EmergencyContact();
-                contact.setId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ID)));
-                contact.setName(cursor.getString(cursor.getColumnIndexOrThrow(KEY_NAME)));
-                contact.setPhoneNumber(cursor.getString(cursor.getColumnIndexOrThrow(KEY_PHONE)));
-                contact.setCallCountThreshold(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_CALL_COUNT_THRESHOLD)));
-                contact.setWindowMinutes(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_WINDOW_MINUTES)));
-                contact.setRingOverride(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_RING_OVERRIDE)) == 1);
-                contacts.add(contact);
-            } while (cursor.moveToNext());
-        }
-        cursor.close();
-        return contacts;
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT * FROM " + TABLE_EMERGENCY_CONTACTS + " ORDER BY " + KEY_NAME, null);
+        return RowMappers.mapAll(cursor, new RowMappers.EmergencyContactMapper(cursor));
     }
 
+    // False if the contact is gone or its new number belongs to another contact
     public boolean updateEmergencyContact(EmergencyContact contact) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(KEY_NAME, contact.getName());
-        values.put(KEY_PHONE, contact.getPhoneNumber());
-        values.put(KEY_CALL_COUNT_THRESHOLD, contact.getCallCountThreshold());
-        values.put(KEY_WINDOW_MINUTES, contact.getWindowMinutes());
-        values.put(KEY_RING_OVERRIDE, contact.isRingOverride() ? 1 : 0);
-
-        int result = db.update(TABLE_EMERGENCY_CONTACTS, values, KEY_ID + " = ?",
-                new String[]{String.valueOf(contact.getId())});
-        db.close();
+        int result = executeUpdateDelete(SQL_UPDATE_CONTACT, statement -> {
+            bindEmergencyContact(statement, contact);
+            statement.bindLong(7, contact.getId());
+        });
+        if (result > 0) publishChange(DataChange.Entity.EMERGENCY_CONTACT, contact.getId(), DataChange.Operation.UPDATED);
         return result > 0;
     }
 
     public boolean deleteEmergencyContact(int contactId) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        int result = db.delete(TABLE_EMERGENCY_CONTACTS, KEY_ID + " = ?", new String[]{String.valueOf(contactId)});
-        db.close();
+        int result = executeUpdateDelete(SQL_DELETE_CONTACT, statement -> statement.bindLong(1, contactId));
+        if (result > 0) publishChange(DataChange.Entity.EMERGENCY_CONTACT, contactId, DataChange.Operation.DELETED);
         return result > 0;
     }
 
     public boolean isEmergencyContact(String phoneNumber) {
-        String normalizedInput = normalizePhoneNumber(phoneNumber);
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_EMERGENCY_CONTACTS, new String[]{KEY_PHONE}, null, null, null, null, null);
-
-        boolean isEmergency = false;
-        if (cursor.moveToFirst()) {
-            do {
-                String storedPhone = cursor.getString(cursor.getColumnIndexOrThrow(KEY_PHONE));
-                String normalizedStored = normalizePhoneNumber(storedPhone);
-                if (normalizedInput.equals(normalizedStored)) {
-                    isEmergency = true;
-                    break;
-                }
-            } while (cursor.moveToNext());
-        }
-        cursor.close();
-        return isEmergency;
+        return getEmergencyContactByPhone(phoneNumber) != null;
     }
 
+    // Single lookup on the unique normalized_phone index
     public EmergencyContact getEmergencyContactByPhone(String phoneNumber) {
         String normalizedInput = normalizePhoneNumber(phoneNumber);
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_EMERGENCY_CONTACTS, null, null, null, null, null, null);
-
-        EmergencyContact contact = null;
-        if (cursor.moveToFirst()) {
-            do {
-                String storedPhone = cursor.getString(cursor.getColumnIndexOrThrow(KEY_PHONE));
-                String normalizedStored = normalizePhoneNumber(storedPhone);
-                if (normalizedInput.equals(normalizedStored)) {
-                    contact = new EmergencyContact();
-                    contact.setId(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_ID)));
-                    contact.setName(cursor.getString(cursor.getColumnIndexOrThrow(KEY_NAME)));
-                    contact.setPhoneNumber(storedPhone);
-                    contact.setCallCountThreshold(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_CALL_COUNT_THRESHOLD)));
-                    contact.setWindowMinutes(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_WINDOW_MINUTES)));
-                    contact.setRingOverride(cursor.getInt(cursor.getColumnIndexOrThrow(KEY_RING_OVERRIDE)) == 1);
-                    break;
-                }
-            } while (cursor.moveToNext());
+        if (normalizedInput.isEmpty()) {
+            return null;
         }
-        cursor.close();
-        return contact;
+
+        Cursor cursor = getReadableDatabase().rawQuery(SQL_SELECT_CONTACT_BY_PHONE, new String[]{normalizedInput});
+        return RowMappers.mapFirst(cursor, new RowMappers.EmergencyContactMapper(cursor));
+    }
+
+    // The other contact already saved with this number, if any
+    public EmergencyContact findContactWithSameNumber(EmergencyContact contact) {
+        EmergencyContact existing = getEmergencyContactByPhone(contact.getPhoneNumber());
+        return existing != null && existing.getId() != contact.getId() ? existing : null;
     }
 
     public int getCallThreshold(String phoneNumber) {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_EMERGENCY_CONTACTS,
-                new String[]{KEY_CALL_COUNT_THRESHOLD},
-                KEY_PHONE + " = ?",
-                new String[]{phoneNumber}, null, null, null);
-
-        int threshold = 3; // default
-        if (cursor.moveToFirst()) {
-            threshold = cursor.getInt(cursor.getColumnIndexOrThrow(KEY_CALL_COUNT_THRESHOLD));
-        }
-        cursor.close();
-        return threshold;
+        EmergencyContact contact = getEmergencyContactByPhone(phoneNumber);
+        return contact != null ? contact.getCallCountThreshold() : 3; // default
     }
 
     // ==================== LOG OPERATIONS ====================
 
+    // Queued and written in batches off the calling thread
     public void addLog(String eventType, String details) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(KEY_EVENT_TYPE, eventType);
-        values.put(KEY_DETAILS, details);
-        db.insert(TABLE_LOGS, null, values);
+        logWriter.enqueue(eventType, details);
     }
 
+    // ==================== CALL EVENTS ====================
+
+    private static final long CALL_EVENT_PRUNE_INTERVAL_MS = 10 * 60 * 1000L;
+    private static final int DEFAULT_CALL_WINDOW_MINUTES = 5;
+    private long lastCallEventPrune;
+
+    // Written synchronously so the very next getRecentCallCount sees this call
     public void logCallEvent(String phoneNumber, Date date) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(KEY_EVENT_TYPE, "INCOMING_CALL");
-        values.put(KEY_DETAILS, "Call from: " + phoneNumber);
-        db.insert(TABLE_LOGS, null, values);
+        String normalized = normalizePhoneNumber(phoneNumber);
+        long occurredAt = date != null ? date.getTime() : System.currentTimeMillis();
+        if (!normalized.isEmpty()) {
+            executeInsert(SQL_INSERT_CALL_EVENT, statement -> {
+                statement.bindString(1, normalized);
+                statement.bindLong(2, occurredAt);
+            });
+            pruneCallEventsIfDue(occurredAt);
+        }
+        logWriter.enqueue("INCOMING_CALL", "Call from: " + phoneNumber);
+    }
+
+    // Indexed range count over (normalized_phone, occurred_at)
+    public int getRecentCallCount(String phoneNumber, int windowMinutes) {
+        String normalized = normalizePhoneNumber(phoneNumber);
+        if (normalized.isEmpty()) {
+            return 0;
+        }
+
+        long since = System.currentTimeMillis() - windowMinutes * 60 * 1000L;
+        return (int) queryForLong(SQL_COUNT_CALL_EVENTS, statement -> {
+            statement.bindString(1, normalized);
+            statement.bindLong(2, since);
+        });
+    }
+
+    // Forgets the calls already counted toward an override for this number
+    public void clearCallEvents(String phoneNumber) {
+        String normalized = normalizePhoneNumber(phoneNumber);
+        executeUpdateDelete(SQL_DELETE_CALL_EVENTS_FOR_PHONE, statement -> statement.bindString(1, normalized));
+    }
+
+    private void pruneCallEventsIfDue(long now) {
+        synchronized (this) {
+            if (now - lastCallEventPrune < CALL_EVENT_PRUNE_INTERVAL_MS) {
+                return;
+            }
+            lastCallEventPrune = now;
+        }
+
+        // Nothing older than the widest configured window can count toward any contact
+        int maxWindowMinutes = DEFAULT_CALL_WINDOW_MINUTES;
+        for (EmergencyContact contact : getRuleSnapshot().getEmergencyContacts()) {
+            maxWindowMinutes = Math.max(maxWindowMinutes, contact.getWindowMinutes());
+        }
+        long cutoff = now - maxWindowMinutes * 60 * 1000L;
+        int pruned = executeUpdateDelete(SQL_PRUNE_CALL_EVENTS, statement -> statement.bindLong(1, cutoff));
+        if (pruned > 0) {
+            Log.d(TAG, "Pruned " + pruned + " call events older than " + maxWindowMinutes + " min");
+        }
+    }
+
+    // Blocks until every queued log event is on disk
+    public void flushLogs() {
+        logWriter.flushNow();
+    }
+
+    // ==================== BULK WRITES ====================
+
+    private volatile Thread bulkWriter;
+    private final List<DataChange> bulkChanges = new ArrayList<>();
+
+    /**
+     * Runs a batch of add/update/delete calls in one transaction. Writes made
+     * from inside the batch run on the transaction's connection and skip the
+     * per-write snapshot rebuild; the snapshot is rebuilt once after commit.
+     * If the batch commits, its writes are published as one RELOADED change.
+     */
+    public void runInBulkTransaction(Runnable batch) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        bulkWriter = Thread.currentThread();
+        boolean committed = false;
+        List<DataChange> changes;
+        try {
+            batch.run();
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            bulkWriter = null;
+            changes = new ArrayList<>(bulkChanges);
+            bulkChanges.clear();
+            db.endTransaction();
+            rebuildRuleSnapshot();
+        }
+        if (committed && !changes.isEmpty()) {
+            dispatchChange(coalesce(changes));
+        }
+    }
+
+    // One reload for the whole batch, naming each row it wrote once per entity
+    private static DataChange coalesce(List<DataChange> changes) {
+        Map<DataChange.Entity, Set<Integer>> rows = new EnumMap<>(DataChange.Entity.class);
+        for (DataChange change : changes) {
+            Set<Integer> ids = rows.get(change.getEntity());
+            if (ids == null) {
+                ids = new LinkedHashSet<>();
+                rows.put(change.getEntity(), ids);
+            }
+            ids.add(change.getId());
+        }
+
+        Map<DataChange.Entity, int[]> idsByEntity = new EnumMap<>(DataChange.Entity.class);
+        for (Map.Entry<DataChange.Entity, Set<Integer>> entry : rows.entrySet()) {
+            int[] ids = new int[entry.getValue().size()];
+            int i = 0;
+            for (int id : entry.getValue()) {
+                ids[i++] = id;
+            }
+            idsByEntity.put(entry.getKey(), ids);
+        }
+        return DataChange.reload(idsByEntity);
+    }
+
+    // ==================== CHANGE NOTIFICATIONS ====================
+
+    private final List<DataChange.Listener> changeListeners = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Listeners are called on the main thread after the change has committed
+    public void addChangeListener(DataChange.Listener listener) {
+        if (!changeListeners.contains(listener)) {
+            changeListeners.add(listener);
+        }
+    }
+
+    public void removeChangeListener(DataChange.Listener listener) {
+        changeListeners.remove(listener);
+    }
+
+    private void publishChange(DataChange.Entity entity, int id, DataChange.Operation operation) {
+        DataChange change = new DataChange(entity, id, operation);
+        if (bulkWriter == Thread.currentThread()) {
+            // Held back until the bulk transaction commits
+            bulkChanges.add(change);
+            return;
+        }
+        rebuildRuleSnapshot(change);
+        dispatchChange(change);
+    }
+
+    private void dispatchChange(DataChange change) {
+        Log.d(TAG, "Data changed: " + change);
+        mainHandler.post(() -> {
+            for (DataChange.Listener listener : changeListeners) {
+                try {
+                    listener.onDataChanged(change);
+                } catch (Exception e) {
+                    Log.e(TAG, "Change listener failed: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    // ==================== RULE SNAPSHOT ====================
+
+    private static final Object snapshotLock = new Object();
+    private static volatile RuleSnapshot ruleSnapshot;
+
+    // Enabled rules as of the last committed write; built on first use
+    public RuleSnapshot getRuleSnapshot() {
+        RuleSnapshot snapshot = ruleSnapshot;
+        if (snapshot == null) {
+            synchronized (snapshotLock) {
+                if (ruleSnapshot == null) {
+                    rebuildRuleSnapshot();
+                }
+                snapshot = ruleSnapshot;
+            }
+        }
+        return snapshot;
+    }
+
+    private void rebuildRuleSnapshot() {
+        rebuildRuleSnapshot(null);
+    }
+
+    // With a single committed change the geofence index is updated for just that
+    // fence; otherwise (first build, bulk commit) it is built from scratch
+    private void rebuildRuleSnapshot(DataChange change) {
+        if (bulkWriter == Thread.currentThread()) {
+            // Rebuilt once when the bulk transaction commits
+            return;
+        }
+        synchronized (snapshotLock) {
+            RuleSnapshot previous = ruleSnapshot;
+            List<SmartLocation> activeLocations = getActiveLocations();
+
+            GeofenceIndex geofenceIndex;
+            if (previous == null || change == null) {
+                geofenceIndex = GeofenceIndex.build(activeLocations);
+            } else if (change.getEntity() == DataChange.Entity.LOCATION) {
+                SmartLocation changed = null;
+                for (SmartLocation location : activeLocations) {
+                    if (location.getId() == change.getId()) {
+                        changed = location;
+                        break;
+                    }
+                }
+                // Deleted or disabled fences are simply dropped from the index
+                geofenceIndex = previous.getGeofenceIndex().withLocation(change.getId(), changed);
+            } else {
+                geofenceIndex = previous.getGeofenceIndex();
+            }
+
+            ruleSnapshot = new RuleSnapshot(activeLocations, getActiveSchedules(),
+                    getAllProfiles(), getAllEmergencyContacts(), geofenceIndex);
+        }
     }
 
     // ==================== UTILITY METHODS ====================
 
-    private String normalizePhoneNumber(String phoneNumber) {
+    private static final Pattern NON_DIAL_CHARS = Pattern.compile("[^\\d+]");
+
+    // Keeps digits and '+', the same form stored in normalized_phone
+    static String normalizePhoneNumber(String phoneNumber) {
         if (phoneNumber == null) return "";
-        return phoneNumber.replaceAll("[^\\d+]", "");
+        return NON_DIAL_CHARS.matcher(phoneNumber).replaceAll("");
     }
 
-    public int getRecentCallCount(String phoneNumber, int windowMinutes) {
-        // This would query the call logs table for recent calls from this number
-        // For now, return a mock value
-        return 0;
-    }
 } // This closes the SmartMuteDatabaseHelper class
 
 // Add Profile class definition here
@@ -0,0 +1,186 @@
+package com.example.smartmute;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds fence edges crossed between two consecutive fixes. Testing fixes one
+ * at a time misses a fence passed through between them, which batched or
+ * sparse fixes make likely; treating the pair as a straight segment and
+ * intersecting it with each fence circle or polygon doesn't.
+ *
+ * Only fences the GeofenceIndex returns for the segment's bounding box are
+ * intersected, so the cost per segment follows the candidates near it, not
+ * the total number of fences. Intersections are solved in a flat projection
+ * around each fence centre, which is well within fix accuracy at fence scale.
+ *
+ * Pure Java so it can be tested on the JVM.
+ */
+final class TrajectoryEvaluator {
+
+    static final class Crossing {
+        final SmartLocation fence;
+        final boolean enter;
+        // Interpolated along the segment, as if travelling at constant speed
+        final long timeMs;
+        final double latitude, longitude;
+        // The segment's deepest point in the fence, for callers that need a fix inside it
+        final double insideLatitude, insideLongitude;
+
+        Crossing(SmartLocation fence, boolean enter, long timeMs, double latitude, double longitude,
+                 double insideLatitude, double insideLongitude) {
+            this.fence = fence;
+            this.enter = enter;
+            this.timeMs = timeMs;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.insideLatitude = insideLatitude;
+            this.insideLongitude = insideLongitude;
+        }
+
+        @Override
+        public String toString() {
+            return (enter ? "enter " : "exit ") + fence.getId() + " at " + timeMs;
+        }
+    }
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * 6371008.8;
+
+    private final Set<SmartLocation> candidates = new LinkedHashSet<>();
+    private final List<Crossing> segmentCrossings = new ArrayList<>();
+    private double[] polygonCrossings = new double[16];
+
+    /**
+     * Appends the crossings of the segment from fix 0 to fix 1 to {@code out},
+     * in time order. A segment that starts and ends inside a fence crosses
+     * nothing, so a fence the caller already knows about isn't reported again.
+     */
+    void evaluateSegment(GeofenceIndex index, double lat0, double lon0, long time0,
+                         double lat1, double lon1, long time1, List<Crossing> out) {
+        if (time1 < time0) {
+            return;
+        }
+        candidates.clear();
+        index.collectCandidates(Math.min(lat0, lat1), Math.max(lat0, lat1),
+                Math.min(lon0, lon1), Math.max(lon0, lon1), candidates);
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        segmentCrossings.clear();
+        for (SmartLocation fence : candidates) {
+            intersect(fence, lat0, lon0, time0, lat1, lon1, time1, segmentCrossings);
+        }
+        // Exits before entries at the same instant, so a shared edge hands over cleanly
+        Collections.sort(segmentCrossings, (a, b) -> a.timeMs != b.timeMs
+                ? Long.compare(a.timeMs, b.timeMs) : Boolean.compare(a.enter, b.enter));
+        out.addAll(segmentCrossings);
+    }
+
+    /**
+     * Crossings along a whole track of fixes, in time order; fixes must be
+     * sorted by time.
+     */
+    void evaluate(GeofenceIndex index, double[] latitudes, double[] longitudes, long[] timesMs, int count,
+                  List<Crossing> out) {
+        for (int i = 1; i < count; i++) {
+            evaluateSegment(index, latitudes[i - 1], longitudes[i - 1], timesMs[i - 1],
+                    latitudes[i], longitudes[i], timesMs[i], out);
+        }
+    }
+
+    private void intersect(SmartLocation fence, double lat0, double lon0, long time0,
+                           double lat1, double lon1, long time1, List<Crossing> out) {
+        if (fence.getPolygon() != null) {
+            intersectPolygon(fence, lat0, lon0, time0, lat1, lon1, time1, out);
+            return;
+        }
+
+        // Meters east and north of the fence centre
+        double cosLat = Math.cos(Math.toRadians(fence.getLatitude()));
+        double x0 = wrap(lon0 - fence.getLongitude()) * cosLat * METERS_PER_DEGREE;
+        double y0 = (lat0 - fence.getLatitude()) * METERS_PER_DEGREE;
+        double dx = wrap(lon1 - lon0) * cosLat * METERS_PER_DEGREE;
+        double dy = (lat1 - lat0) * METERS_PER_DEGREE;
+
+        // |p0 + s * d|^2 = r^2 for s in [0, 1]
+        double a = dx * dx + dy * dy;
+        if (a == 0) {
+            return;
+        }
+        double b = 2 * (x0 * dx + y0 * dy);
+        double c = x0 * x0 + y0 * y0 - (double) fence.getRadius() * fence.getRadius();
+        double discriminant = b * b - 4 * a * c;
+        if (discriminant <= 0) {
+            // Misses the circle, or only grazes it
+            return;
+        }
+        double root = Math.sqrt(discriminant);
+        double sEnter = (-b - root) / (2 * a);
+        double sExit = (-b + root) / (2 * a);
+
+        boolean enters = c > 0 && sEnter >= 0 && sEnter <= 1;
+        boolean exits = sExit >= 0 && sExit < 1;
+        if (!enters && !exits) {
+            return;
+        }
+
+        double sInside = (Math.max(0, sEnter) + Math.min(1, sExit)) / 2;
+        double insideLat = lat0 + (lat1 - lat0) * sInside;
+        double insideLon = lon0 + wrap(lon1 - lon0) * sInside;
+        if (enters) {
+            out.add(crossing(fence, true, sEnter, lat0, lon0, time0, lat1, lon1, time1, insideLat, insideLon));
+        }
+        if (exits) {
+            out.add(crossing(fence, false, sExit, lat0, lon0, time0, lat1, lon1, time1, insideLat, insideLon));
+        }
+    }
+
+    private void intersectPolygon(SmartLocation fence, double lat0, double lon0, long time0,
+                                  double lat1, double lon1, long time1, List<Crossing> out) {
+        PreparedPolygon polygon = fence.getPolygon();
+        if (polygonCrossings.length < polygon.edgeCount()) {
+            polygonCrossings = new double[polygon.edgeCount()];
+        }
+        int count = polygon.segmentCrossings(lat0, lon0, lat1, lon1, polygonCrossings);
+        if (count == 0) {
+            return;
+        }
+        Arrays.sort(polygonCrossings, 0, count);
+
+        // Each crossing flips in/out; a concave polygon can be entered more than once
+        boolean inside = polygon.contains(lat0, lon0);
+        for (int i = 0; i < count; i++) {
+            double s = polygonCrossings[i];
+            inside = !inside;
+            // The middle of the stretch inside, on whichever side of this crossing it is
+            double from = inside ? s : (i > 0 ? polygonCrossings[i - 1] : 0);
+            double to = inside ? (i + 1 < count ? polygonCrossings[i + 1] : 1) : s;
+            double sInside = (from + to) / 2;
+            out.add(crossing(fence, inside, s, lat0, lon0, time0, lat1, lon1, time1,
+                    lat0 + (lat1 - lat0) * sInside, lon0 + wrap(lon1 - lon0) * sInside));
+        }
+    }
+
+    private static Crossing crossing(SmartLocation fence, boolean enter, double s,
+                                     double lat0, double lon0, long time0, double lat1, double lon1, long time1,
+                                     double insideLat, double insideLon) {
+        return new Crossing(fence, enter, time0 + Math.round((time1 - time0) * s),
+                lat0 + (lat1 - lat0) * s, lon0 + wrap(lon1 - lon0) * s, insideLat, insideLon);
+    }
+
+    // Longitude difference taken the short way round
+    private static double wrap(double degrees) {
+        if (degrees > 180) {
+            return degrees - 360;
+        }
+        if (degrees < -180) {
+            return degrees + 360;
+        }
+        return degrees;
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.smartmute;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hands out short wake-lock leases around actual work instead of holding a
+ * lock for as long as a service lives. Leases are reference counted onto a
+ * single PARTIAL_WAKE_LOCK, so the CPU stays up only while at least one is
+ * open. Every lease has a timeout, after which it is closed for its holder.
+ *
+ * Held time and lease counts are kept per subsystem, along with the time the
+ * underlying lock was actually held, so the cost is visible in
+ * {@link #getStats()} and {@link #getHeldMillisPerHour()}.
+ */
+public final class WakeLockManager {
+    private static final String TAG = "WakeLockManager";
+
+    // Safety net on the underlying lock; no lease may ask for longer
+    private static final long MAX_LEASE_MS = 60 * 1000L;
+
+    // Subsystems that take leases, as they appear in the counters
+    public static final String SUBSYSTEM_EVALUATION = "evaluation";
+    public static final String SUBSYSTEM_GEOFENCE_EVENT = "geofence_event";
+    public static final String SUBSYSTEM_PROFILE = "profile";
+    public static final String SUBSYSTEM_WIFI_PLACE = "wifi_place";
+
+    public static final class Stats {
+        public final int leases;
+        public final long heldMs;
+
+        Stats(int leases, long heldMs) {
+            this.leases = leases;
+            this.heldMs = heldMs;
+        }
+
+        @Override
+        public String toString() {
+            return leases + " leases, " + heldMs + " ms";
+        }
+    }
+
+    public final class Lease implements AutoCloseable {
+        private final String subsystem;
+        private final long acquiredAt;
+        private boolean closed;
+        private final Runnable expiry = this::expire;
+
+        private Lease(String subsystem, long acquiredAt) {
+            this.subsystem = subsystem;
+            this.acquiredAt = acquiredAt;
+        }
+
+        @Override
+        public void close() {
+            timeoutHandler.removeCallbacks(expiry);
+            release(this);
+        }
+
+        private void expire() {
+            Log.w(TAG, "Lease for " + subsystem + " timed out");
+            release(this);
+        }
+    }
+
+    private static WakeLockManager instance;
+
+    private final PowerManager.WakeLock wakeLock;
+    private final Handler timeoutHandler = new Handler(Looper.getMainLooper());
+    private final long createdAt = SystemClock.elapsedRealtime();
+
+    private int openLeases;
+    private long lockAcquiredAt;
+    private long lockHeldMs;
+    private final Map<String, int[]> leaseCounts = new HashMap<>();
+    private final Map<String, long[]> heldMs = new HashMap<>();
+
+    public static synchronized WakeLockManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new WakeLockManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private WakeLockManager(Context context) {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "SmartMute:Work");
+        // We count leases ourselves so a timed-out lease can't unbalance the lock
+        wakeLock.setReferenceCounted(false);
+    }
+
+    /**
+     * Opens a lease; close it (try-with-resources, or from whichever thread
+     * finishes the work) as soon as the work is done. Closing twice is fine.
+     */
+    public synchronized Lease acquire(String subsystem, long timeoutMs) {
+        long now = SystemClock.elapsedRealtime();
+        if (openLeases++ == 0) {
+            lockAcquiredAt = now;
+        }
+        // Re-arming extends the safety timeout to cover this lease too
+        wakeLock.acquire(MAX_LEASE_MS);
+
+        int[] count = leaseCounts.get(subsystem);
+        if (count == null) {
+            leaseCounts.put(subsystem, count = new int[1]);
+        }
+        count[0]++;
+
+        Lease lease = new Lease(subsystem, now);
+        timeoutHandler.postDelayed(lease.expiry, Math.min(timeoutMs, MAX_LEASE_MS));
+        return lease;
+    }
+
+    private synchronized void release(Lease lease) {
+        if (lease.closed) {
+            return;
+        }
+        lease.closed = true;
+
+        long now = SystemClock.elapsedRealtime();
+        long[] held = heldMs.get(lease.subsystem);
+        if (held == null) {
+            heldMs.put(lease.subsystem, held = new long[1]);
+        }
+        held[0] += now - lease.acquiredAt;
+
+        if (--openLeases == 0) {
+            lockHeldMs += now - lockAcquiredAt;
+            if (wakeLock.isHeld()) {
+                wakeLock.release();
+            }
+        }
+    }
+
+    // Lease count and summed lease time per subsystem since the process started
+    public synchronized Map<String, Stats> getStats() {
+        Map<String, Stats> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, int[]> entry : leaseCounts.entrySet()) {
+            long[] held = heldMs.get(entry.getKey());
+            stats.put(entry.getKey(), new Stats(entry.getValue()[0], held != null ? held[0] : 0));
+        }
+        return stats;
+    }
+
+    // Time the underlying lock was held; overlapping leases count once
+    public synchronized long getTotalHeldMs() {
+        long total = lockHeldMs;
+        if (openLeases > 0) {
+            total += SystemClock.elapsedRealtime() - lockAcquiredAt;
+        }
+        return total;
+    }
+
+    public synchronized double getHeldMillisPerHour() {
+        long uptime = Math.max(1, SystemClock.elapsedRealtime() - createdAt);
+        return getTotalHeldMs() * 3600_000.0 / uptime;
+    }
+}
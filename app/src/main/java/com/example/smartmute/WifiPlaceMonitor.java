@@ -0,0 +1,205 @@
+package com.example.smartmute;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Enters and leaves Wi-Fi places, locations keyed by SSIDs or BSSIDs instead
+ * of a circle, from connectivity changes alone: no location fix is taken for
+ * them. Transitions go into the same GeofenceStateMachine as the geographic
+ * fences, so ranking against overlapping fences, persistence and profile
+ * changes are shared with them.
+ *
+ * Connecting to a listed network enters its place at once. Losing it starts
+ * an exit grace period instead, so a dropped connection or a hop between
+ * access points doesn't flip the profile; reconnecting within it cancels the
+ * exit.
+ *
+ * Each transition is also passed on to the location history, with no
+ * location of its own.
+ *
+ * Pure Java, with the connectivity source, clock, timer and history
+ * injected. Every method runs on the engine's evaluation thread, which is
+ * also where the source must deliver.
+ */
+final class WifiPlaceMonitor implements ConnectivitySource.Listener {
+
+    interface Timer {
+        // Runs the task once, on the evaluation thread, after delayMs
+        void schedule(Runnable task, long delayMs);
+    }
+
+    interface History {
+        // A place was entered or left; activeFenceId is the state machine's pick after it
+        void onTransition(int activeFenceId);
+    }
+
+    static final long EXIT_GRACE_MS = 30 * 1000L;
+
+    private static final Pattern BSSID = Pattern.compile("[0-9a-fA-F]{2}(:[0-9a-fA-F]{2}){5}");
+
+    private final ConnectivitySource source;
+    private final GeofenceStateMachine state;
+    private final Supplier<RuleSnapshot> rules;
+    private final LongSupplier clock;
+    private final Timer timer;
+    private final History history;
+    private final Runnable exitCheck = this::checkPendingExits;
+
+    // Places whose network was lost, and when
+    private final Map<Integer, Long> pendingExits = new HashMap<>();
+    private boolean started;
+    private boolean checkScheduled;
+    private String ssid;
+    private String bssid;
+
+    WifiPlaceMonitor(ConnectivitySource source, GeofenceStateMachine state, Supplier<RuleSnapshot> rules,
+                     LongSupplier clock, Timer timer, History history) {
+        this.source = source;
+        this.state = state;
+        this.rules = rules;
+        this.clock = clock;
+        this.timer = timer;
+        this.history = history;
+    }
+
+    /**
+     * Trims an SSID or BSSID as typed or imported: BSSIDs are lower-cased and
+     * quotes around an SSID dropped. Returns null for a blank one.
+     */
+    static String normalizeAnchor(String network) {
+        if (network == null) {
+            return null;
+        }
+        String anchor = network.trim();
+        if (anchor.length() >= 2 && anchor.startsWith("\"") && anchor.endsWith("\"")) {
+            anchor = anchor.substring(1, anchor.length() - 1);
+        }
+        if (anchor.isEmpty()) {
+            return null;
+        }
+        return BSSID.matcher(anchor).matches() ? anchor.toLowerCase(Locale.US) : anchor;
+    }
+
+    // A listed BSSID pins one access point; a listed SSID takes any of them
+    static boolean matches(SmartLocation place, String ssid, String bssid) {
+        List<String> networks = place.getWifiNetworks();
+        return (bssid != null && networks.contains(bssid)) || (ssid != null && networks.contains(ssid));
+    }
+
+    void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        source.start(this);
+    }
+
+    // Places stay as they are; the next start re-reads the current network
+    void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        source.stop();
+        pendingExits.clear();
+        checkScheduled = false;
+        ssid = null;
+        bssid = null;
+    }
+
+    @Override
+    public void onWifiChanged(String ssid, String bssid) {
+        if (!started) {
+            return;
+        }
+        this.ssid = ssid;
+        this.bssid = bssid;
+        match();
+    }
+
+    /**
+     * Locations were added, edited, toggled or deleted. A place that is gone
+     * is left at once, with nothing to wait for; the rest are matched
+     * against the current network again, once for the whole change.
+     */
+    void onRulesChanged(int... locationIds) {
+        if (!started) {
+            return;
+        }
+        RuleSnapshot snapshot = rules.get();
+        for (int locationId : locationIds) {
+            if (snapshot.getActiveLocation(locationId) == null && state.isInside(locationId)) {
+                pendingExits.remove(locationId);
+                applyTransition(locationId, false, clock.getAsLong(), snapshot);
+            }
+        }
+        match();
+    }
+
+    private void match() {
+        RuleSnapshot snapshot = rules.get();
+        long now = clock.getAsLong();
+        for (SmartLocation place : snapshot.getActiveLocations()) {
+            if (!place.isWifiPlace()) {
+                continue;
+            }
+            int id = place.getId();
+            if (matches(place, ssid, bssid)) {
+                pendingExits.remove(id);
+                if (!state.isInside(id)) {
+                    applyTransition(id, true, now, snapshot);
+                }
+            } else if (state.isInside(id) && !pendingExits.containsKey(id)) {
+                pendingExits.put(id, now);
+            }
+        }
+        scheduleExitCheck(now);
+    }
+
+    private void checkPendingExits() {
+        checkScheduled = false;
+        if (!started) {
+            return;
+        }
+        RuleSnapshot snapshot = rules.get();
+        long now = clock.getAsLong();
+        Iterator<Map.Entry<Integer, Long>> iterator = pendingExits.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Long> entry = iterator.next();
+            SmartLocation place = snapshot.getActiveLocation(entry.getKey());
+            if (place != null && !place.isWifiPlace()) {
+                // Now a geographic fence; fixes decide whether we are still in it
+                iterator.remove();
+            } else if (now - entry.getValue() >= EXIT_GRACE_MS) {
+                iterator.remove();
+                applyTransition(entry.getKey(), false, now, snapshot);
+            }
+        }
+        scheduleExitCheck(now);
+    }
+
+    private void applyTransition(int placeId, boolean inside, long now, RuleSnapshot snapshot) {
+        state.applyTransition(placeId, inside, now, snapshot);
+        history.onTransition(state.getActiveFenceId());
+    }
+
+    // One check at a time, for the earliest pending exit
+    private void scheduleExitCheck(long now) {
+        if (checkScheduled || pendingExits.isEmpty()) {
+            return;
+        }
+        long earliest = Long.MAX_VALUE;
+        for (long since : pendingExits.values()) {
+            earliest = Math.min(earliest, since);
+        }
+        checkScheduled = true;
+        timer.schedule(exitCheck, Math.max(0, earliest + EXIT_GRACE_MS - now));
+    }
+}
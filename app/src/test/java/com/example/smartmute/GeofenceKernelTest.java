@@ -0,0 +1,203 @@
+package com.example.smartmute;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks GeofenceKernel, and GeofenceIndex on top of it, against the plain
+ * per-fence geodesic test they replaced. Runs on the JVM.
+ */
+public class GeofenceKernelTest {
+    private static final int FENCES = 2000;
+    private static final int POINTS = 500;
+
+    @Test
+    public void kernelAndIndexMatchGeodesic() {
+        Random random = new Random(42);
+        List<SmartLocation> fences = new ArrayList<>();
+        for (int i = 0; i < FENCES; i++) {
+            // Venue-sized fences scattered over a city-sized area
+            fences.add(new SmartLocation(i + 1, "Fence " + i,
+                    12.90 + random.nextDouble() * 0.2, 77.50 + random.nextDouble() * 0.2,
+                    30 + random.nextInt(470), 1, 2, true));
+        }
+
+        GeofenceKernel kernel = new GeofenceKernel(fences.toArray(new SmartLocation[0]));
+        GeofenceIndex index = GeofenceIndex.build(fences);
+        List<SmartLocation> out = new ArrayList<>();
+
+        // Every point must resolve to the same fences on all three paths
+        int matched = 0;
+        for (int i = 0; i < POINTS; i++) {
+            double latitude = 12.90 + random.nextDouble() * 0.2;
+            double longitude = 77.50 + random.nextDouble() * 0.2;
+            Set<Integer> expected = geodesicContaining(fences, latitude, longitude);
+            matched += expected.size();
+
+            out.clear();
+            kernel.collectContaining(latitude, longitude, out);
+            assertEquals(expected, ids(out));
+            assertEquals(expected.size(), out.size());
+
+            out.clear();
+            index.collectContaining(latitude, longitude, out);
+            assertEquals(expected, ids(out));
+            assertEquals(expected.size(), out.size());
+        }
+        // The layout puts plenty of points inside fences, so the comparison means something
+        assertTrue(matched > POINTS);
+    }
+
+    @Test
+    public void packedClassifyMatchesPerFenceClassify() {
+        Random random = new Random(11);
+        List<SmartLocation> fences = new ArrayList<>();
+        for (int i = 0; i < FENCES; i++) {
+            fences.add(new SmartLocation(i + 1, "Fence " + i,
+                    12.90 + random.nextDouble() * 0.2, 77.50 + random.nextDouble() * 0.2,
+                    30 + random.nextInt(470), 1, 2, true));
+        }
+        GeofenceIndex index = GeofenceIndex.build(fences);
+        List<SmartLocation> containing = new ArrayList<>();
+        List<SmartLocation> uncertain = new ArrayList<>();
+        GeofenceKernel.FenceIds seen = new GeofenceKernel.FenceIds();
+
+        int decided = 0;
+        for (int i = 0; i < POINTS; i++) {
+            double latitude = 12.90 + random.nextDouble() * 0.2;
+            double longitude = 77.50 + random.nextDouble() * 0.2;
+            double accuracy = 5 + random.nextDouble() * 300;
+            Set<Integer> expectedInside = new HashSet<>();
+            Set<Integer> expectedUncertain = new HashSet<>();
+            for (SmartLocation fence : fences) {
+                switch (GeofenceKernel.classify(fence, latitude, longitude, accuracy)) {
+                    case INSIDE:
+                        expectedInside.add(fence.getId());
+                        break;
+                    case UNCERTAIN:
+                        expectedUncertain.add(fence.getId());
+                        break;
+                    default:
+                        break;
+                }
+            }
+            decided += expectedInside.size();
+
+            containing.clear();
+            uncertain.clear();
+            index.classifyNear(latitude, longitude, accuracy, new double[4], containing, uncertain, seen);
+            assertEquals(expectedInside, ids(containing));
+            assertEquals(expectedInside.size(), containing.size());
+            assertEquals(expectedUncertain, ids(uncertain));
+            assertEquals(expectedUncertain.size(), uncertain.size());
+        }
+        assertTrue(decided > 0);
+    }
+
+    @Test
+    public void ringSearchFindsTheNearestEdgeWithinReach() {
+        Random random = new Random(7);
+        List<SmartLocation> fences = new ArrayList<>();
+        for (int i = 0; i < FENCES; i++) {
+            // Mostly venues, with a few town-sized fences for the coarse grid
+            fences.add(new SmartLocation(i + 1, "Fence " + i,
+                    12.0 + random.nextDouble() * 2, 77.0 + random.nextDouble() * 2,
+                    i % 100 == 0 ? 5000 : 30 + random.nextInt(470), 1, 2, true));
+        }
+        GeofenceIndex index = GeofenceIndex.build(fences);
+
+        for (int i = 0; i < POINTS; i++) {
+            double latitude = 11.9 + random.nextDouble() * 2.2;
+            double longitude = 76.9 + random.nextDouble() * 2.2;
+            double expected = Double.POSITIVE_INFINITY;
+            for (SmartLocation fence : fences) {
+                expected = Math.min(expected, GeofenceKernel.boundaryDistance(fence, latitude, longitude));
+            }
+            for (double maxMeters : new double[]{500, 2000, 20_000, Double.POSITIVE_INFINITY}) {
+                double found = index.distanceToNearestBoundary(latitude, longitude, maxMeters);
+                if (expected <= maxMeters) {
+                    assertEquals(expected, found, 1e-6);
+                } else {
+                    // Past the reach only "further than that" matters
+                    assertTrue(found > maxMeters);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void ringSearchLooksAcrossTheAntimeridian() {
+        SmartLocation fence = new SmartLocation(1, "East", 0, -179.995, 100, 1, 2, true);
+        GeofenceIndex index = GeofenceIndex.build(Collections.singletonList(fence));
+        double expected = GeofenceKernel.boundaryDistance(fence, 0, 179.995);
+        assertEquals(expected, index.distanceToNearestBoundary(0, 179.995, 5000), 1e-6);
+    }
+
+    @Test
+    public void vincentyMatchesKnownDistance() {
+        // Flinders Peak to Buninyong, the classic Vincenty test pair: 54972.271 m
+        double distance = GeofenceKernel.vincentyDistance(-37.95103342, 144.42486789, -37.65282114, 143.92649554);
+        assertEquals(54972.271, distance, 0.01);
+    }
+
+    @Test
+    public void boundaryPointsUseExactDistance() {
+        SmartLocation fence = new SmartLocation(1, "Edge", 51.5, -0.12, 200, 1, 2, true);
+        GeofenceKernel kernel = new GeofenceKernel(new SmartLocation[]{fence});
+
+        // Walk outward along the meridian across the edge in 10 cm steps
+        for (double meters = 195; meters <= 205; meters += 0.1) {
+            double latitude = 51.5 + meters / 111250.0;
+            boolean expected = GeofenceKernel.vincentyDistance(latitude, -0.12, 51.5, -0.12) <= 200;
+            assertEquals("at " + meters + " m", expected, kernel.contains(0, latitude, -0.12));
+        }
+    }
+
+    @Test
+    public void fenceAcrossTheAntimeridianWraps() {
+        // Taveuni, Fiji, where the 180th meridian runs over land
+        SmartLocation fence = new SmartLocation(1, "Meridian", -16.8, 179.9995, 500, 1, 2, true);
+        GeofenceIndex index = GeofenceIndex.build(Collections.singletonList(fence));
+        List<SmartLocation> out = new ArrayList<>();
+
+        // About 100 m east of the line, 160 m from the centre
+        index.collectContaining(-16.8, -179.9990, out);
+        assertEquals(1, out.size());
+        // About 1 km east of the line
+        out.clear();
+        index.collectContaining(-16.8, -179.9905, out);
+        assertTrue(out.isEmpty());
+
+        assertEquals(GeofenceKernel.vincentyDistance(-16.8, 179.9995, -16.8, 179.9975),
+                GeofenceKernel.vincentyDistance(-16.8, 179.9995, -16.8, -179.9985), 0.01);
+    }
+
+    // Ids of the fences whose centre is within their radius, by exact distance
+    private static Set<Integer> geodesicContaining(List<SmartLocation> fences, double latitude, double longitude) {
+        Set<Integer> inside = new HashSet<>();
+        for (SmartLocation fence : fences) {
+            double distance = GeofenceKernel.vincentyDistance(latitude, longitude,
+                    fence.getLatitude(), fence.getLongitude());
+            if (distance <= fence.getRadius()) {
+                inside.add(fence.getId());
+            }
+        }
+        return inside;
+    }
+
+    private static Set<Integer> ids(List<SmartLocation> fences) {
+        Set<Integer> ids = new HashSet<>();
+        for (SmartLocation fence : fences) {
+            ids.add(fence.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.smartmute;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays recorded location traces through the same evaluation the polling
+ * backend runs on a device (FixEvaluator: path crossings, accuracy
+ * classification, the transition state machine and the request scheduler),
+ * on a simulated clock taken from the trace's timestamps.
+ *
+ * Traces are CSV (timestamp,lat,lon[,accuracy[,speed]], timestamps in epoch
+ * milliseconds or ISO-8601) or GPX track points, where accuracy and speed are
+ * read from {@code <accuracy>} and {@code <speed>} elements if present. A
+ * device's own LocationHistoryStore can be replayed too, without speeds.
+ *
+ * With {@link #followSchedule} on, fixes arriving sooner than the scheduler's
+ * current interval are dropped, so the replay sees what a device running the
+ * adaptive request would have received rather than the whole recording.
+ *
+ * {@link #main} replays a directory of field traces against its fences.csv
+ * (id,name,latitude,longitude,radius[,priority]) and prints each report;
+ * run it from the IDE, or with the debug and debug unit-test classes on the
+ * classpath, passing the directory or setting SMARTMUTE_REPLAY_DIR.
+ */
+final class GeofenceReplay {
+
+    static final class Fix {
+        final long timeMs;
+        final double latitude, longitude, accuracy, speed;
+
+        Fix(long timeMs, double latitude, double longitude, double accuracy, double speed) {
+            this.timeMs = timeMs;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.accuracy = accuracy;
+            this.speed = speed;
+        }
+    }
+
+    static final class Report {
+        final List<String> timeline = new ArrayList<>();
+        int enters;
+        int exits;
+        // Each enter or exit applies a sound profile on a device
+        int profileApplications;
+        int fixesInTrace;
+        int fixesEvaluated;
+        int inconclusiveFixes;
+        long evaluationNanos;
+
+        double fixesPerSecond() {
+            return evaluationNanos == 0 ? 0 : fixesEvaluated * 1e9 / evaluationNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (String event : timeline) {
+                builder.append(event).append('\n');
+            }
+            builder.append(String.format(Locale.US,
+                    "%d enters, %d exits, %d profile applications; %d of %d fixes evaluated"
+                            + " (%d inconclusive), %.0f fixes/s",
+                    enters, exits, profileApplications, fixesEvaluated, fixesInTrace, inconclusiveFixes,
+                    fixesPerSecond()));
+            return builder.toString();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String directory = args.length > 0 ? args[0] : System.getenv("SMARTMUTE_REPLAY_DIR");
+        if (directory == null) {
+            System.err.println("Usage: GeofenceReplay <directory with fences.csv and .csv/.gpx traces>");
+            System.exit(2);
+        }
+        GeofenceReplay replay = new GeofenceReplay(readFences(new File(directory, "fences.csv")));
+        for (File file : listTraces(new File(directory))) {
+            List<Fix> trace = readTrace(file);
+            // Every recorded fix, then only those the adaptive request would have delivered
+            System.out.println("== " + file.getName() + ", every fix");
+            System.out.println(replay.followSchedule(false).run(trace));
+            System.out.println("== " + file.getName() + ", as scheduled");
+            System.out.println(replay.followSchedule(true).run(trace));
+        }
+    }
+
+    private final RuleSnapshot snapshot;
+    private boolean followSchedule;
+    // Simulated time of the fix being evaluated, for the timeline
+    private long now;
+
+    GeofenceReplay(List<SmartLocation> fences) {
+        snapshot = new RuleSnapshot(fences, Collections.emptyList(), Collections.emptyList(),
+                Collections.emptyList(), GeofenceIndex.build(fences));
+    }
+
+    GeofenceReplay followSchedule(boolean followSchedule) {
+        this.followSchedule = followSchedule;
+        return this;
+    }
+
+    /** Runs a trace from a fresh state; fixes must be in time order. */
+    Report run(List<Fix> trace) {
+        Report report = new Report();
+        report.fixesInTrace = trace.size();
+        long startMs = trace.isEmpty() ? 0 : trace.get(0).timeMs;
+
+        GeofenceStateMachine state = new GeofenceStateMachine(new GeofenceStateMachine.Listener() {
+            @Override
+            public void onEnter(SmartLocation fence) {
+                report.enters++;
+                report.profileApplications++;
+                report.timeline.add(String.format(Locale.US, "%8.1fs  enter %s", (now - startMs) / 1000.0,
+                        fence.getName()));
+            }
+
+            @Override
+            public void onExit(int fenceId) {
+                report.exits++;
+                report.profileApplications++;
+                SmartLocation fence = snapshot.getActiveLocation(fenceId);
+                report.timeline.add(String.format(Locale.US, "%8.1fs  exit %s", (now - startMs) / 1000.0,
+                        fence != null ? fence.getName() : String.valueOf(fenceId)));
+            }
+        });
+        FixEvaluator evaluator = new FixEvaluator(state);
+
+        LocationRequestScheduler.Plan plan = LocationRequestScheduler.INITIAL_PLAN;
+        long lastDeliveredMs = Long.MIN_VALUE;
+        for (Fix fix : trace) {
+            if (followSchedule && lastDeliveredMs != Long.MIN_VALUE
+                    && fix.timeMs - lastDeliveredMs < plan.intervalMs) {
+                continue;
+            }
+            lastDeliveredMs = fix.timeMs;
+            now = fix.timeMs;
+
+            long start = System.nanoTime();
+            FixEvaluator.Result result = evaluator.onFix(snapshot, fix.latitude, fix.longitude, fix.accuracy,
+                    fix.speed, fix.timeMs);
+            report.evaluationNanos += System.nanoTime() - start;
+            report.fixesEvaluated++;
+            if (result.inconclusive) {
+                report.inconclusiveFixes++;
+            }
+            if (LocationRequestScheduler.shouldReissue(plan, result.plan)) {
+                plan = result.plan;
+            }
+        }
+        return report;
+    }
+
+    /** The .csv and .gpx traces in a directory, by name, leaving out its fences.csv. */
+    static File[] listTraces(File directory) throws IOException {
+        File[] traces = directory.listFiles((dir, name) ->
+                (name.endsWith(".csv") && !name.equals("fences.csv")) || name.endsWith(".gpx"));
+        if (traces == null) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        Arrays.sort(traces);
+        return traces;
+    }
+
+    static List<Fix> readTrace(File file) throws IOException {
+        try (Reader reader = new FileReader(file)) {
+            return file.getName().endsWith(".gpx") ? readGpx(reader) : readCsv(reader);
+        }
+    }
+
+    static List<SmartLocation> readFences(File file) throws IOException {
+        List<SmartLocation> fences = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#") || line.startsWith("id,")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            SmartLocation fence = new SmartLocation(Integer.parseInt(fields[0].trim()), fields[1].trim(),
+                    Double.parseDouble(fields[2].trim()), Double.parseDouble(fields[3].trim()),
+                    Integer.parseInt(fields[4].trim()), 1, 2, true);
+            if (fields.length > 5) {
+                fence.setPriority(Integer.parseInt(fields[5].trim()));
+            }
+            fences.add(fence);
+        }
+        return fences;
+    }
+
+    static List<Fix> readCsv(Reader in) throws IOException {
+        List<Fix> fixes = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#") || Character.isLetter(line.charAt(0))) {
+                // Comments and a header row
+                continue;
+            }
+            String[] fields = line.split(",", -1);
+            fixes.add(new Fix(parseTime(fields[0].trim()),
+                    Double.parseDouble(fields[1].trim()), Double.parseDouble(fields[2].trim()),
+                    fields.length > 3 && !fields[3].trim().isEmpty() ? Double.parseDouble(fields[3].trim()) : 0,
+                    fields.length > 4 && !fields[4].trim().isEmpty() ? Double.parseDouble(fields[4].trim())
+                            : Double.NaN));
+        }
+        return fixes;
+    }
+
+    static List<Fix> readGpx(Reader in) throws IOException {
+        List<Fix> fixes = new ArrayList<>();
+        try {
+            XMLStreamReader xml = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            double latitude = 0, longitude = 0, accuracy = 0, speed = Double.NaN;
+            long timeMs = 0;
+            boolean inPoint = false;
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = xml.getLocalName();
+                    if (name.equals("trkpt")) {
+                        inPoint = true;
+                        latitude = Double.parseDouble(xml.getAttributeValue(null, "lat"));
+                        longitude = Double.parseDouble(xml.getAttributeValue(null, "lon"));
+                        accuracy = 0;
+                        speed = Double.NaN;
+                        timeMs = 0;
+                    } else if (inPoint && name.equals("time")) {
+                        timeMs = parseTime(xml.getElementText().trim());
+                    } else if (inPoint && name.equals("accuracy")) {
+                        accuracy = Double.parseDouble(xml.getElementText().trim());
+                    } else if (inPoint && name.equals("speed")) {
+                        speed = Double.parseDouble(xml.getElementText().trim());
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals("trkpt")) {
+                    inPoint = false;
+                    fixes.add(new Fix(timeMs, latitude, longitude, accuracy, speed));
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed GPX: " + e.getMessage(), e);
+        }
+        return fixes;
+    }
+
+    static List<Fix> readHistory(LocationHistoryStore store, long fromMs, long toMs) throws IOException {
+        List<Fix> fixes = new ArrayList<>();
+        store.scan(fromMs, toMs, (timeMs, latitude, longitude, accuracy, fenceId) -> {
+            // Wi-Fi transitions and stops have no position to replay
+            if (!Double.isNaN(latitude)) {
+                fixes.add(new Fix(timeMs, latitude, longitude, accuracy, Double.NaN));
+            }
+        });
+        return fixes;
+    }
+
+    private static long parseTime(String value) {
+        if (!value.isEmpty() && value.chars().allMatch(Character::isDigit)) {
+            return Long.parseLong(value);
+        }
+        return Instant.parse(value).toEpochMilli();
+    }
+}
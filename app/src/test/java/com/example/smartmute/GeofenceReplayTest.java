@@ -0,0 +1,120 @@
+package com.example.smartmute;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays the traces under src/test/resources/traces, plus synthetic ones,
+ * through GeofenceReplay, checking the timeline of enters and exits and how
+ * many profile applications and fixes each cost.
+ *
+ * Field traces: point SMARTMUTE_REPLAY_DIR at a directory holding .csv/.gpx
+ * traces and a fences.csv (id,name,latitude,longitude,radius[,priority]) to
+ * replay them too; that test is skipped otherwise. GeofenceReplay's main
+ * prints the reports for the same directory.
+ */
+public class GeofenceReplayTest {
+    private static final SmartLocation OFFICE = new SmartLocation(1, "Office", 51.5, -0.12, 100, 1, 2, true);
+    private static final SmartLocation LIBRARY = new SmartLocation(2, "Library", 51.51, -0.10, 150, 1, 2, true);
+
+    @Test
+    public void officeVisitEntersAndExitsOnce() throws IOException {
+        List<GeofenceReplay.Fix> trace = GeofenceReplay.readCsv(resource("office_visit.csv"));
+        GeofenceReplay replay = new GeofenceReplay(Arrays.asList(OFFICE, LIBRARY));
+
+        GeofenceReplay.Report everyFix = replay.run(trace);
+        assertEquals(Arrays.asList("   260.0s  enter Office", "   735.0s  exit Office"), everyFix.timeline);
+        assertEquals(1, everyFix.enters);
+        assertEquals(1, everyFix.exits);
+        assertEquals(2, everyFix.profileApplications);
+        assertEquals(trace.size(), everyFix.fixesEvaluated);
+
+        // Only what the adaptive request would have delivered: same outcome, fewer fixes
+        GeofenceReplay.Report scheduled = replay.followSchedule(true).run(trace);
+        assertEquals(events(everyFix), events(scheduled));
+        for (int i = 0; i < everyFix.timeline.size(); i++) {
+            // No more than one edge-tier interval off the every-fix timeline
+            assertEquals(seconds(everyFix.timeline.get(i)), seconds(scheduled.timeline.get(i)), 10.0);
+        }
+        assertEquals(2, scheduled.profileApplications);
+        assertTrue(scheduled.fixesEvaluated < everyFix.fixesEvaluated);
+    }
+
+    @Test
+    public void sparseFixesStillCatchAPassThrough() throws IOException {
+        // No fix lands inside the Library; the path between two of them spends five minutes there
+        List<GeofenceReplay.Fix> trace = GeofenceReplay.readGpx(resource("library_sparse_pass.gpx"));
+        GeofenceReplay.Report report = new GeofenceReplay(Arrays.asList(OFFICE, LIBRARY)).run(trace);
+
+        assertEquals(4, report.fixesEvaluated);
+        assertEquals(Arrays.asList("   267.0s  enter Library", "   667.0s  exit Library"), report.timeline);
+        assertEquals(1, report.enters);
+        assertEquals(1, report.exits);
+        assertEquals(2, report.profileApplications);
+    }
+
+    @Test
+    public void boundaryJitterCausesNoTransitions() {
+        // Twenty minutes standing right at the Office edge, one noisy fix a second
+        Random random = new Random(11);
+        List<GeofenceReplay.Fix> trace = new ArrayList<>();
+        for (int second = 0; second < 20 * 60; second++) {
+            double meters = 100 + random.nextGaussian() * 15;
+            trace.add(new GeofenceReplay.Fix(second * 1000L, 51.5 + meters / 111250.0, -0.12,
+                    10 + random.nextDouble() * 20, 0));
+        }
+        GeofenceReplay.Report report = new GeofenceReplay(Collections.singletonList(OFFICE)).run(trace);
+
+        assertTrue(report.timeline.isEmpty());
+        assertEquals(0, report.profileApplications);
+        assertTrue(report.inconclusiveFixes > 0);
+    }
+
+    @Test
+    public void replaysFieldTraces() throws IOException {
+        String directory = System.getenv("SMARTMUTE_REPLAY_DIR");
+        Assume.assumeTrue("SMARTMUTE_REPLAY_DIR not set", directory != null);
+
+        GeofenceReplay replay = new GeofenceReplay(GeofenceReplay.readFences(new File(directory, "fences.csv")))
+                .followSchedule(true);
+        for (File file : GeofenceReplay.listTraces(new File(directory))) {
+            GeofenceReplay.Report report = replay.run(GeofenceReplay.readTrace(file));
+            // Whatever the trace, every exit follows an enter and each applies one profile
+            assertEquals(file.getName(), report.enters + report.exits, report.timeline.size());
+            assertEquals(file.getName(), report.timeline.size(), report.profileApplications);
+            assertTrue(file.getName(), report.exits <= report.enters);
+            assertTrue(file.getName(), report.fixesEvaluated <= report.fixesInTrace);
+        }
+    }
+
+    // The timeline without its times, e.g. "enter Office"
+    private static List<String> events(GeofenceReplay.Report report) {
+        List<String> events = new ArrayList<>();
+        for (String event : report.timeline) {
+            events.add(event.substring(event.indexOf("s  ") + 3));
+        }
+        return events;
+    }
+
+    private static double seconds(String event) {
+        return Double.parseDouble(event.substring(0, event.indexOf("s  ")).trim());
+    }
+
+    private static Reader resource(String name) {
+        return new InputStreamReader(GeofenceReplayTest.class.getResourceAsStream("/traces/" + name),
+                StandardCharsets.UTF_8);
+    }
+}
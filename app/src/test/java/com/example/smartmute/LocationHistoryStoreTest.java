@@ -0,0 +1,181 @@
+package com.example.smartmute;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LocationHistoryStoreTest {
+    private static final long START = 1_760_000_000_000L;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("history", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void fixesRoundTripCompactly() throws IOException {
+        int fixes = 2000;
+        try (LocationHistoryStore store = new LocationHistoryStore(file, 1024 * 1024)) {
+            walk(store, fixes, START);
+            List<double[]> read = readAll(store);
+            assertEquals(fixes, read.size());
+            for (int i = 0; i < fixes; i++) {
+                assertEquals(START + i * 15_000L, (long) read.get(i)[0]);
+                assertEquals(51.5 + i * 1e-4, read.get(i)[1], 1e-6);
+                assertEquals(-0.12 - i * 5e-5, read.get(i)[2], 1e-6);
+            }
+        }
+        // 32 bytes of doubles and a long per fix uncompressed
+        double bytesPerFix = (double) file.length() / fixes;
+        assertTrue(bytesPerFix < 12);
+    }
+
+    @Test
+    public void rangeScanReturnsOnlyFixesInRange() throws IOException {
+        try (LocationHistoryStore store = new LocationHistoryStore(file, 1024 * 1024)) {
+            walk(store, 5000, START);
+            List<Long> times = new ArrayList<>();
+            long from = START + 1000 * 15_000L, to = START + 1100 * 15_000L;
+            int visited = store.scan(from, to, (timeMs, latitude, longitude, accuracy, fenceId) -> times.add(timeMs));
+
+            assertEquals(100, visited);
+            assertEquals(from, (long) times.get(0));
+            assertEquals(to - 15_000L, (long) times.get(times.size() - 1));
+        }
+    }
+
+    @Test
+    public void oldestBlocksAreEvictedFirst() throws IOException {
+        long maxBytes = 4 * LocationHistoryStore.BLOCK_SIZE;
+        try (LocationHistoryStore store = new LocationHistoryStore(file, maxBytes)) {
+            walk(store, 20_000, START);
+            assertTrue(file.length() <= maxBytes);
+            assertTrue(store.getOldestTimeMs() > START);
+
+            // Whatever is kept is the newest run of fixes, without gaps
+            List<double[]> read = readAll(store);
+            assertEquals(store.getFixCount(), read.size());
+            assertEquals(START + 19_999 * 15_000L, (long) read.get(read.size() - 1)[0]);
+            assertEquals(store.getOldestTimeMs(), (long) read.get(0)[0]);
+            for (int i = 1; i < read.size(); i++) {
+                assertEquals(15_000L, (long) (read.get(i)[0] - read.get(i - 1)[0]));
+            }
+        }
+    }
+
+    @Test
+    public void reopeningKeepsHistoryAndContinuesTheLastBlock() throws IOException {
+        try (LocationHistoryStore store = new LocationHistoryStore(file, 1024 * 1024)) {
+            walk(store, 300, START);
+        }
+        long length = file.length();
+        try (LocationHistoryStore store = new LocationHistoryStore(file, 1024 * 1024)) {
+            walk(store, 10, START + 300 * 15_000L);
+            assertEquals(310, readAll(store).size());
+        }
+        // Ten more fixes still fit in the block that was open
+        assertEquals(length, file.length());
+    }
+
+    @Test
+    public void timeIsCreditedToTheActiveFence() throws IOException {
+        try (LocationHistoryStore store = new LocationHistoryStore(file, 1024 * 1024)) {
+            long t = START;
+            for (int i = 0; i < 60; i++, t += 60_000L) {
+                store.append(t, 51.5, -0.12, 10, i < 20 ? -1 : 7);
+            }
+            // An hour with no fixes counts for nothing
+            t += 60 * 60_000L;
+            store.append(t, 51.5, -0.12, 10, -1);
+
+            Map<Integer, Long> time = store.timePerFence(START, Long.MAX_VALUE,
+                    LocationRequestScheduler.MAX_FIX_GAP_MS);
+            assertEquals(20 * 60_000L, (long) time.get(-1));
+            assertEquals(39 * 60_000L, (long) time.get(7));
+        }
+    }
+
+    @Test
+    public void transitionsCountUntilTheNextRecordAndStopsEndTheCount() throws IOException {
+        long hour = 60 * 60_000L;
+        try (LocationHistoryStore store = new LocationHistoryStore(file, 1024 * 1024)) {
+            // Platform geofence events hours apart, one without a triggering location
+            store.appendTransition(START, 51.5, -0.12, 20, 7);
+            store.appendTransition(START + 3 * hour, Double.NaN, Double.NaN, 0, -1);
+            // A Wi-Fi place, still active when the engine stops
+            store.appendTransition(START + 5 * hour, Double.NaN, Double.NaN, 0, 4);
+            store.appendStop(START + 6 * hour);
+            // Monitoring again a day later, polling every ten minutes
+            long t = START + 30 * hour;
+            for (int i = 0; i < 4; i++, t += 10 * 60_000L) {
+                store.append(t, 51.5, -0.12, 10, 7);
+            }
+
+            Map<Integer, Long> time = store.timePerFence(START, t, LocationRequestScheduler.MAX_FIX_GAP_MS);
+            assertEquals(3 * hour + 40 * 60_000L, (long) time.get(7));
+            assertEquals(2 * hour, (long) time.get(-1));
+            assertEquals(hour, (long) time.get(4));
+            assertFalse(time.containsKey(LocationHistoryStore.NOT_MONITORING));
+
+            List<double[]> read = readAll(store);
+            assertEquals(51.5, read.get(0)[1], 1e-6);
+            assertTrue(Double.isNaN(read.get(1)[1]));
+            assertEquals(LocationHistoryStore.NOT_MONITORING, (int) read.get(3)[4]);
+            // Only located records replay
+            assertEquals(5, GeofenceReplay.readHistory(store, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    public void historyReplaysLikeTheRecordedTrace() throws IOException {
+        SmartLocation office = new SmartLocation(1, "Office", 51.5, -0.12, 100, 1, 2, true);
+        List<GeofenceReplay.Fix> trace = GeofenceReplay.readCsv(new InputStreamReader(
+                getClass().getResourceAsStream("/traces/office_visit.csv"), StandardCharsets.UTF_8));
+        try (LocationHistoryStore store = new LocationHistoryStore(file, 1024 * 1024)) {
+            for (GeofenceReplay.Fix fix : trace) {
+                store.append(fix.timeMs, fix.latitude, fix.longitude, fix.accuracy, -1);
+            }
+            List<GeofenceReplay.Fix> replayed = GeofenceReplay.readHistory(store, Long.MIN_VALUE, Long.MAX_VALUE);
+
+            GeofenceReplay replay = new GeofenceReplay(Arrays.asList(office));
+            GeofenceReplay.Report original = replay.run(trace);
+            GeofenceReplay.Report fromHistory = replay.run(replayed);
+            assertEquals(original.enters, fromHistory.enters);
+            assertEquals(original.exits, fromHistory.exits);
+        }
+    }
+
+    // A straight walk north-west, one fix every 15 s
+    private static void walk(LocationHistoryStore store, int fixes, long startMs) throws IOException {
+        long offset = (startMs - START) / 15_000L;
+        for (int i = 0; i < fixes; i++) {
+            long n = offset + i;
+            store.append(startMs + i * 15_000L, 51.5 + n * 1e-4, -0.12 - n * 5e-5, 5 + n % 20, n < 100 ? -1 : 3);
+        }
+    }
+
+    private static List<double[]> readAll(LocationHistoryStore store) throws IOException {
+        List<double[]> fixes = new ArrayList<>();
+        store.scan(Long.MIN_VALUE, Long.MAX_VALUE, (timeMs, latitude, longitude, accuracy, fenceId) ->
+                fixes.add(new double[] {timeMs, latitude, longitude, accuracy, fenceId}));
+        return fixes;
+    }
+}
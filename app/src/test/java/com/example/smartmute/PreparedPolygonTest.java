@@ -0,0 +1,229 @@
+package com.example.smartmute;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks PreparedPolygon's grid and crossing-number containment against a
+ * brute-force even-odd test, its blob encoding, and polygon crossings in
+ * TrajectoryEvaluator. Runs on the JVM.
+ */
+public class PreparedPolygonTest {
+    private static final double BASE_LAT = 51.5, BASE_LON = -0.12;
+    // Shapes are drawn in units of this many degrees from the base point
+    private static final double UNIT = 0.001;
+
+    // A U open to the north: arms x 0..1 and 2..3, joined below y = 1
+    private static final double[] U_SHAPE = {0, 0, 3, 0, 3, 3, 2, 3, 2, 1, 1, 1, 1, 3, 0, 3};
+
+    @Test
+    public void concaveRingsMatchEvenOddEitherWayRound() {
+        // A star has enough vertices for a grid finer than the minimum
+        double[] star = new double[40];
+        for (int i = 0; i < 20; i++) {
+            double angle = Math.PI * 2 * i / 20;
+            double radius = i % 2 == 0 ? 2 : 0.8;
+            star[2 * i] = 2 + radius * Math.cos(angle);
+            star[2 * i + 1] = 2 + radius * Math.sin(angle);
+        }
+
+        Random random = new Random(42);
+        for (double[] shape : new double[][]{U_SHAPE, star}) {
+            double[] vertices = vertices(shape);
+            PreparedPolygon forward = new PreparedPolygon(vertices);
+            PreparedPolygon backward = new PreparedPolygon(reversed(vertices));
+
+            int inside = 0;
+            for (int i = 0; i < 5000; i++) {
+                // Points over the bounding box and a margin around it
+                double latitude = BASE_LAT + (random.nextDouble() * 5 - 1) * UNIT;
+                double longitude = BASE_LON + (random.nextDouble() * 5 - 1) * UNIT;
+                boolean expected = evenOdd(vertices, latitude, longitude);
+                if (expected) {
+                    inside++;
+                }
+                assertEquals(expected, forward.contains(latitude, longitude));
+                assertEquals(expected, backward.contains(latitude, longitude));
+            }
+            // Both sides of the ring are well sampled
+            assertTrue(inside > 500);
+            assertTrue(inside < 4500);
+        }
+    }
+
+    @Test
+    public void pointsOnSharedEdgesAndVerticesBelongToOneTile() {
+        // Four unit squares tiling 2x2; each point on the lattice lines is in exactly one
+        List<PreparedPolygon> tiles = new ArrayList<>();
+        for (int x = 0; x < 2; x++) {
+            for (int y = 0; y < 2; y++) {
+                tiles.add(new PreparedPolygon(vertices(new double[]{x, y, x + 1, y, x + 1, y + 1, x, y + 1})));
+            }
+        }
+        double[] inner = {0.25, 0.5, 1, 1.5, 1.75};
+        for (double x : inner) {
+            for (double y : inner) {
+                if (x != 1 && y != 1) {
+                    continue;
+                }
+                // Edges are half-open, so a point on a line belongs to the tile east or north of it
+                int owner = (int) Math.floor(x) * 2 + (int) Math.floor(y);
+                for (int i = 0; i < tiles.size(); i++) {
+                    assertEquals("Tile " + i + " at " + x + ", " + y, i == owner,
+                            tiles.get(i).contains(BASE_LAT + y * UNIT, BASE_LON + x * UNIT));
+                }
+            }
+        }
+
+        // The same answer every time for a concave polygon's own vertices
+        PreparedPolygon polygon = new PreparedPolygon(vertices(U_SHAPE));
+        double[] vertices = vertices(U_SHAPE);
+        for (int i = 0; i < vertices.length; i += 2) {
+            boolean first = polygon.contains(vertices[i], vertices[i + 1]);
+            assertEquals(first, polygon.contains(vertices[i], vertices[i + 1]));
+            assertEquals(0, polygon.distanceToEdge(vertices[i], vertices[i + 1]), 1e-6);
+        }
+    }
+
+    @Test
+    public void flatRingContainsNothing() {
+        // Three vertices along one parallel
+        PreparedPolygon flat = new PreparedPolygon(vertices(new double[]{0, 0, 1, 0, 2, 0}));
+        for (double x = -0.5; x <= 2.5; x += 0.25) {
+            assertFalse(flat.contains(BASE_LAT, BASE_LON + x * UNIT));
+            assertFalse(flat.contains(BASE_LAT + UNIT, BASE_LON + x * UNIT));
+            assertFalse(flat.contains(BASE_LAT - UNIT, BASE_LON + x * UNIT));
+        }
+        // Still a usable edge for margins: one unit of latitude is about 111 m
+        assertEquals(111.2, flat.distanceToEdge(BASE_LAT + UNIT, BASE_LON + UNIT), 0.1);
+    }
+
+    @Test
+    public void encodeDecodeKeepsE7Precision() {
+        double[] vertices = {51.50123456789, -0.12345678912, 51.5021, -0.1201, -33.8688197, 151.2092955};
+        PreparedPolygon polygon = new PreparedPolygon(vertices);
+        byte[] blob = polygon.encode();
+        assertEquals(vertices.length * 4, blob.length);
+
+        PreparedPolygon decoded = PreparedPolygon.decode(blob);
+        double[] roundTrip = decoded.getVertices();
+        assertEquals(vertices.length, roundTrip.length);
+        for (int i = 0; i < vertices.length; i++) {
+            assertEquals(vertices[i], roundTrip[i], 0.5e-7);
+        }
+        // A second trip through the blob changes nothing
+        assertArrayEquals(blob, decoded.encode());
+    }
+
+    @Test
+    public void decodeRejectsBadBlobs() {
+        byte[] triangle = new PreparedPolygon(vertices(new double[]{0, 0, 1, 0, 0, 1})).encode();
+
+        assertThrows(IllegalArgumentException.class, () -> PreparedPolygon.decode(null));
+        byte[] truncated = new byte[triangle.length - 3];
+        System.arraycopy(triangle, 0, truncated, 0, truncated.length);
+        assertThrows(IllegalArgumentException.class, () -> PreparedPolygon.decode(truncated));
+        byte[] twoVertices = new byte[16];
+        System.arraycopy(triangle, 0, twoVertices, 0, twoVertices.length);
+        assertThrows(IllegalArgumentException.class, () -> PreparedPolygon.decode(twoVertices));
+
+        // Latitude 91 and longitude 181 both fit in E7 ints, so only the range check catches them
+        assertThrows(IllegalArgumentException.class, () -> PreparedPolygon.decode(blob(91, 0, 90, 1, 89, 0)));
+        assertThrows(IllegalArgumentException.class, () -> PreparedPolygon.decode(blob(0, 181, 1, 180, 0, 179)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new PreparedPolygon(new double[]{0, 0, Double.NaN, 1, 1, 0}));
+    }
+
+    @Test
+    public void trajectoryEntersAndExitsEachArmOfAConcavePolygon() {
+        SmartLocation fence = new SmartLocation(1, "U", 0, 0, 0, 1, 2, true);
+        fence.setPolygon(new PreparedPolygon(vertices(U_SHAPE)));
+        List<SmartLocation> fences = new ArrayList<>();
+        fences.add(fence);
+        GeofenceIndex index = GeofenceIndex.build(fences);
+        TrajectoryEvaluator evaluator = new TrajectoryEvaluator();
+
+        // East along y = 2, through both arms and the notch between them, one unit a second
+        double latitude = BASE_LAT + 2 * UNIT;
+        List<TrajectoryEvaluator.Crossing> crossings = new ArrayList<>();
+        evaluator.evaluateSegment(index, latitude, BASE_LON - UNIT, 0, latitude, BASE_LON + 4 * UNIT, 5000, crossings);
+        assertEquals(4, crossings.size());
+        boolean enter = true;
+        for (int i = 0; i < 4; i++) {
+            TrajectoryEvaluator.Crossing crossing = crossings.get(i);
+            assertEquals(enter, crossing.enter);
+            assertEquals(1000 * (i + 1), crossing.timeMs, 1);
+            assertEquals(BASE_LON + i * UNIT, crossing.longitude, 1e-9);
+            // The reported inside point is in the arm this crossing belongs to
+            assertTrue(fence.getPolygon().contains(crossing.insideLatitude, crossing.insideLongitude));
+            assertEquals(BASE_LON + (i / 2 * 2 + 0.5) * UNIT, crossing.insideLongitude, 1e-9);
+            enter = !enter;
+        }
+
+        // Starting inside the west arm: out through the notch, then into the east arm
+        crossings.clear();
+        evaluator.evaluateSegment(index, latitude, BASE_LON + 0.5 * UNIT, 0, latitude, BASE_LON + 2.5 * UNIT, 2000,
+                crossings);
+        assertEquals(2, crossings.size());
+        assertFalse(crossings.get(0).enter);
+        assertEquals(500, crossings.get(0).timeMs, 1);
+        assertTrue(crossings.get(1).enter);
+        assertEquals(1500, crossings.get(1).timeMs, 1);
+
+        // Along the joined base, y = 0.5, nothing is crossed inside
+        crossings.clear();
+        double base = BASE_LAT + 0.5 * UNIT;
+        evaluator.evaluateSegment(index, base, BASE_LON + 0.5 * UNIT, 0, base, BASE_LON + 2.5 * UNIT, 2000, crossings);
+        assertEquals(Collections.emptyList(), crossings);
+    }
+
+    // Shape x/y pairs in units to latitude/longitude pairs around the base point
+    private static double[] vertices(double[] shape) {
+        double[] vertices = new double[shape.length];
+        for (int i = 0; i < shape.length; i += 2) {
+            vertices[i] = BASE_LAT + shape[i + 1] * UNIT;
+            vertices[i + 1] = BASE_LON + shape[i] * UNIT;
+        }
+        return vertices;
+    }
+
+    private static double[] reversed(double[] vertices) {
+        double[] reversed = new double[vertices.length];
+        for (int i = 0; i < vertices.length; i += 2) {
+            reversed[vertices.length - 2 - i] = vertices[i];
+            reversed[vertices.length - 1 - i] = vertices[i + 1];
+        }
+        return reversed;
+    }
+
+    // Textbook even-odd rule in degrees, which a small polygon's flat projection only scales
+    private static boolean evenOdd(double[] vertices, double latitude, double longitude) {
+        boolean inside = false;
+        int count = vertices.length / 2;
+        for (int i = 0, j = count - 1; i < count; j = i++) {
+            double latI = vertices[2 * i], lonI = vertices[2 * i + 1];
+            double latJ = vertices[2 * j], lonJ = vertices[2 * j + 1];
+            if ((latI > latitude) != (latJ > latitude)
+                    && longitude < (lonJ - lonI) * (latitude - latI) / (latJ - latI) + lonI) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    // Latitude/longitude pairs to an E7 blob, without PreparedPolygon's checks
+    private static byte[] blob(double... vertices) {
+        ByteBuffer buffer = ByteBuffer.allocate(vertices.length * 4);
+        for (double coordinate : vertices) {
+            buffer.putInt((int) Math.round(coordinate * 1e7));
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.smartmute;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives WifiPlaceMonitor with a fake connectivity source and a simulated
+ * clock, through the same state machine the location fences use.
+ */
+public class WifiPlaceMonitorTest {
+    private static final String OFFICE_AP = "aa:bb:cc:00:00:01";
+    private static final String OFFICE_AP_2 = "aa:bb:cc:00:00:02";
+
+    private final FakeConnectivitySource connectivity = new FakeConnectivitySource();
+    private final List<String> events = new ArrayList<>();
+    private final List<Runnable> timerTasks = new ArrayList<>();
+    private final List<Long> timerDue = new ArrayList<>();
+    private final List<Integer> history = new ArrayList<>();
+    private long now = 1_000_000L;
+
+    private RuleSnapshot snapshot;
+    private GeofenceStateMachine state;
+    private WifiPlaceMonitor monitor;
+
+    private static final class FakeConnectivitySource implements ConnectivitySource {
+        Listener listener;
+
+        @Override
+        public void start(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void stop() {
+            listener = null;
+        }
+
+        void connect(String ssid, String bssid) {
+            listener.onWifiChanged(ssid, bssid);
+        }
+
+        void disconnect() {
+            listener.onWifiChanged(null, null);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        SmartLocation home = new SmartLocation(1, "Home", 0, 0, 0, 1, 2, true);
+        home.setWifiNetworks(Collections.singletonList("\"HomeNet\""));
+        SmartLocation office = new SmartLocation(2, "Office", 0, 0, 0, 1, 2, true);
+        office.setWifiNetworks(Arrays.asList(OFFICE_AP.toUpperCase(), OFFICE_AP_2));
+        setRules(home, office, new SmartLocation(3, "Park", 51.5, -0.12, 200, 1, 2, true));
+
+        state = new GeofenceStateMachine(new GeofenceStateMachine.Listener() {
+            @Override
+            public void onEnter(SmartLocation fence) {
+                events.add("enter " + fence.getName());
+            }
+
+            @Override
+            public void onExit(int fenceId) {
+                events.add("exit " + fenceId);
+            }
+        });
+        monitor = new WifiPlaceMonitor(connectivity, state, () -> snapshot, () -> now, (task, delayMs) -> {
+            timerTasks.add(task);
+            timerDue.add(now + delayMs);
+        }, history::add);
+        monitor.start();
+    }
+
+    @Test
+    public void connectingEntersAtOnceAndLeavingExitsAfterTheGracePeriod() {
+        connectivity.connect("HomeNet", "11:22:33:44:55:66");
+        assertEquals(Collections.singletonList("enter Home"), events);
+
+        connectivity.disconnect();
+        advance(WifiPlaceMonitor.EXIT_GRACE_MS - 1);
+        assertEquals(1, events.size());
+        advance(1);
+        assertEquals(Arrays.asList("enter Home", "exit 1"), events);
+        // The history gets the active place after each transition
+        assertEquals(Arrays.asList(1, -1), history);
+    }
+
+    @Test
+    public void briefDropsAndAccessPointHopsChangeNothing() {
+        connectivity.connect("CorpWifi", OFFICE_AP);
+        connectivity.connect("CorpWifi", OFFICE_AP_2);
+        connectivity.disconnect();
+        advance(10 * 1000L);
+        connectivity.connect("CorpWifi", OFFICE_AP);
+        advance(5 * WifiPlaceMonitor.EXIT_GRACE_MS);
+
+        assertEquals(Collections.singletonList("enter Office"), events);
+    }
+
+    @Test
+    public void unlistedAccessPointOfTheSameNetworkMatchesNothing() {
+        connectivity.connect("CorpWifi", "aa:bb:cc:00:00:99");
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void locationFixesLeaveWifiPlacesAlone() {
+        connectivity.connect("HomeNet", null);
+        // Fixes far from any fence, for longer than the exit dwell
+        for (int i = 0; i <= 10; i++) {
+            now += 30 * 1000L;
+            state.update(40.0, -74.0, now, Collections.emptyList(), snapshot);
+        }
+        assertEquals(Collections.singletonList("enter Home"), events);
+        assertEquals(1, state.getActiveFenceId());
+    }
+
+    @Test
+    public void deletedPlaceIsLeftImmediately() {
+        connectivity.connect("HomeNet", null);
+        setRules(snapshot.getActiveLocation(2), snapshot.getActiveLocation(3));
+        monitor.onRulesChanged(1);
+        assertEquals(Arrays.asList("enter Home", "exit 1"), events);
+    }
+
+    @Test
+    public void restoredPlaceIsLeftWhenItsNetworkIsAbsent() {
+        // Active at the office before a restart, now at home
+        state.restore(2);
+        connectivity.connect("HomeNet", null);
+        assertTrue(state.isInside(2));
+
+        advance(WifiPlaceMonitor.EXIT_GRACE_MS);
+        assertFalse(state.isInside(2));
+        assertEquals(1, state.getActiveFenceId());
+    }
+
+    private void setRules(SmartLocation... locations) {
+        List<SmartLocation> active = Arrays.asList(locations);
+        snapshot = new RuleSnapshot(active, Collections.emptyList(), Collections.emptyList(),
+                Collections.emptyList(), GeofenceIndex.build(active));
+    }
+
+    // Moves the clock on, running timer tasks as they fall due
+    private void advance(long ms) {
+        long target = now + ms;
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < timerDue.size(); i++) {
+                if (timerDue.get(i) <= target && (next == -1 || timerDue.get(i) < timerDue.get(next))) {
+                    next = i;
+                }
+            }
+            if (next == -1) {
+                break;
+            }
+            now = Math.max(now, timerDue.remove(next));
+            timerTasks.remove(next).run();
+        }
+        now = target;
+    }
+}